@@ -0,0 +1,236 @@
+import logging
+import math
+import os
+import subprocess
+import wave
+import numpy as np
+from pydub import AudioSegment
+import metrics
+
+logger = logging.getLogger(__name__)
+
+POSTPROCESS_ENABLED = os.environ.get("NEUROVOICE_POSTPROCESS", "1") == "1"
+SILENCE_GAP_MS = int(os.environ.get("NEUROVOICE_SILENCE_GAP_MS", "300"))
+MAX_PAUSE_MS = int(os.environ.get("NEUROVOICE_MAX_PAUSE_MS", "800"))
+SILENCE_THRESHOLD_DBFS = float(os.environ.get("NEUROVOICE_SILENCE_THRESHOLD_DBFS", "-45"))
+TARGET_DBFS = float(os.environ.get("NEUROVOICE_TARGET_DBFS", "-20"))
+MAX_GAIN_DB = 12.0
+FRAME_MS = 20
+# Stała czasowa pomiaru głośności - kilka sekund mowy, aby wzmocnienie nie "pompowało"
+LOUDNESS_WINDOW_MS = 3000
+GAIN_SLEW_DB_PER_FRAME = 0.25
+PEAK_LIMIT = 0.98
+
+input_audio_seconds = metrics.registry.counter(
+    "neurovoice_postprocess_input_seconds_total",
+    "Długość audio przed usunięciem ciszy")
+output_audio_seconds = metrics.registry.counter(
+    "neurovoice_postprocess_output_seconds_total",
+    "Długość audio po usunięciu ciszy")
+
+class StreamingPostProcessor:
+    """Strumieniowo łączy fragmenty WAV w rozdział MP3, skracając ciszę i wyrównując głośność.
+
+    Audio przetwarzane jest ramkami po FRAME_MS i od razu przekazywane do kodera ffmpeg, więc
+    zużycie pamięci nie zależy od długości rozdziału. Cisza na styku fragmentów jest ograniczana
+    do SILENCE_GAP_MS, a pauzy wewnątrz fragmentu do MAX_PAUSE_MS. Długi rozdział można podzielić
+    na kilka plików (start_segment); pozycje zwracane przez add_chunk są liczone od początku rozdziału.
+    """
+
+    def __init__(self, output_path: str, bitrate: str = "192k", enabled: bool = POSTPROCESS_ENABLED):
+        """Tworzy procesor zapisujący do podanego pliku MP3.
+
+        Args:
+            output_path (str): Ścieżka docelowa pliku MP3
+            bitrate (str): Przepływność kodera MP3
+            enabled (bool): Czy skracać ciszę i normalizować głośność (w przeciwnym razie tylko łączy)
+        """
+        self.output_path = output_path
+        self.bitrate = bitrate
+        self.enabled = enabled
+        self._encoder = None
+        self._rate = None
+        self._channels = None
+        self._frame_samples = 0
+        self._pending_silence = []
+        self._pending_cap_frames = 0
+        self._loudness_power = None
+        self._gain_db = 0.0
+        self.input_samples = 0
+        self.written_samples = 0
+        # Początek bieżącego pliku (segmentu) w próbkach wejścia i wyjścia
+        self._segment_input_start = 0
+        self._segment_written_start = 0
+
+    def _start_encoder(self, rate: int, channels: int):
+        self._rate = rate
+        self._channels = channels
+        self._frame_samples = max(1, rate * FRAME_MS // 1000)
+        self._pending_cap_frames = MAX_PAUSE_MS // FRAME_MS
+        self._spawn_encoder()
+
+    def _spawn_encoder(self):
+        self._encoder = subprocess.Popen(
+            [AudioSegment.converter, "-y", "-loglevel", "error",
+             "-f", "s16le", "-ar", str(self._rate), "-ac", str(self._channels), "-i", "pipe:0",
+             "-f", "mp3", "-b:a", self.bitrate, self.output_path],
+            stdin=subprocess.PIPE)
+
+    @property
+    def position_ms(self) -> int:
+        if not self._rate:
+            return 0
+        return int(self.written_samples * 1000 / self._rate)
+
+    @property
+    def segment_ms(self) -> int:
+        """Długość audio zapisanego dotąd do bieżącego pliku."""
+        if not self._rate:
+            return 0
+        return int((self.written_samples - self._segment_written_start) * 1000 / self._rate)
+
+    def _write(self, frame: np.ndarray):
+        out = frame * (10 ** (self._gain_db / 20.0)) if self.enabled else frame
+        peak = float(np.max(np.abs(out))) if out.size else 0.0
+        if peak > PEAK_LIMIT:
+            out = out * (PEAK_LIMIT / peak)
+        self._encoder.stdin.write((out * 32767.0).astype('<i2').tobytes())
+        self.written_samples += len(out) // self._channels
+
+    def _update_gain(self, power: float):
+        decay = math.exp(-FRAME_MS / LOUDNESS_WINDOW_MS)
+        if self._loudness_power is None:
+            self._loudness_power = power
+        else:
+            self._loudness_power = decay * self._loudness_power + (1 - decay) * power
+        desired = TARGET_DBFS - 10 * math.log10(max(self._loudness_power, 1e-12))
+        desired = max(-MAX_GAIN_DB, min(MAX_GAIN_DB, desired))
+        step = max(-GAIN_SLEW_DB_PER_FRAME, min(GAIN_SLEW_DB_PER_FRAME, desired - self._gain_db))
+        self._gain_db += step
+
+    def _flush_silence(self):
+        for frame in self._pending_silence:
+            self._write(frame)
+        self._pending_silence = []
+
+    def add_chunk(self, wav_path: str) -> int:
+        """Dołącza fragment WAV (16-bit PCM) do rozdziału.
+
+        Args:
+            wav_path (str): Ścieżka do pliku WAV fragmentu
+
+        Returns:
+            int: Pozycja w ms, od której w wyjściu zaczyna się mowa z tego fragmentu
+        """
+        with wave.open(wav_path, 'rb') as wav:
+            if wav.getsampwidth() != 2:
+                raise ValueError(f"Nieobsługiwany format WAV ({8 * wav.getsampwidth()} bit): {wav_path}")
+            if self._encoder is None:
+                self._start_encoder(wav.getframerate(), wav.getnchannels())
+            elif wav.getframerate() != self._rate or wav.getnchannels() != self._channels:
+                raise ValueError(f"Niezgodna częstotliwość lub liczba kanałów fragmentu: {wav_path}")
+
+            # Na styku fragmentów dopuszczamy najwyżej SILENCE_GAP_MS ciszy
+            if self.enabled:
+                self._pending_cap_frames = SILENCE_GAP_MS // FRAME_MS
+                del self._pending_silence[self._pending_cap_frames:]
+            start_ms = None
+            while True:
+                raw = wav.readframes(self._frame_samples)
+                if not raw:
+                    break
+                frame = np.frombuffer(raw, dtype='<i2').astype(np.float32) / 32768.0
+                self.input_samples += len(frame) // self._channels
+                if not self.enabled:
+                    if start_ms is None:
+                        start_ms = self.position_ms
+                    self._write(frame)
+                    continue
+
+                power = float(np.mean(frame * frame)) if frame.size else 0.0
+                level = 10 * math.log10(max(power, 1e-12))
+                if level < SILENCE_THRESHOLD_DBFS:
+                    if len(self._pending_silence) < self._pending_cap_frames:
+                        self._pending_silence.append(frame)
+                    continue
+
+                self._flush_silence()
+                self._pending_cap_frames = MAX_PAUSE_MS // FRAME_MS
+                if start_ms is None:
+                    start_ms = self.position_ms
+                self._update_gain(power)
+                self._write(frame)
+        return start_ms if start_ms is not None else self.position_ms
+
+    def _finish_file(self) -> dict:
+        # Końcową ciszę pliku również ograniczamy do odstępu między fragmentami
+        del self._pending_silence[SILENCE_GAP_MS // FRAME_MS:]
+        self._flush_silence()
+        self._encoder.stdin.close()
+        if self._encoder.wait() != 0:
+            raise RuntimeError(f"ffmpeg zakończył się błędem podczas kodowania {self.output_path}")
+        input_ms = int((self.input_samples - self._segment_input_start) * 1000 / self._rate)
+        output_ms = self.segment_ms
+        input_audio_seconds.inc(input_ms / 1000.0)
+        output_audio_seconds.inc(output_ms / 1000.0)
+        self._segment_input_start = self.input_samples
+        self._segment_written_start = self.written_samples
+        return {'input_ms': input_ms, 'output_ms': output_ms, 'bytes': os.path.getsize(self.output_path)}
+
+    def start_segment(self, output_path: str) -> dict:
+        """Zamyka bieżący plik MP3 i kontynuuje rozdział w nowym pliku.
+
+        Wywoływane między fragmentami, czyli na granicy zdań. Stan normalizacji głośności jest
+        zachowywany, więc na styku plików nie ma skoku głośności.
+
+        Args:
+            output_path (str): Ścieżka kolejnego pliku MP3
+
+        Returns:
+            dict: Statystyki zamkniętego pliku (jak close())
+        """
+        if self._encoder is None:
+            raise ValueError("Brak fragmentów audio do zakodowania")
+        stats = self._finish_file()
+        self.output_path = output_path
+        self._spawn_encoder()
+        return stats
+
+    def close(self) -> dict:
+        """Kończy kodowanie rozdziału.
+
+        Returns:
+            dict: Długość wejścia i wyjścia w ms oraz rozmiar ostatniego pliku MP3 w bajtach
+        """
+        if self._encoder is None:
+            raise ValueError("Brak fragmentów audio do zakodowania")
+        return self._finish_file()
+
+    def abort(self):
+        """Przerywa kodowanie po błędzie, nie zostawiając działającego procesu ffmpeg."""
+        if self._encoder is not None and self._encoder.poll() is None:
+            self._encoder.kill()
+            self._encoder.wait()
+
+def summarize(chapter_stats: list) -> dict:
+    """Podsumowuje oszczędności dla całej książki.
+
+    Args:
+        chapter_stats (list): Wyniki close() dla kolejnych rozdziałów
+
+    Returns:
+        dict: Łączne długości, rozmiar i szacowane oszczędności
+    """
+    input_ms = sum(s.get('input_ms', 0) for s in chapter_stats)
+    output_ms = sum(s.get('output_ms', 0) for s in chapter_stats)
+    size = sum(s.get('bytes', 0) for s in chapter_stats)
+    # MP3 ze stałą przepływnością - rozmiar jest proporcjonalny do długości
+    estimated_original = int(size * input_ms / output_ms) if output_ms else size
+    return {
+        'input_seconds': round(input_ms / 1000.0, 1),
+        'output_seconds': round(output_ms / 1000.0, 1),
+        'saved_seconds': round((input_ms - output_ms) / 1000.0, 1),
+        'saved_percent': round(100.0 * (input_ms - output_ms) / input_ms, 1) if input_ms else 0.0,
+        'output_bytes': size,
+        'saved_bytes_estimate': max(0, estimated_original - size)
+    }
@@ -0,0 +1,240 @@
+"""Porównuje szybkość i jakość syntezy XTTS w trybie bazowym i w trybie przyspieszenia CPU.
+
+Każdy tryb uruchamiany jest w osobnym procesie, bo liczba wątków torch i kwantyzacja
+są globalne dla procesu. Oba tryby przed pomiarem wykonują tę samą rozgrzewkę. Jakość
+trybu przyspieszenia mierzona jest odległością log-mel (L1 po dopasowaniu DTW) od wyniku
+float32 dla tego samego zdania i ziarna - wychwytuje artefakty int8 i kompilacji, których
+nie widać w długości i poziomie. Wyniki (RTF, długości, poziomy, odległości) trafiają do
+report.json, a pliki WAV do katalogów <out>/<tryb>/ - do odsłuchu porównawczego.
+
+Użycie:
+    python benchmark_cpu.py --out wyniki_cpu
+"""
+import argparse
+import array
+import json
+import logging
+import math
+import os
+import subprocess
+import sys
+import time
+import wave
+import numpy as np
+
+logging.basicConfig(level=logging.INFO)
+logger = logging.getLogger(__name__)
+
+# Stały zestaw polskich zdań - różne długości, interpunkcja i znaki diakrytyczne
+POLISH_TEXTS = [
+    "Litwo, Ojczyzno moja! ty jesteś jak zdrowie.",
+    "Ile cię trzeba cenić, ten tylko się dowie, kto cię stracił.",
+    "W Szczebrzeszynie chrząszcz brzmi w trzcinie i Szczebrzeszyn z tego słynie.",
+    "Pociąg do Krakowa odjechał punktualnie, choć na peronie wciąż stało kilkoro spóźnionych podróżnych.",
+    "Czy naprawdę sądzisz, że zdążymy przed zmrokiem?",
+    "Zażółć gęślą jaźń.",
+    "Był to człowiek niewysoki, o łagodnym spojrzeniu i cichym, nieco zachrypniętym głosie, który rzadko się odzywał.",
+    "Na zakończenie rozdziału bohater zamknął książkę, zgasił lampę i długo wsłuchiwał się w szum deszczu.",
+]
+
+MEL_N_FFT = 1024
+MEL_HOP = 256
+MEL_BANDS = 80
+
+def wav_stats(file_path: str) -> dict:
+    """Oblicza długość i poziom RMS pliku WAV (16-bit PCM).
+
+    Args:
+        file_path (str): Ścieżka do pliku WAV
+
+    Returns:
+        dict: Długość w sekundach i poziom RMS w dBFS
+    """
+    with wave.open(file_path, 'rb') as wav:
+        frames = wav.readframes(wav.getnframes())
+        duration = wav.getnframes() / float(wav.getframerate())
+        width = wav.getsampwidth()
+    if width != 2 or not frames:
+        return {'duration': duration, 'rms_dbfs': None}
+    samples = array.array('h', frames)
+    rms = math.sqrt(sum(s * s for s in samples) / len(samples))
+    return {'duration': duration, 'rms_dbfs': round(20 * math.log10(rms / 32768.0), 2) if rms > 0 else -120.0}
+
+def _mel_filterbank(sample_rate: int) -> np.ndarray:
+    """Trójkątne filtry melowe (skala HTK) o wymiarach [MEL_BANDS, MEL_N_FFT // 2 + 1]."""
+    def hz_to_mel(hz):
+        return 2595.0 * np.log10(1.0 + hz / 700.0)
+
+    def mel_to_hz(mel):
+        return 700.0 * (10.0 ** (mel / 2595.0) - 1.0)
+
+    edges = mel_to_hz(np.linspace(hz_to_mel(0.0), hz_to_mel(sample_rate / 2.0), MEL_BANDS + 2))
+    bins = np.fft.rfftfreq(MEL_N_FFT, 1.0 / sample_rate)
+    filters = np.zeros((MEL_BANDS, len(bins)))
+    for band in range(MEL_BANDS):
+        low, center, high = edges[band], edges[band + 1], edges[band + 2]
+        rising = (bins - low) / max(center - low, 1e-9)
+        falling = (high - bins) / max(high - center, 1e-9)
+        filters[band] = np.maximum(0.0, np.minimum(rising, falling))
+    return filters
+
+def log_mel(file_path: str) -> np.ndarray:
+    """Oblicza spektrogram log-mel pliku WAV (16-bit PCM, mono).
+
+    Args:
+        file_path (str): Ścieżka do pliku WAV
+
+    Returns:
+        np.ndarray: Ramki [liczba ramek, MEL_BANDS] w skali log10
+    """
+    with wave.open(file_path, 'rb') as wav:
+        sample_rate = wav.getframerate()
+        samples = np.frombuffer(wav.readframes(wav.getnframes()), dtype='<i2').astype(np.float32) / 32768.0
+    if len(samples) < MEL_N_FFT:
+        samples = np.pad(samples, (0, MEL_N_FFT - len(samples)))
+    frame_count = 1 + (len(samples) - MEL_N_FFT) // MEL_HOP
+    indices = np.arange(MEL_N_FFT)[None, :] + MEL_HOP * np.arange(frame_count)[:, None]
+    spectrum = np.abs(np.fft.rfft(samples[indices] * np.hanning(MEL_N_FFT), axis=1)) ** 2
+    return np.log10(np.maximum(spectrum @ _mel_filterbank(sample_rate).T, 1e-10))
+
+def mel_distance(reference_path: str, candidate_path: str) -> float:
+    """Średnia odległość L1 ramek log-mel po dopasowaniu obu nagrań algorytmem DTW.
+
+    Tryby mogą wygenerować zdanie w nieco innym tempie, więc ramki porównywane są wzdłuż
+    najlepszej ścieżki dopasowania, a nie po indeksach.
+
+    Args:
+        reference_path (str): Plik WAV trybu bazowego (float32)
+        candidate_path (str): Plik WAV porównywanego trybu
+
+    Returns:
+        float: Średnia różnica na ramkę i pasmo (0 - identyczne widma)
+    """
+    reference = log_mel(reference_path)
+    candidate = log_mel(candidate_path)
+    cost = np.stack([np.abs(candidate - frame).mean(axis=1) for frame in reference]).tolist()
+    # Skumulowany koszt i długość najlepszej ścieżki, wiersz po wierszu (kroki: przekątna, w dół, w prawo)
+    columns = len(candidate)
+    previous_total = [0.0] + [math.inf] * columns
+    previous_steps = [0] * (columns + 1)
+    for row in cost:
+        total = [math.inf] * (columns + 1)
+        steps = [0] * (columns + 1)
+        for j in range(1, columns + 1):
+            diagonal, up, left = previous_total[j - 1], previous_total[j], total[j - 1]
+            if diagonal <= up and diagonal <= left:
+                best, count = diagonal, previous_steps[j - 1]
+            elif up <= left:
+                best, count = up, previous_steps[j]
+            else:
+                best, count = left, steps[j - 1]
+            total[j] = row[j - 1] + best
+            steps[j] = count + 1
+        previous_total, previous_steps = total, steps
+    return previous_total[columns] / previous_steps[columns]
+
+def run_mode(mode: str, out_dir: str) -> dict:
+    """Ładuje model w danym trybie i syntezuje zestaw zdań (wywoływane w procesie potomnym).
+
+    Args:
+        mode (str): 'baseline' lub 'cpu_performance'
+        out_dir (str): Katalog na pliki WAV
+
+    Returns:
+        dict: Wyniki pomiarów dla trybu
+    """
+    import torch
+    from TTS.api import TTS
+    import cpu_perf
+
+    torch.manual_seed(0)
+    if mode == 'cpu_performance':
+        cpu_perf.configure_threads()
+    load_start = time.perf_counter()
+    tts = TTS(model_name="tts_models/multilingual/multi-dataset/xtts_v2", progress_bar=False).to("cpu")
+    info = cpu_perf.apply(tts, "cpu")
+    load_time = time.perf_counter() - load_start
+    # Ta sama rozgrzewka w obu trybach - apply() rozgrzewa tylko po kompilacji dekodera
+    cpu_perf.warmup(tts)
+
+    os.makedirs(out_dir, exist_ok=True)
+    results = []
+    for idx, text in enumerate(POLISH_TEXTS):
+        wav_path = os.path.join(out_dir, f"{idx:02d}.wav")
+        torch.manual_seed(idx)
+        start = time.perf_counter()
+        with cpu_perf.inference_context(info):
+            tts.tts_to_file(text=text, file_path=wav_path, speaker="Ana Florence", language="pl")
+        elapsed = time.perf_counter() - start
+        stats = wav_stats(wav_path)
+        results.append({'text': text, 'file': os.path.basename(wav_path), 'compute_seconds': round(elapsed, 3), **stats,
+                        'rtf': round(stats['duration'] / elapsed, 3) if elapsed > 0 else 0.0})
+        logger.info(f"[{mode}] {idx + 1}/{len(POLISH_TEXTS)}: {elapsed:.2f} s obliczeń, {stats['duration']:.2f} s audio")
+
+    audio = sum(r['duration'] for r in results)
+    compute = sum(r['compute_seconds'] for r in results)
+    return {'mode': mode, 'inference_mode': info, 'load_seconds': round(load_time, 2),
+            'audio_seconds': round(audio, 2), 'compute_seconds': round(compute, 2),
+            'rtf': round(audio / compute, 3) if compute else 0.0, 'sentences': results}
+
+def compare(baseline: dict, fast: dict, out_dir: str) -> dict:
+    """Zestawia wyniki obu trybów.
+
+    Args:
+        baseline (dict): Wyniki trybu bazowego
+        fast (dict): Wyniki trybu przyspieszenia CPU
+        out_dir (str): Katalog z plikami WAV obu trybów
+
+    Returns:
+        dict: Przyspieszenie i różnice wskaźników jakości
+    """
+    pairs = list(zip(baseline['sentences'], fast['sentences']))
+    for b, f in pairs:
+        f['mel_l1'] = round(mel_distance(os.path.join(out_dir, baseline['mode'], b['file']),
+                                         os.path.join(out_dir, fast['mode'], f['file'])), 4)
+    mel_distances = [f['mel_l1'] for _, f in pairs]
+    duration_ratios = [f['duration'] / b['duration'] for b, f in pairs if b['duration'] > 0]
+    level_deltas = [f['rms_dbfs'] - b['rms_dbfs'] for b, f in pairs if b['rms_dbfs'] is not None and f['rms_dbfs'] is not None]
+    return {
+        'speedup': round(fast['rtf'] / baseline['rtf'], 3) if baseline['rtf'] else None,
+        'mean_duration_ratio': round(sum(duration_ratios) / len(duration_ratios), 3) if duration_ratios else None,
+        'max_duration_deviation': round(max(abs(r - 1.0) for r in duration_ratios), 3) if duration_ratios else None,
+        'mean_level_delta_db': round(sum(level_deltas) / len(level_deltas), 2) if level_deltas else None,
+        'mean_mel_l1': round(sum(mel_distances) / len(mel_distances), 4) if mel_distances else None,
+        'max_mel_l1': round(max(mel_distances), 4) if mel_distances else None,
+    }
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument('--out', default='benchmark_cpu_out', help='Katalog wyników')
+    parser.add_argument('--mode', choices=['baseline', 'cpu_performance'], help=argparse.SUPPRESS)
+    args = parser.parse_args()
+
+    if args.mode:
+        result = run_mode(args.mode, os.path.join(args.out, args.mode))
+        with open(os.path.join(args.out, f"{args.mode}.json"), 'w', encoding='utf-8') as f:
+            json.dump(result, f, ensure_ascii=False, indent=2)
+        return
+
+    os.makedirs(args.out, exist_ok=True)
+    results = {}
+    for mode in ('baseline', 'cpu_performance'):
+        env = dict(os.environ, NEUROVOICE_CPU_PERF='1' if mode == 'cpu_performance' else '0', CUDA_VISIBLE_DEVICES='')
+        subprocess.run([sys.executable, os.path.abspath(__file__), '--out', args.out, '--mode', mode], env=env, check=True)
+        with open(os.path.join(args.out, f"{mode}.json"), encoding='utf-8') as f:
+            results[mode] = json.load(f)
+
+    report = {'baseline': results['baseline'], 'cpu_performance': results['cpu_performance'],
+              'comparison': compare(results['baseline'], results['cpu_performance'], args.out)}
+    with open(os.path.join(args.out, 'report.json'), 'w', encoding='utf-8') as f:
+        json.dump(report, f, ensure_ascii=False, indent=2)
+
+    print(f"{'tryb':<18}{'ładowanie [s]':>15}{'audio [s]':>12}{'obliczenia [s]':>16}{'RTF':>8}")
+    for mode in ('baseline', 'cpu_performance'):
+        r = results[mode]
+        print(f"{mode:<18}{r['load_seconds']:>15}{r['audio_seconds']:>12}{r['compute_seconds']:>16}{r['rtf']:>8}")
+    print(f"Porównanie: {report['comparison']}")
+    print(f"Pliki WAV do odsłuchu: {os.path.abspath(args.out)}/<tryb>/")
+
+if __name__ == '__main__':
+    main()
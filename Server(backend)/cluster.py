@@ -0,0 +1,301 @@
+import io
+import logging
+import os
+import threading
+import time
+import uuid
+import wave
+import metrics
+
+logger = logging.getLogger(__name__)
+
+LEASE_SECONDS = float(os.environ.get("NEUROVOICE_CLUSTER_LEASE_SECONDS", "30"))
+MAX_LEASE_SECONDS = float(os.environ.get("NEUROVOICE_CLUSTER_MAX_LEASE_SECONDS", "600"))
+BATCH_SIZE = int(os.environ.get("NEUROVOICE_CLUSTER_BATCH_SIZE", "4"))
+MAX_ATTEMPTS = int(os.environ.get("NEUROVOICE_CLUSTER_MAX_ATTEMPTS", "3"))
+
+workers_gauge = metrics.registry.gauge(
+    "neurovoice_cluster_workers",
+    "Liczba zarejestrowanych węzłów roboczych")
+inflight_chunks = metrics.registry.gauge(
+    "neurovoice_cluster_inflight_chunks",
+    "Fragmenty wydzierżawione węzłom roboczym i jeszcze nieoddane")
+cluster_chunks_total = metrics.registry.counter(
+    "neurovoice_cluster_chunks_total",
+    "Fragmenty obsłużone przez węzły robocze według wyniku",
+    ("result",))
+expired_leases_total = metrics.registry.counter(
+    "neurovoice_cluster_expired_leases_total",
+    "Dzierżawy odebrane węzłom, które przestały wysyłać heartbeat")
+
+class _Worker:
+    __slots__ = ("worker_id", "name", "address", "registered_at", "last_heartbeat", "leases", "chunks_done")
+
+    def __init__(self, name: str, address: str):
+        self.worker_id = uuid.uuid4().hex
+        self.name = name
+        self.address = address
+        self.registered_at = time.time()
+        self.last_heartbeat = time.monotonic()
+        self.leases = set()
+        self.chunks_done = 0
+
+class _Lease:
+    __slots__ = ("lease_id", "worker_id", "chunks", "created_at", "expires_at")
+
+    def __init__(self, worker_id: str, chunks: list):
+        self.lease_id = uuid.uuid4().hex
+        self.worker_id = worker_id
+        self.chunks = {chunk.chunk_id: chunk for chunk in chunks}
+        self.created_at = time.monotonic()
+        self.expires_at = self.created_at + LEASE_SECONDS
+
+class Coordinator:
+    """Rozdziela fragmenty z harmonogramu syntezy między zdalne węzły robocze.
+
+    Węzły same pobierają partie fragmentów (dzierżawy) i odsyłają gotowe pliki WAV. Heartbeat
+    przedłuża dzierżawy węzła; jeśli ustanie, dzierżawy wygasają, a ich nieoddane fragmenty wracają
+    na początek kolejki swojego zadania i trafiają do innego węzła. Kolejność rozdziałów nie zależy
+    od tego, który węzeł zsyntezował fragment - process_job składa je według indeksów.
+    """
+
+    def __init__(self, scheduler, lease_seconds: float = LEASE_SECONDS, batch_size: int = BATCH_SIZE):
+        """Tworzy koordynatora i uruchamia wątek wygaszający dzierżawy.
+
+        Args:
+            scheduler: Harmonogram syntezy, z którego pobierane są fragmenty
+            lease_seconds (float): Czas ważności dzierżawy bez heartbeatu
+            batch_size (int): Domyślna liczba fragmentów w jednej dzierżawie
+        """
+        self.scheduler = scheduler
+        self.lease_seconds = lease_seconds
+        self.batch_size = batch_size
+        self._workers = {}
+        self._leases = {}
+        self._lock = threading.Lock()
+        self._reaper = threading.Thread(target=self._reap_loop, name="cluster-reaper", daemon=True)
+        self._reaper.start()
+
+    def register(self, name: str, address: str) -> dict:
+        """Rejestruje węzeł roboczy.
+
+        Args:
+            name (str): Nazwa węzła podana przez węzeł
+            address (str): Adres, z którego przyszło żądanie
+
+        Returns:
+            dict: Identyfikator węzła i parametry dzierżaw
+        """
+        worker = _Worker(name, address)
+        with self._lock:
+            self._workers[worker.worker_id] = worker
+            workers_gauge.set(len(self._workers))
+        logger.info(f"Zarejestrowano węzeł roboczy {name} ({address}) jako {worker.worker_id}")
+        return {
+            'worker_id': worker.worker_id,
+            'lease_seconds': self.lease_seconds,
+            'heartbeat_seconds': max(1.0, self.lease_seconds / 3),
+            'batch_size': self.batch_size
+        }
+
+    def heartbeat(self, worker_id: str) -> bool:
+        """Potwierdza, że węzeł działa, i przedłuża jego dzierżawy.
+
+        Returns:
+            bool: False, jeśli węzeł nie jest zarejestrowany (np. uznany za martwy) i musi zarejestrować się ponownie
+        """
+        now = time.monotonic()
+        with self._lock:
+            worker = self._workers.get(worker_id)
+            if worker is None:
+                return False
+            worker.last_heartbeat = now
+            for lease_id in worker.leases:
+                lease = self._leases[lease_id]
+                # Heartbeat nie przedłuża dzierżawy w nieskończoność - zawieszona synteza też musi wygasnąć
+                lease.expires_at = min(now + self.lease_seconds, lease.created_at + MAX_LEASE_SECONDS)
+            return True
+
+    def lease(self, worker_id: str, max_chunks: int, wait_seconds: float):
+        """Wydziela węzłowi partię fragmentów, czekając na pracę najwyżej wait_seconds.
+
+        Args:
+            worker_id (str): Identyfikator węzła
+            max_chunks (int): Maksymalna liczba fragmentów w partii
+            wait_seconds (float): Maksymalny czas oczekiwania na pracę (long polling)
+
+        Returns:
+            dict: Dzierżawa z fragmentami, {} gdy brak pracy, None gdy węzeł jest nieznany
+        """
+        if not self.heartbeat(worker_id):
+            return None
+        chunks = self.scheduler.take(max(1, min(max_chunks, self.batch_size * 4)), timeout=wait_seconds)
+        if not chunks:
+            return {}
+        lease = _Lease(worker_id, chunks)
+        with self._lock:
+            worker = self._workers.get(worker_id)
+            if worker is not None:
+                worker.leases.add(lease.lease_id)
+                self._leases[lease.lease_id] = lease
+                inflight_chunks.inc(len(chunks))
+        if worker is None:
+            # Węzeł został uznany za martwy w trakcie oczekiwania
+            self._return_chunks(chunks, "worker_lost", f"węzeł {worker_id} utracony przed odebraniem dzierżawy")
+            return None
+        return {
+            'lease_id': lease.lease_id,
+            'expires_in': self.lease_seconds,
+            'chunks': [{'chunk_id': chunk.chunk_id, 'text': chunk.text} for chunk in chunks]
+        }
+
+    def _pop_chunk(self, worker_id: str, lease_id: str, chunk_id: str):
+        with self._lock:
+            lease = self._leases.get(lease_id)
+            if lease is None or lease.worker_id != worker_id:
+                return None
+            chunk = lease.chunks.pop(chunk_id, None)
+            if chunk is None:
+                return None
+            inflight_chunks.dec()
+            if not lease.chunks:
+                self._close_lease(lease)
+            return chunk
+
+    def _close_lease(self, lease: _Lease):
+        self._leases.pop(lease.lease_id, None)
+        worker = self._workers.get(lease.worker_id)
+        if worker is not None:
+            worker.leases.discard(lease.lease_id)
+
+    def complete(self, worker_id: str, lease_id: str, chunk_id: str, wav_data: bytes, compute_seconds: float) -> bool:
+        """Przyjmuje zsyntezowany fragment od węzła.
+
+        Args:
+            worker_id (str): Identyfikator węzła
+            lease_id (str): Identyfikator dzierżawy
+            chunk_id (str): Identyfikator fragmentu
+            wav_data (bytes): Plik WAV fragmentu
+            compute_seconds (float): Czas syntezy zmierzony przez węzeł
+
+        Returns:
+            bool: False, jeśli dzierżawa wygasła i fragment został już przekazany innemu węzłowi
+        """
+        chunk = self._pop_chunk(worker_id, lease_id, chunk_id)
+        if chunk is None:
+            cluster_chunks_total.inc(result="stale")
+            logger.warning(f"Odrzucono spóźniony fragment {chunk_id} od węzła {worker_id}")
+            return False
+        if not self.scheduler.is_open(chunk.job_id):
+            # Zadanie zostało zamknięte (np. klient przerwał połączenie) - wynik nie jest potrzebny
+            cluster_chunks_total.inc(result="discarded")
+            return True
+        try:
+            with wave.open(io.BytesIO(wav_data), 'rb') as wav:
+                if wav.getsampwidth() != 2 or wav.getnframes() == 0:
+                    raise ValueError("oczekiwano niepustego WAV 16-bit PCM")
+            tmp_path = f"{chunk.output_path}.part"
+            with open(tmp_path, 'wb') as f:
+                f.write(wav_data)
+            os.replace(tmp_path, chunk.output_path)
+        except Exception as e:
+            self._retry_or_fail(chunk, f"nieprawidłowy wynik od węzła {worker_id}: {str(e)}")
+            return True
+        with self._lock:
+            worker = self._workers.get(worker_id)
+            if worker is not None:
+                worker.chunks_done += 1
+        cluster_chunks_total.inc(result="ok")
+        self.scheduler.complete(chunk, compute_seconds)
+        return True
+
+    def fail(self, worker_id: str, lease_id: str, chunk_id: str, error: str):
+        """Przyjmuje zgłoszenie błędu syntezy fragmentu od węzła."""
+        chunk = self._pop_chunk(worker_id, lease_id, chunk_id)
+        if chunk is not None:
+            self._retry_or_fail(chunk, f"błąd syntezy na węźle {worker_id}: {error}")
+
+    def _retry_or_fail(self, chunk, reason: str):
+        logger.warning(f"Fragment {chunk.chunk_id} (próba {chunk.attempts}/{MAX_ATTEMPTS}): {reason}")
+        self._return_chunks([chunk], "retry", reason)
+
+    def _return_chunks(self, chunks: list, result: str, reason: str):
+        """Zwraca fragmenty do kolejki albo kończy je błędem po wyczerpaniu MAX_ATTEMPTS prób.
+
+        Limit dotyczy każdej drogi powrotu - także wygasłych dzierżaw i martwych węzłów, inaczej
+        fragment zawieszający syntezę krążyłby między węzłami bez końca.
+
+        Args:
+            chunks (list): Fragmenty odebrane węzłowi
+            result (str): Etykieta wyniku w neurovoice_cluster_chunks_total dla zwróconych fragmentów
+            reason (str): Przyczyna zwrotu, przekazywana do zadania przy ostatecznym błędzie
+        """
+        for chunk in chunks:
+            if chunk.attempts >= MAX_ATTEMPTS:
+                if self.scheduler.is_open(chunk.job_id):
+                    logger.error(f"Fragment {chunk.chunk_id} nie powiódł się po {chunk.attempts} próbach: {reason}")
+                    cluster_chunks_total.inc(result="failed")
+                    self.scheduler.fail(chunk, RuntimeError(reason))
+            elif self.scheduler.requeue(chunk):
+                cluster_chunks_total.inc(result=result)
+
+    def release(self, worker_id: str):
+        """Wyrejestrowuje węzeł (np. przy zamykaniu), natychmiast oddając jego fragmenty do kolejki."""
+        with self._lock:
+            chunks = self._remove_worker_locked(worker_id)
+        self._return_chunks(chunks, "reassigned", f"węzeł {worker_id} wyrejestrowany")
+        logger.info(f"Węzeł {worker_id} wyrejestrowany, zwrócono {len(chunks)} fragmentów")
+
+    def _remove_worker_locked(self, worker_id: str) -> list:
+        worker = self._workers.pop(worker_id, None)
+        if worker is None:
+            return []
+        chunks = []
+        for lease_id in list(worker.leases):
+            lease = self._leases.pop(lease_id, None)
+            if lease is not None:
+                chunks.extend(lease.chunks.values())
+        inflight_chunks.dec(len(chunks))
+        workers_gauge.set(len(self._workers))
+        return chunks
+
+    def _reap_loop(self):
+        while True:
+            time.sleep(max(0.5, self.lease_seconds / 6))
+            try:
+                self.reap()
+            except Exception as e:
+                logger.error(f"Błąd podczas wygaszania dzierżaw: {str(e)}")
+
+    def reap(self):
+        """Odbiera dzierżawy, które wygasły, i usuwa węzły bez heartbeatu."""
+        now = time.monotonic()
+        returned = []
+        with self._lock:
+            for worker_id, worker in list(self._workers.items()):
+                if now - worker.last_heartbeat > self.lease_seconds:
+                    logger.warning(f"Węzeł {worker.name} ({worker_id}) nie odpowiada - przekazywanie jego pracy innym")
+                    expired_leases_total.inc(len(worker.leases))
+                    returned.extend(self._remove_worker_locked(worker_id))
+            for lease_id, lease in list(self._leases.items()):
+                if lease.expires_at < now:
+                    logger.warning(f"Dzierżawa {lease_id} węzła {lease.worker_id} wygasła")
+                    expired_leases_total.inc()
+                    returned.extend(lease.chunks.values())
+                    inflight_chunks.dec(len(lease.chunks))
+                    self._close_lease(lease)
+        self._return_chunks(returned, "reassigned", "dzierżawa wygasła")
+
+    def status(self) -> list:
+        """Zwraca stan węzłów do /cluster/workers."""
+        now = time.monotonic()
+        with self._lock:
+            return [{
+                'worker_id': worker.worker_id,
+                'name': worker.name,
+                'address': worker.address,
+                'registered_at': worker.registered_at,
+                'seconds_since_heartbeat': round(now - worker.last_heartbeat, 1),
+                'leased_chunks': sum(len(self._leases[lease_id].chunks) for lease_id in worker.leases),
+                'chunks_done': worker.chunks_done
+            } for worker in self._workers.values()]
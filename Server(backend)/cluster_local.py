@@ -0,0 +1,131 @@
+"""Uruchamia na jednym komputerze koordynatora i kilka węzłów roboczych z silnikiem testowym.
+
+Skrypt generuje syntetyczną książkę FB2, przesyła ją do koordynatora, w trakcie syntezy
+zabija jeden z węzłów i sprawdza, czy archiwum zawiera wszystkie rozdziały we właściwej
+kolejności. Silnik węzłów co kilka fragmentów zgłasza błąd, więc sprawdzane jest też
+ponawianie fragmentów zgłoszonych przez węzeł jako nieudane. Nie wymaga modelu XTTS ani GPU.
+
+    python cluster_local.py --workers 3 --chapters 6
+"""
+import argparse
+import base64
+import io
+import json
+import os
+import subprocess
+import sys
+import tempfile
+import time
+import urllib.request
+import uuid
+import zipfile
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+SENTENCES = [
+    "Dzień był pochmurny, a nad miastem wisiała ciężka mgła.",
+    "Bohater szedł powoli wzdłuż rzeki, rozmyślając o minionych latach.",
+    "Nikt nie spodziewał się, że list przyjdzie właśnie tego ranka.",
+    "W oddali słychać było dzwony starego kościoła.",
+    "Rozmowa trwała długo, choć żadne z nich nie powiedziało tego, co najważniejsze.",
+]
+
+def make_fb2(chapters: int, paragraphs: int) -> bytes:
+    """Tworzy książkę FB2 o zadanej liczbie rozdziałów z powtarzalnym polskim tekstem."""
+    sections = []
+    for chapter in range(chapters):
+        body = "".join(f"<p>{SENTENCES[(chapter + i) % len(SENTENCES)]} Rozdział {chapter + 1}, akapit {i + 1}.</p>"
+                       for i in range(paragraphs))
+        sections.append(f"<section><title><p>Rozdział {chapter + 1}</p></title>{body}</section>")
+    return ('<?xml version="1.0" encoding="utf-8"?>'
+            '<FictionBook xmlns="http://www.gribuser.ru/xml/fictionbook/2.0">'
+            '<description><title-info><book-title>Test klastra</book-title>'
+            '<author><first-name>Jan</first-name><last-name>Testowy</last-name></author></title-info></description>'
+            f'<body>{"".join(sections)}</body></FictionBook>').encode("utf-8")
+
+def multipart(field: str, filename: str, data: bytes) -> tuple:
+    """Buduje treść multipart/form-data z jednym plikiem.
+
+    Returns:
+        tuple: (treść, nagłówek Content-Type)
+    """
+    boundary = uuid.uuid4().hex
+    body = (f"--{boundary}\r\nContent-Disposition: form-data; name=\"{field}\"; filename=\"{filename}\"\r\n"
+            f"Content-Type: application/octet-stream\r\n\r\n").encode("utf-8") + data + f"\r\n--{boundary}--\r\n".encode("utf-8")
+    return body, f"multipart/form-data; boundary={boundary}"
+
+def wait_ready(url: str, timeout: float):
+    deadline = time.time() + timeout
+    while time.time() < deadline:
+        try:
+            with urllib.request.urlopen(f"{url}/ready", timeout=2) as response:
+                if response.status == 200:
+                    return
+        except OSError:
+            time.sleep(0.5)
+    raise RuntimeError("Koordynator nie wystartował")
+
+def main():
+    parser = argparse.ArgumentParser(description="Test klastra syntezy na jednym komputerze")
+    parser.add_argument("--workers", type=int, default=3)
+    parser.add_argument("--chapters", type=int, default=6)
+    parser.add_argument("--paragraphs", type=int, default=20)
+    parser.add_argument("--port", type=int, default=5099)
+    parser.add_argument("--latency", type=float, default=0.2, help="Sztuczny czas syntezy fragmentu w sekundach")
+    parser.add_argument("--kill-after", type=float, default=3.0, help="Po ilu sekundach zabić pierwszy węzeł (0 - nie zabijać)")
+    parser.add_argument("--fail-every", type=int, default=7,
+                        help="Co które wywołanie syntezy na węźle kończy się błędem (0 - bez błędów)")
+    args = parser.parse_args()
+
+    url = f"http://127.0.0.1:{args.port}"
+    jobs_dir = tempfile.mkdtemp(prefix="neurovoice-cluster-")
+    env = dict(os.environ,
+               NEUROVOICE_ROLE="coordinator",
+               NEUROVOICE_TTS_BACKEND="stub",
+               NEUROVOICE_STUB_LATENCY_SECONDS=str(args.latency),
+               NEUROVOICE_CLUSTER_LEASE_SECONDS="3",
+               NEUROVOICE_JOBS_DIR=jobs_dir,
+               NEUROVOICE_PORT=str(args.port))
+    processes = []
+    try:
+        coordinator = subprocess.Popen([sys.executable, os.path.join(HERE, "server.py")], env=env)
+        processes.append(coordinator)
+        wait_ready(url, 120)
+        workers = [subprocess.Popen([sys.executable, os.path.join(HERE, "worker.py"), "--coordinator", url,
+                                     "--backend", "stub", "--name", f"w{i + 1}"],
+                                    env=dict(env, NEUROVOICE_STUB_FAIL_EVERY=str(args.fail_every)))
+                   for i in range(args.workers)]
+        processes.extend(workers)
+
+        body, content_type = multipart("file", "test_klastra.fb2", make_fb2(args.chapters, args.paragraphs))
+        request = urllib.request.Request(f"{url}/upload", data=body, method="POST", headers={"Content-Type": content_type})
+        start = time.time()
+        if args.kill_after > 0:
+            # Zabijamy węzeł bez wyrejestrowania - koordynator musi wykryć brak heartbeatu
+            killer = subprocess.Popen([sys.executable, "-c", f"import time,os,signal; time.sleep({args.kill_after}); os.kill({workers[0].pid}, signal.SIGKILL)"])
+            processes.append(killer)
+        with urllib.request.urlopen(request, timeout=3600) as response:
+            result = json.loads(response.read())
+        elapsed = time.time() - start
+
+        with zipfile.ZipFile(io.BytesIO(base64.b64decode(result['zip_file']))) as archive:
+            names = [name for name in archive.namelist() if name.endswith(".mp3")]
+        expected = [f"Rozdział {i + 1}.mp3" for i in range(args.chapters)]
+        with urllib.request.urlopen(f"{url}/metrics", timeout=5) as response:
+            cluster_metrics = [line for line in response.read().decode("utf-8").splitlines()
+                               if line.startswith("neurovoice_cluster_")]
+        # Zgłoszone błędy muszą wracać do kolejki od razu, a nie dopiero po wygaśnięciu dzierżawy
+        retries = sum(float(line.rsplit(" ", 1)[1]) for line in cluster_metrics if 'result="retry"' in line)
+        retries_ok = args.fail_every <= 0 or retries > 0
+        print(json.dumps({'elapsed_seconds': round(elapsed, 1), 'chapters': names,
+                          'order_ok': names == expected, 'retries': retries, 'retries_ok': retries_ok,
+                          'metrics': cluster_metrics}, ensure_ascii=False, indent=2))
+        sys.exit(0 if names == expected and retries_ok else 1)
+    finally:
+        for process in processes:
+            if process.poll() is None:
+                process.terminate()
+        for process in processes:
+            process.wait()
+
+if __name__ == '__main__':
+    main()
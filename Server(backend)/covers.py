@@ -0,0 +1,107 @@
+import base64
+import io
+import logging
+import os
+import xml.etree.ElementTree as ET
+import ebooklib
+from ebooklib import epub
+from PIL import Image, ImageOps
+
+logger = logging.getLogger(__name__)
+
+FB2_NAMESPACE = "{http://www.gribuser.ru/xml/fictionbook/2.0}"
+
+def _parse_size(value: str) -> tuple:
+    width, height = value.lower().split("x")
+    return int(width), int(height)
+
+# Rozmiary w pikselach: kafelek siatki (217x148 dp przy ~3x) i okładka odtwarzacza (470x531 dp przy 2x)
+THUMBNAIL_SIZES = {
+    "grid": _parse_size(os.environ.get("NEUROVOICE_COVER_GRID_SIZE", "651x444")),
+    "player": _parse_size(os.environ.get("NEUROVOICE_COVER_PLAYER_SIZE", "940x1062")),
+}
+JPEG_QUALITY = int(os.environ.get("NEUROVOICE_COVER_JPEG_QUALITY", "82"))
+
+def _epub_cover(file_path: str):
+    book = epub.read_epub(file_path)
+    # EPUB 3: element manifestu z właściwością cover-image
+    for item in book.get_items_of_type(ebooklib.ITEM_COVER):
+        return item.get_content()
+    # EPUB 2: <meta name="cover" content="id-elementu"/> w OPF
+    for _, attributes in book.get_metadata('OPF', 'cover'):
+        item = book.get_item_with_id(attributes.get('content', '')) if attributes else None
+        if item is not None and item.get_type() in (ebooklib.ITEM_IMAGE, ebooklib.ITEM_COVER):
+            return item.get_content()
+    # Brak deklaracji - obraz, którego identyfikator lub nazwa wskazuje na okładkę
+    for item in book.get_items_of_type(ebooklib.ITEM_IMAGE):
+        name = f"{item.get_id() or ''} {item.get_name() or ''}".lower()
+        if "cover" in name or "okladka" in name:
+            return item.get_content()
+    return None
+
+def _fb2_cover(file_path: str, encoding: str):
+    with open(file_path, "r", encoding=encoding) as f:
+        root = ET.fromstring(f.read())
+    image = root.find(f".//{FB2_NAMESPACE}coverpage/{FB2_NAMESPACE}image")
+    if image is None:
+        return None
+    # Atrybut href jest w przestrzeni nazw xlink, której prefiks bywa różny (l:, xlink:)
+    href = next((value for key, value in image.attrib.items() if key.endswith("href")), "")
+    binary_id = href.lstrip("#")
+    for binary in root.iter(f"{FB2_NAMESPACE}binary"):
+        if binary.get("id") == binary_id and binary.text:
+            return base64.b64decode(binary.text)
+    return None
+
+def extract_cover(file_path: str, filename: str, encoding: str = None):
+    """Wyodrębnia osadzoną okładkę z pliku EPUB (element okładki w OPF) lub FB2 (binarium coverpage).
+
+    Args:
+        file_path (str): Ścieżka do pliku książki
+        filename (str): Oryginalna nazwa pliku
+        encoding (str): Kodowanie pliku FB2
+
+    Returns:
+        bytes: Zakodowany obraz okładki lub None, jeśli książka jej nie zawiera
+    """
+    try:
+        if filename.endswith(".epub"):
+            return _epub_cover(file_path)
+        if filename.endswith(".fb2"):
+            return _fb2_cover(file_path, encoding or "utf-8")
+    except Exception as e:
+        logger.warning(f"Nie udało się odczytać okładki z {filename}: {str(e)}")
+    return None
+
+def make_thumbnails(image_data: bytes, output_dir: str) -> dict:
+    """Tworzy miniatury JPEG okładki dla siatki biblioteki i odtwarzacza.
+
+    Miniatury są przycinane do proporcji widoku, więc klient nie musi dekodować
+    ani skalować pełnowymiarowego obrazu.
+
+    Args:
+        image_data (bytes): Oryginalny obraz okładki
+        output_dir (str): Katalog docelowy
+
+    Returns:
+        dict: Nazwa rozmiaru -> nazwa pliku miniatury (pusty, jeśli obrazu nie da się odczytać)
+    """
+    try:
+        with Image.open(io.BytesIO(image_data)) as image:
+            image = ImageOps.exif_transpose(image).convert("RGB")
+            thumbnails = {}
+            for size_name, size in THUMBNAIL_SIZES.items():
+                # Bez powiększania małych okładek - klient i tak przytnie je do widoku
+                scale = min(1.0, max(size[0] / image.width, size[1] / image.height))
+                target = (max(1, min(size[0], int(image.width * scale))), max(1, min(size[1], int(image.height * scale))))
+                thumbnail = ImageOps.fit(image, target, Image.LANCZOS)
+                file_name = f"cover_{size_name}.jpg"
+                tmp_path = os.path.join(output_dir, f"{file_name}.tmp")
+                thumbnail.save(tmp_path, "JPEG", quality=JPEG_QUALITY, optimize=True, progressive=True)
+                os.replace(tmp_path, os.path.join(output_dir, file_name))
+                thumbnails[size_name] = file_name
+            logger.info(f"Utworzono miniatury okładki ({image.width}x{image.height}): {thumbnails}")
+            return thumbnails
+    except Exception as e:
+        logger.warning(f"Nie udało się utworzyć miniatur okładki: {str(e)}")
+        return {}
@@ -0,0 +1,139 @@
+import logging
+import os
+import time
+from contextlib import nullcontext
+import torch
+
+logger = logging.getLogger(__name__)
+
+# Tryb przyspieszenia CPU jest opcjonalny - domyślnie model działa jak dotychczas (float32, domyślne wątki)
+CPU_PERF_MODE = os.environ.get("NEUROVOICE_CPU_PERF", "0") == "1"
+INTRA_OP_THREADS = int(os.environ.get("NEUROVOICE_INTRA_OP_THREADS", "0"))
+INTER_OP_THREADS = int(os.environ.get("NEUROVOICE_INTER_OP_THREADS", "0"))
+QUANTIZE = os.environ.get("NEUROVOICE_CPU_QUANTIZE", "1") == "1"
+COMPILE = os.environ.get("NEUROVOICE_CPU_COMPILE", "1") == "1"
+WARMUP_TEXT = "Dzień dobry, to jest rozgrzewka modelu."
+
+def is_enabled(device: str) -> bool:
+    """Sprawdza, czy tryb przyspieszenia CPU ma zostać użyty.
+
+    Args:
+        device (str): Urządzenie, na którym działa model
+
+    Returns:
+        bool: True, jeśli tryb jest włączony i model działa na CPU
+    """
+    if CPU_PERF_MODE and device != "cpu":
+        logger.warning("NEUROVOICE_CPU_PERF ustawione, ale model działa na GPU - tryb CPU pominięty")
+    return CPU_PERF_MODE and device == "cpu"
+
+def _physical_cores() -> int:
+    """Szacuje liczbę rdzeni fizycznych (wątki SMT zwykle nie przyspieszają GEMM).
+
+    Returns:
+        int: Liczba rdzeni do wykorzystania przez operacje wewnątrz operatorów
+    """
+    logical = os.cpu_count() or 1
+    try:
+        with open("/sys/devices/system/cpu/cpu0/topology/thread_siblings_list") as f:
+            siblings = f.read().strip()
+        per_core = len(siblings.replace("-", ",").split(","))
+        return max(1, logical // per_core)
+    except (OSError, ValueError):
+        return logical
+
+def configure_threads() -> dict:
+    """Ustawia jawnie liczbę wątków torch. Musi zostać wywołane przed załadowaniem modelu.
+
+    Returns:
+        dict: Faktycznie ustawione liczby wątków
+    """
+    intra = INTRA_OP_THREADS or _physical_cores()
+    inter = INTER_OP_THREADS or 1
+    torch.set_num_threads(intra)
+    try:
+        torch.set_num_interop_threads(inter)
+    except RuntimeError as e:
+        # Wątki inter-op można ustawić tylko raz, przed pierwszą równoległą operacją
+        logger.warning(f"Nie udało się ustawić wątków inter-op: {str(e)}")
+    logger.info(f"Wątki torch: intra-op={torch.get_num_threads()}, inter-op={torch.get_num_interop_threads()}")
+    return {'intra_op_threads': torch.get_num_threads(), 'inter_op_threads': torch.get_num_interop_threads()}
+
+def _quantize_linear_layers(model: torch.nn.Module) -> int:
+    """Kwantyzuje dynamicznie (int8) warstwy nn.Linear modelu w miejscu.
+
+    Args:
+        model (torch.nn.Module): Model do kwantyzacji
+
+    Returns:
+        int: Liczba skwantyzowanych warstw
+    """
+    quantize_dynamic = torch.ao.quantization.quantize_dynamic if hasattr(torch, "ao") else torch.quantization.quantize_dynamic
+    count = sum(1 for module in model.modules() if isinstance(module, torch.nn.Linear))
+    quantize_dynamic(model, {torch.nn.Linear}, dtype=torch.qint8, inplace=True)
+    return count
+
+def apply(tts, device: str) -> dict:
+    """Stosuje tryb przyspieszenia CPU do załadowanego modelu XTTS.
+
+    Args:
+        tts: Obiekt TTS z załadowanym modelem
+        device (str): Urządzenie, na którym działa model
+
+    Returns:
+        dict: Opis aktywnego trybu do raportu /health
+    """
+    info = {'mode': 'baseline', 'quantization': 'none', 'compiled': 'none'}
+    if not is_enabled(device):
+        info.update({'intra_op_threads': torch.get_num_threads(), 'inter_op_threads': torch.get_num_interop_threads()})
+        return info
+
+    info['mode'] = 'cpu_performance'
+    info.update({'intra_op_threads': torch.get_num_threads(), 'inter_op_threads': torch.get_num_interop_threads()})
+    model = tts.synthesizer.tts_model
+    model.eval()
+
+    if QUANTIZE:
+        try:
+            quantized = _quantize_linear_layers(model)
+            info['quantization'] = f'dynamic-int8 ({quantized} nn.Linear)'
+            logger.info(f"Skwantyzowano dynamicznie {quantized} warstw nn.Linear do int8")
+        except Exception as e:
+            logger.warning(f"Kwantyzacja nie powiodła się, pozostaje float32: {str(e)}")
+
+    decoder = getattr(model, "hifigan_decoder", None)
+    if COMPILE and decoder is not None and hasattr(torch, "compile"):
+        # Kompilujemy tylko dekoder HiFi-GAN - część GPT korzysta z generate() i nie kompiluje się stabilnie
+        try:
+            model.hifigan_decoder = torch.compile(decoder, dynamic=True)
+            warmup(tts)
+            info['compiled'] = 'torch.compile(hifigan_decoder)'
+            logger.info("Dekoder HiFi-GAN skompilowany przez torch.compile")
+        except Exception as e:
+            model.hifigan_decoder = decoder
+            logger.warning(f"torch.compile niedostępne dla dekodera, użycie trybu eager: {str(e)}")
+    return info
+
+def warmup(tts):
+    """Wykonuje jedną krótką syntezę, aby wymusić kompilację i alokacje przed pierwszym żądaniem.
+
+    Args:
+        tts: Obiekt TTS z załadowanym modelem
+    """
+    start = time.perf_counter()
+    with torch.inference_mode():
+        tts.tts(text=WARMUP_TEXT, speaker="Ana Florence", language="pl")
+    logger.info(f"Rozgrzewka modelu trwała {time.perf_counter() - start:.2f} s")
+
+def inference_context(info: dict):
+    """Zwraca kontekst syntezy: inference_mode, jeśli apply() włączyło tryb wydajnościowy, w przeciwnym razie pusty kontekst.
+
+    Sama zmienna NEUROVOICE_CPU_PERF nie wystarcza - na GPU apply() pomija tryb CPU.
+
+    Args:
+        info (dict): Opis trybu zwrócony przez apply()
+
+    Returns:
+        Kontekst torch do użycia wokół wywołań syntezy
+    """
+    return torch.inference_mode() if info.get('mode') == 'cpu_performance' else nullcontext()
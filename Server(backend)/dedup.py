@@ -0,0 +1,175 @@
+import hashlib
+import logging
+import os
+import re
+import metrics
+
+logger = logging.getLogger(__name__)
+
+# Próg podobieństwa Jaccarda (zbiorów 5-wyrazowych fragmentów), od którego rozdział jest uznawany
+# za powtórzenie wcześniejszego
+DEFAULT_THRESHOLD = float(os.environ.get("NEUROVOICE_DEDUP_THRESHOLD", "0.8"))
+SHINGLE_WORDS = 5
+NUM_PERM = 128
+# Prawdopodobieństwo, że para rozdziałów o podobieństwie równym progowi trafi do porównania
+TARGET_RECALL = 0.95
+_WORD = re.compile(r"\w+")
+
+dropped_chapters = metrics.registry.counter(
+    "neurovoice_dedup_dropped_chapters_total",
+    "Rozdziały pominięte jako powtórzenie wcześniejszej treści")
+dropped_chars = metrics.registry.counter(
+    "neurovoice_dedup_dropped_chars_total",
+    "Znaki tekstu, które nie trafiły do syntezy dzięki usunięciu powtórzeń")
+
+def shingles(text: str, size: int = SHINGLE_WORDS) -> set:
+    """Zwraca zbiór stabilnych 64-bitowych skrótów kolejnych n-wyrazowych fragmentów tekstu.
+
+    Wielkość liter, interpunkcja i białe znaki są pomijane. Skróty nie zależą od procesu
+    (w przeciwieństwie do wbudowanego hash()), więc wynik jest powtarzalny po restarcie.
+
+    Args:
+        text (str): Tekst rozdziału
+        size (int): Liczba wyrazów we fragmencie
+
+    Returns:
+        set: Skróty fragmentów
+    """
+    words = _WORD.findall(text.lower())
+    if len(words) < size:
+        words = [" ".join(words)] if words else []
+        size = 1
+    return {int.from_bytes(hashlib.blake2b(" ".join(words[i:i + size]).encode("utf-8"), digest_size=8).digest(), "little")
+            for i in range(len(words) - size + 1)}
+
+def _band_layout(threshold: float, num_perm: int) -> tuple:
+    """Dobiera podział sygnatury na pasma LSH dla zadanego progu.
+
+    Wybiera najwięcej wierszy na pasmo (najmniej fałszywych kandydatów), przy którym para
+    o podobieństwie równym progowi zostaje kandydatem z prawdopodobieństwem TARGET_RECALL.
+
+    Returns:
+        tuple: (liczba_pasm, wiersze_na_pasmo)
+    """
+    for rows in range(num_perm, 0, -1):
+        if num_perm % rows:
+            continue
+        bands = num_perm // rows
+        if 1 - (1 - threshold ** rows) ** bands >= TARGET_RECALL:
+            return bands, rows
+    return num_perm, 1
+
+class MinHashIndex:
+    """Indeks LSH sygnatur MinHash - wyszukuje podobne teksty w czasie niezależnym od rozmiaru indeksu.
+
+    Sygnatura powstaje jedną permutacją z zagęszczaniem (one-permutation hashing): skróty fragmentów
+    są dzielone na num_perm przedziałów, a sygnaturą jest minimum w każdym przedziale. Koszt jest
+    liniowy w długości tekstu zamiast num_perm razy większy. Sygnatura jest dzielona na pasma;
+    kandydatami są teksty zgodne w co najmniej jednym paśmie, weryfikowane następnie podobieństwem
+    oszacowanym z pełnych sygnatur.
+    """
+
+    def __init__(self, threshold: float = DEFAULT_THRESHOLD, num_perm: int = NUM_PERM):
+        """Tworzy pusty indeks.
+
+        Args:
+            threshold (float): Minimalne podobieństwo Jaccarda uznawane za duplikat (0-1)
+            num_perm (int): Długość sygnatury MinHash
+        """
+        if not 0 < threshold <= 1:
+            raise ValueError(f"Próg podobieństwa musi należeć do (0, 1]: {threshold}")
+        self.threshold = threshold
+        self.num_perm = num_perm
+        self.bands, self.rows = _band_layout(threshold, num_perm)
+        self._buckets = [{} for _ in range(self.bands)]
+        self._signatures = {}
+
+    def signature(self, text: str) -> tuple:
+        hashes = shingles(text)
+        if not hashes:
+            return None
+        bins = [None] * self.num_perm
+        for value in hashes:
+            value, position = divmod(value, self.num_perm)
+            if bins[position] is None or value < bins[position]:
+                bins[position] = value
+        if None not in bins:
+            return tuple(bins)
+        # Puste przedziały (krótkie teksty) przejmują wartość najbliższego niepustego przedziału
+        # po prawej, przesuniętą o odległość - podobne teksty są zagęszczane w ten sam sposób
+        offset = (1 << 64) // self.num_perm + 1
+        signature = list(bins)
+        for position in range(self.num_perm):
+            distance = 0
+            while bins[(position + distance) % self.num_perm] is None:
+                distance += 1
+            if distance:
+                signature[position] = bins[(position + distance) % self.num_perm] + distance * offset
+        return tuple(signature)
+
+    def _band_keys(self, signature: tuple):
+        for band in range(self.bands):
+            yield band, signature[band * self.rows:(band + 1) * self.rows]
+
+    def query(self, signature: tuple) -> tuple:
+        """Zwraca najbardziej podobny zaindeksowany tekst, jeśli przekracza próg.
+
+        Args:
+            signature (tuple): Sygnatura z signature()
+
+        Returns:
+            tuple: (klucz, oszacowane_podobieństwo) lub None
+        """
+        candidates = set()
+        for band, key in self._band_keys(signature):
+            candidates.update(self._buckets[band].get(key, ()))
+        best = None
+        for candidate in candidates:
+            other = self._signatures[candidate]
+            similarity = sum(1 for mine, theirs in zip(signature, other) if mine == theirs) / self.num_perm
+            if similarity >= self.threshold and (best is None or similarity > best[1]):
+                best = (candidate, similarity)
+        return best
+
+    def add(self, key, signature: tuple):
+        self._signatures[key] = signature
+        for band, band_key in self._band_keys(signature):
+            self._buckets[band].setdefault(band_key, []).append(key)
+
+class ChapterDeduplicator:
+    """Odrzuca rozdziały powtarzające treść wcześniejszych rozdziałów książki i zbiera raport."""
+
+    def __init__(self, threshold: float = DEFAULT_THRESHOLD):
+        self.index = MinHashIndex(threshold)
+        self.titles = []
+        self.dropped = []
+
+    def is_duplicate(self, title: str, text: str) -> bool:
+        """Sprawdza rozdział i, jeśli jest nowy, dodaje go do indeksu.
+
+        Args:
+            title (str): Tytuł rozdziału
+            text (str): Tekst rozdziału
+
+        Returns:
+            bool: True, jeśli rozdział powtarza wcześniejszą treść i należy go pominąć
+        """
+        signature = self.index.signature(text)
+        if signature is None:
+            return False
+        match = self.index.query(signature)
+        if match is not None:
+            kept_idx, similarity = match
+            self.dropped.append({
+                'title': title,
+                'chars': len(text),
+                'duplicate_of': self.titles[kept_idx],
+                'similarity': round(similarity, 3)
+            })
+            dropped_chapters.inc()
+            dropped_chars.inc(len(text))
+            logger.info(f"Pomijanie rozdziału \"{title}\" - powtarza \"{self.titles[kept_idx]}\" (podobieństwo {similarity:.2f})")
+            return True
+        self.index.add(len(self.titles), signature)
+        self.titles.append(title)
+        return False
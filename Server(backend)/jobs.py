@@ -0,0 +1,311 @@
+import hashlib
+import json
+import logging
+import os
+import shutil
+import threading
+import time
+
+logger = logging.getLogger(__name__)
+
+STATUS_PARSING = "parsing"
+STATUS_SYNTHESIZING = "synthesizing"
+STATUS_DONE = "done"
+STATUS_FAILED = "failed"
+
+def _write_json_atomic(path: str, data):
+    """Zapisuje JSON atomowo (plik tymczasowy + os.replace), aby awaria nie zostawiła połowy pliku.
+
+    Args:
+        path (str): Ścieżka docelowa
+        data: Dane do zapisania
+    """
+    tmp_path = f"{path}.tmp"
+    with open(tmp_path, 'w', encoding='utf-8') as f:
+        json.dump(data, f, ensure_ascii=False)
+        f.flush()
+        os.fsync(f.fileno())
+    os.replace(tmp_path, path)
+
+class Job:
+    """Trwały stan jednej konwersji: plik wejściowy, rozdziały, gotowe fragmenty i rozdziały MP3."""
+
+    def __init__(self, store: "JobStore", job_id: str):
+        self.store = store
+        self.job_id = job_id
+        self.dir = os.path.join(store.root, job_id)
+        self.chunks_dir = os.path.join(self.dir, "chunks")
+        self.chapters_dir = os.path.join(self.dir, "chapters")
+        self.state_path = os.path.join(self.dir, "state.json")
+        self.chapters_path = os.path.join(self.dir, "chapters.json")
+        self.result_path = os.path.join(self.dir, "result.zip")
+        self.lock = threading.Lock()
+        self._state_lock = threading.Lock()
+        self.state = {}
+
+    def load(self) -> "Job":
+        with open(self.state_path, encoding='utf-8') as f:
+            self.state = json.load(f)
+        return self
+
+    def save(self):
+        with self._state_lock:
+            self._save_locked()
+
+    def _save_locked(self):
+        self.state['updated_at'] = time.time()
+        _write_json_atomic(self.state_path, self.state)
+
+    def update(self, **fields):
+        """Zmienia pola stanu i zapisuje go pod jedną blokadą.
+
+        Stan jest serializowany z innych wątków (etap kodowania potoku, touch() z zapytań o postęp),
+        więc nie może być modyfikowany w trakcie zapisu.
+
+        Args:
+            **fields: Pola stanu do ustawienia
+        """
+        with self._state_lock:
+            self.state.update(fields)
+            self._save_locked()
+
+    @property
+    def status(self) -> str:
+        return self.state.get('status', STATUS_PARSING)
+
+    @property
+    def input_path(self) -> str:
+        return os.path.join(self.dir, self.state['filename'])
+
+    def touch(self):
+        """Odnawia czas przechowywania zadania, zapisując stan najwyżej raz na godzinę."""
+        if time.time() - self.state.get('updated_at', 0) > 3600:
+            self.save()
+
+    def set_status(self, status: str, error: str = None):
+        if error is not None:
+            self.update(status=status, error=error)
+        else:
+            self.update(status=status)
+
+    def has_chapters(self) -> bool:
+        return os.path.exists(self.chapters_path)
+
+    def save_chapters(self, chapters: list, metadata: dict, dropped: list = None):
+        """Zapisuje wynik parsowania, aby po restarcie nie parsować książki ponownie.
+
+        Args:
+            chapters (list): Lista krotek (tytuł_rozdzialu, tekst_rozdzialu)
+            metadata (dict): Metadane książki
+            dropped (list): Raport rozdziałów pominiętych jako powtórzenia
+        """
+        _write_json_atomic(self.chapters_path, [list(chapter) for chapter in chapters])
+        self.update(metadata=metadata, chapters_total=len(chapters), dropped_chapters=dropped or [])
+
+    def load_chapters(self) -> list:
+        with open(self.chapters_path, encoding='utf-8') as f:
+            return [tuple(chapter) for chapter in json.load(f)]
+
+    def chunk_path(self, chapter_idx: int, chunk_idx: int) -> str:
+        return os.path.join(self.chunks_dir, f"{chapter_idx:04d}_{chunk_idx:05d}.wav")
+
+    def chunk_done(self, chapter_idx: int, chunk_idx: int) -> bool:
+        return os.path.exists(self.chunk_path(chapter_idx, chunk_idx))
+
+    def commit_chunk(self, tmp_path: str, chapter_idx: int, chunk_idx: int):
+        """Oznacza fragment jako gotowy, przenosząc atomowo plik tymczasowy na miejsce docelowe."""
+        os.replace(tmp_path, self.chunk_path(chapter_idx, chunk_idx))
+
+    def encoded_chapter(self, chapter_idx: int):
+        """Zwraca opis zakodowanego rozdziału lub None, jeśli rozdział nie jest jeszcze gotowy."""
+        entry = self.state.get('encoded', {}).get(str(chapter_idx))
+        if entry and os.path.exists(os.path.join(self.chapters_dir, entry['file'])):
+            return entry
+        return None
+
+    def chapter_audio_path(self, chapter_idx: int, segment: int = 0) -> str:
+        if segment == 0:
+            return os.path.join(self.chapters_dir, f"{chapter_idx:04d}.mp3")
+        return os.path.join(self.chapters_dir, f"{chapter_idx:04d}.{segment:03d}.mp3")
+
+    def chapter_segments(self, chapter_idx: int) -> list:
+        """Zwraca pliki, na które podzielono zakodowany rozdział (jeden dla zwykłych rozdziałów).
+
+        Returns:
+            list: Słowniki z kluczami file, name, start_ms, duration_ms i bytes
+        """
+        entry = self.encoded_chapter(chapter_idx)
+        if entry is None:
+            return []
+        if 'segments' in entry:
+            return entry['segments']
+        # Zadania sprzed podziału rozdziałów na segmenty
+        return [{'file': entry['file'], 'name': entry['name'], 'start_ms': 0,
+                 'duration_ms': entry.get('audio', {}).get('output_ms'),
+                 'bytes': os.path.getsize(os.path.join(self.chapters_dir, entry['file']))}]
+
+    def chapter_index_path(self, chapter_idx: int) -> str:
+        return os.path.join(self.chapters_dir, f"{chapter_idx:04d}.idx.json")
+
+    def commit_chapter(self, chapter_idx: int, tmp_paths: list, entry: dict):
+        """Zapisuje zakodowany rozdział i usuwa jego fragmenty WAV, które nie są już potrzebne.
+
+        Args:
+            chapter_idx (int): Indeks rozdziału
+            tmp_paths (list): Ścieżki tymczasowych plików MP3 kolejnych segmentów rozdziału
+            entry (dict): Opis rozdziału (nazwa w archiwum, długość, lista segmentów itp.)
+        """
+        for segment, tmp_path in enumerate(tmp_paths):
+            os.replace(tmp_path, self.chapter_audio_path(chapter_idx, segment))
+        entry = dict(entry, file=os.path.basename(self.chapter_audio_path(chapter_idx)))
+        with self._state_lock:
+            self.state.setdefault('encoded', {})[str(chapter_idx)] = entry
+            self._save_locked()
+        prefix = f"{chapter_idx:04d}_"
+        for name in os.listdir(self.chunks_dir):
+            if name.startswith(prefix):
+                os.remove(os.path.join(self.chunks_dir, name))
+
+    def has_covers(self) -> bool:
+        """Czy okładka była już wyodrębniana (również wtedy, gdy książka jej nie zawiera)."""
+        return 'covers' in self.state
+
+    def save_covers(self, thumbnails: dict):
+        """Zapisuje w stanie zadania nazwy plików miniatur okładki (pusty słownik - brak okładki)."""
+        self.update(covers=thumbnails)
+
+    def cover_path(self, size_name: str):
+        """Zwraca ścieżkę miniatury okładki w danym rozmiarze lub None, jeśli jej nie ma."""
+        file_name = self.state.get('covers', {}).get(size_name)
+        if file_name and os.path.exists(os.path.join(self.dir, file_name)):
+            return os.path.join(self.dir, file_name)
+        return None
+
+    def skip_chapter(self, chapter_idx: int):
+        """Oznacza rozdział jako pominięty (pusty lub bez audio), aby nie przetwarzać go ponownie."""
+        with self._state_lock:
+            skipped = self.state.setdefault('skipped', [])
+            if chapter_idx not in skipped:
+                skipped.append(chapter_idx)
+            self._save_locked()
+
+    def is_skipped(self, chapter_idx: int) -> bool:
+        return chapter_idx in self.state.get('skipped', [])
+
+    def progress(self) -> dict:
+        return {
+            'job_id': self.job_id,
+            'status': self.status,
+            'filename': self.state.get('filename'),
+            'chapters_total': self.state.get('chapters_total'),
+            'chapters_done': len(self.state.get('encoded', {})) + len(self.state.get('skipped', [])),
+            'error': self.state.get('error'),
+            'updated_at': self.state.get('updated_at')
+        }
+
+class JobStore:
+    """Katalog zadań na dysku - jeden podkatalog na książkę, kluczowany skrótem treści pliku."""
+
+    def __init__(self, root: str, retention_seconds: float):
+        self.root = root
+        self.retention_seconds = retention_seconds
+        self._jobs = {}
+        self._lock = threading.Lock()
+        os.makedirs(root, exist_ok=True)
+
+    @staticmethod
+    def job_id_for(file_path: str) -> str:
+        """Wyznacza identyfikator zadania z treści pliku - ta sama książka zawsze trafia do tego samego zadania.
+
+        Args:
+            file_path (str): Ścieżka do przesłanego pliku
+
+        Returns:
+            str: Identyfikator zadania
+        """
+        digest = hashlib.sha256()
+        with open(file_path, 'rb') as f:
+            for block in iter(lambda: f.read(1024 * 1024), b''):
+                digest.update(block)
+        return digest.hexdigest()[:32]
+
+    def get(self, job_id: str):
+        """Zwraca zadanie z pamięci lub z dysku albo None, jeśli nie istnieje."""
+        with self._lock:
+            job = self._jobs.get(job_id)
+            if job is not None:
+                return job
+            job = Job(self, job_id)
+            if not os.path.exists(job.state_path):
+                return None
+            try:
+                job.load()
+            except (OSError, ValueError) as e:
+                logger.warning(f"Uszkodzony stan zadania {job_id}: {str(e)}")
+                return None
+            self._jobs[job_id] = job
+            return job
+
+    def get_or_create(self, job_id: str, filename: str, upload_path: str) -> Job:
+        """Zwraca istniejące zadanie albo tworzy nowe i przenosi do niego przesłany plik.
+
+        Args:
+            job_id (str): Identyfikator zadania
+            filename (str): Oryginalna nazwa pliku
+            upload_path (str): Ścieżka tymczasowa przesłanego pliku (usuwana, jeśli zadanie już istnieje)
+
+        Returns:
+            Job: Zadanie dla danej książki
+        """
+        existing = self.get(job_id)
+        with self._lock:
+            existing = self._jobs.get(job_id, existing)
+            if existing is not None:
+                os.remove(upload_path)
+                return existing
+            job = Job(self, job_id)
+            os.makedirs(job.chunks_dir, exist_ok=True)
+            os.makedirs(job.chapters_dir, exist_ok=True)
+            shutil.move(upload_path, os.path.join(job.dir, filename))
+            job.state = {'job_id': job_id, 'filename': filename, 'status': STATUS_PARSING, 'created_at': time.time()}
+            job.save()
+            self._jobs[job_id] = job
+            return job
+
+    def unfinished(self) -> list:
+        """Zwraca zadania przerwane w trakcie parsowania lub syntezy (np. przez restart serwera)."""
+        jobs = []
+        for job_id in sorted(os.listdir(self.root)):
+            job = self.get(job_id)
+            if job is not None and job.status in (STATUS_PARSING, STATUS_SYNTHESIZING):
+                jobs.append(job)
+        return jobs
+
+    def cleanup(self):
+        """Usuwa zadania zakończone lub nieudane, starsze niż okres przechowywania."""
+        now = time.time()
+        for job_id in os.listdir(self.root):
+            if job_id.startswith(".upload_"):
+                # Pozostałość po przerwanym przesyłaniu
+                path = os.path.join(self.root, job_id)
+                try:
+                    if now - os.path.getmtime(path) > 3600:
+                        os.remove(path)
+                except OSError:
+                    # Przesyłanie właśnie się zakończyło i plik trafił do zadania
+                    pass
+                continue
+            job = self.get(job_id)
+            if job is None or job.status not in (STATUS_DONE, STATUS_FAILED):
+                continue
+            if now - job.state.get('updated_at', now) < self.retention_seconds:
+                continue
+            if not job.lock.acquire(blocking=False):
+                continue
+            try:
+                shutil.rmtree(job.dir, ignore_errors=True)
+                with self._lock:
+                    self._jobs.pop(job_id, None)
+                logger.info(f"Usunięto przeterminowane zadanie {job_id}")
+            finally:
+                job.lock.release()
@@ -0,0 +1,286 @@
+"""Generator obciążenia dla /upload - odtwarza korpus książek EPUB/FB2 przy zadanej liczbie klientów.
+
+Serwer do testów obciążeniowych uruchamia się z silnikiem testowym, skalibrowanym do prawdziwego
+modelu (tempo mowy i współczynnik czasu rzeczywistego z /metrics serwera produkcyjnego):
+
+    NEUROVOICE_TTS_BACKEND=stub NEUROVOICE_STUB_REALTIME_FACTOR=1.5 python server.py
+    python loadtest.py --url http://127.0.0.1:5000 --corpus ./ksiazki --concurrency 5,20,50 --requests 100
+
+Z opcją --spawn skrypt sam uruchamia lokalny serwer z silnikiem testowym. Bez --corpus używa
+syntetycznych książek FB2. Każde przesłanie jest unikalne (inny skrót pliku), aby nie trafiać
+w pamięć podręczną gotowych wyników - chyba że podano --allow-cache-hits.
+"""
+import argparse
+import io
+import json
+import os
+import re
+import subprocess
+import sys
+import tempfile
+import threading
+import time
+import urllib.error
+import urllib.request
+import uuid
+import zipfile
+from cluster_local import make_fb2, multipart, wait_ready
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+RSS_METRIC = "neurovoice_process_resident_memory_bytes"
+PEAK_RSS_METRIC = "neurovoice_process_peak_resident_memory_bytes"
+
+def load_corpus(paths: list, synthetic_books: int) -> list:
+    """Wczytuje książki z plików i katalogów albo generuje syntetyczny korpus FB2.
+
+    Args:
+        paths (list): Pliki .epub/.fb2 lub katalogi przeszukiwane rekurencyjnie
+        synthetic_books (int): Liczba książek syntetycznych, gdy nie podano ścieżek
+
+    Returns:
+        list: Krotki (nazwa_pliku, treść)
+    """
+    books = []
+    for path in paths:
+        if os.path.isdir(path):
+            for root, _, files in os.walk(path):
+                books.extend(os.path.join(root, name) for name in sorted(files))
+        else:
+            books.append(path)
+    corpus = []
+    for path in books:
+        if path.endswith(".epub") or path.endswith(".fb2"):
+            with open(path, 'rb') as f:
+                corpus.append((os.path.basename(path), f.read()))
+    if not paths:
+        # Książki różnej długości, aby krótkie i długie zadania przeplatały się jak w ruchu produkcyjnym
+        corpus = [(f"syntetyczna_{i + 1}.fb2", make_fb2(2 + i % 5, 8 + 4 * (i % 3))) for i in range(synthetic_books)]
+    if not corpus:
+        raise ValueError("Korpus nie zawiera plików .epub ani .fb2")
+    return corpus
+
+def make_unique(filename: str, data: bytes, token: str) -> bytes:
+    """Zmienia treść książki bez wpływu na tekst, aby serwer potraktował ją jako nowe zadanie.
+
+    Args:
+        filename (str): Nazwa pliku (.fb2 lub .epub)
+        data (bytes): Treść pliku
+        token (str): Unikalny znacznik przesłania
+
+    Returns:
+        bytes: Zmieniona treść pliku
+    """
+    if filename.endswith(".fb2"):
+        return data + f"<!-- loadtest {token} -->".encode("utf-8")
+    output = io.BytesIO()
+    with zipfile.ZipFile(io.BytesIO(data)) as source, zipfile.ZipFile(output, 'w') as target:
+        # Kolejność i kompresja wpisów są zachowane - "mimetype" musi pozostać pierwszy i nieskompresowany
+        for info in source.infolist():
+            target.writestr(info, source.read(info.filename))
+        target.writestr("META-INF/loadtest.txt", token)
+    return output.getvalue()
+
+def percentile(values: list, p: float) -> float:
+    """Percentyl metodą najbliższej rangi; 0.0 dla pustej listy."""
+    if not values:
+        return 0.0
+    ordered = sorted(values)
+    rank = max(1, int(-(-p * len(ordered) // 100)))
+    return ordered[min(rank, len(ordered)) - 1]
+
+class MemorySampler:
+    """Okresowo odczytuje pamięć rezydentną serwera z /metrics."""
+
+    def __init__(self, url: str, interval: float):
+        self.url = url
+        self.interval = interval
+        self.samples = []
+        self.peak = 0
+        self._stop = threading.Event()
+        self._thread = threading.Thread(target=self._run, name="rss-sampler", daemon=True)
+
+    def read(self) -> dict:
+        with urllib.request.urlopen(f"{self.url}/metrics", timeout=10) as response:
+            text = response.read().decode("utf-8")
+        values = {}
+        for name in (RSS_METRIC, PEAK_RSS_METRIC):
+            match = re.search(rf"^{name} (\S+)$", text, re.MULTILINE)
+            if match:
+                values[name] = float(match.group(1))
+        return values
+
+    def _run(self):
+        while not self._stop.is_set():
+            try:
+                values = self.read()
+                if RSS_METRIC in values:
+                    self.samples.append(values[RSS_METRIC])
+                self.peak = max(self.peak, values.get(PEAK_RSS_METRIC, 0))
+            except (OSError, ValueError):
+                pass
+            self._stop.wait(self.interval)
+
+    def start(self):
+        self._thread.start()
+
+    def stop(self):
+        self._stop.set()
+        self._thread.join()
+
+def upload(url: str, filename: str, data: bytes, timeout: float) -> tuple:
+    """Przesyła książkę i czeka na gotowy audiobook.
+
+    Returns:
+        tuple: (kod HTTP lub 0 przy błędzie połączenia, rozmiar odpowiedzi, Retry-After w sekundach)
+    """
+    body, content_type = multipart("file", filename, data)
+    request = urllib.request.Request(f"{url}/upload", data=body, method="POST", headers={"Content-Type": content_type})
+    try:
+        with urllib.request.urlopen(request, timeout=timeout) as response:
+            return response.status, len(response.read()), 0
+    except urllib.error.HTTPError as e:
+        e.read()
+        return e.code, 0, int(e.headers.get('Retry-After', '0') or 0)
+    except OSError:
+        return 0, 0, 0
+
+def run_level(args, corpus: list, concurrency: int) -> dict:
+    """Wykonuje args.requests przesłań przy zadanej liczbie jednoczesnych klientów.
+
+    Returns:
+        dict: Podsumowanie poziomu obciążenia
+    """
+    results = []
+    results_lock = threading.Lock()
+    counter = iter(range(args.requests))
+    counter_lock = threading.Lock()
+
+    def client():
+        while True:
+            with counter_lock:
+                i = next(counter, None)
+            if i is None:
+                return
+            filename, data = corpus[i % len(corpus)]
+            if not args.allow_cache_hits:
+                data = make_unique(filename, data, f"{concurrency}-{i}-{uuid.uuid4().hex}")
+            start = time.perf_counter()
+            rejections = 0
+            while True:
+                status, size, retry_after = upload(args.url, filename, data, args.timeout)
+                if status != 429 or not args.retry_rejected:
+                    break
+                rejections += 1
+                time.sleep(min(retry_after or 1, args.max_retry_wait))
+            with results_lock:
+                results.append({'status': status, 'latency': time.perf_counter() - start,
+                                'bytes': size, 'rejections': rejections})
+
+    sampler = MemorySampler(args.url, args.sample_interval)
+    sampler.start()
+    start = time.perf_counter()
+    threads = [threading.Thread(target=client, name=f"client-{i}") for i in range(concurrency)]
+    for thread in threads:
+        thread.start()
+    for thread in threads:
+        thread.join()
+    wall = time.perf_counter() - start
+    sampler.stop()
+
+    ok = [r for r in results if r['status'] == 200]
+    rejected = [r for r in results if r['status'] == 429]
+    latencies = [r['latency'] for r in ok]
+    return {
+        'concurrency': concurrency,
+        'requests': len(results),
+        'ok': len(ok),
+        'rejected': len(rejected),
+        'errors': len(results) - len(ok) - len(rejected),
+        'error_rate': round((len(results) - len(ok)) / len(results), 4) if results else 0.0,
+        'retries_after_429': sum(r['rejections'] for r in results),
+        'wall_seconds': round(wall, 2),
+        'throughput_per_minute': round(len(ok) * 60 / wall, 2) if wall > 0 else 0.0,
+        'response_mb_per_second': round(sum(r['bytes'] for r in ok) / wall / 1e6, 3) if wall > 0 else 0.0,
+        'latency_seconds': {
+            'p50': round(percentile(latencies, 50), 3),
+            'p95': round(percentile(latencies, 95), 3),
+            'p99': round(percentile(latencies, 99), 3),
+            'max': round(max(latencies), 3) if latencies else 0.0
+        },
+        'server_rss_mb': {
+            'start': round(sampler.samples[0] / 2 ** 20, 1) if sampler.samples else None,
+            'end': round(sampler.samples[-1] / 2 ** 20, 1) if sampler.samples else None,
+            'max_sampled': round(max(sampler.samples) / 2 ** 20, 1) if sampler.samples else None,
+            'peak': round(sampler.peak / 2 ** 20, 1) if sampler.peak else None
+        }
+    }
+
+def print_report(levels: list):
+    header = f"{'klienci':>8} {'żądania':>8} {'ok':>5} {'429':>5} {'błędy':>6} {'błędy%':>7} {'/min':>7} " \
+             f"{'p50 s':>8} {'p95 s':>8} {'p99 s':>8} {'RSS MB':>8} {'szczyt MB':>10}"
+    print(header)
+    for level in levels:
+        latency = level['latency_seconds']
+        rss = level['server_rss_mb']
+        print(f"{level['concurrency']:>8} {level['requests']:>8} {level['ok']:>5} {level['rejected']:>5} "
+              f"{level['errors']:>6} {100 * level['error_rate']:>6.1f}% {level['throughput_per_minute']:>7.2f} "
+              f"{latency['p50']:>8.2f} {latency['p95']:>8.2f} {latency['p99']:>8.2f} "
+              f"{rss['max_sampled'] or 0:>8.1f} {rss['peak'] or 0:>10.1f}")
+
+def spawn_server(args) -> subprocess.Popen:
+    """Uruchamia lokalny serwer z silnikiem testowym w tymczasowym katalogu zadań."""
+    env = dict(os.environ,
+               NEUROVOICE_TTS_BACKEND="stub",
+               NEUROVOICE_STUB_LATENCY_SECONDS=str(args.stub_latency),
+               NEUROVOICE_STUB_REALTIME_FACTOR=str(args.stub_realtime_factor),
+               NEUROVOICE_JOBS_DIR=tempfile.mkdtemp(prefix="neurovoice-loadtest-"),
+               NEUROVOICE_PORT=str(args.port))
+    return subprocess.Popen([sys.executable, os.path.join(HERE, "server.py")], env=env,
+                            stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+
+def main():
+    parser = argparse.ArgumentParser(description="Test obciążeniowy serwera konwersji Neurovoice")
+    parser.add_argument("--url", default=None, help="Adres serwera (domyślnie lokalny serwer z --spawn)")
+    parser.add_argument("--corpus", nargs="*", default=[], help="Pliki .epub/.fb2 lub katalogi z książkami")
+    parser.add_argument("--synthetic-books", type=int, default=10, help="Liczba książek syntetycznych bez --corpus")
+    parser.add_argument("--concurrency", default="5,20,50", help="Liczby jednoczesnych klientów, np. 5,20,50")
+    parser.add_argument("--requests", type=int, default=50, help="Liczba przesłań na każdy poziom obciążenia")
+    parser.add_argument("--timeout", type=float, default=3600, help="Limit czasu pojedynczego przesłania w sekundach")
+    parser.add_argument("--retry-rejected", action="store_true", help="Ponawiaj odpowiedzi 429 zgodnie z Retry-After")
+    parser.add_argument("--max-retry-wait", type=float, default=30, help="Maksymalne oczekiwanie przed ponowieniem")
+    parser.add_argument("--allow-cache-hits", action="store_true", help="Przesyłaj książki bez zmian (test pamięci podręcznej)")
+    parser.add_argument("--sample-interval", type=float, default=1.0, help="Co ile sekund odczytywać RSS serwera")
+    parser.add_argument("--spawn", action="store_true", help="Uruchom lokalny serwer z silnikiem testowym")
+    parser.add_argument("--port", type=int, default=5098)
+    parser.add_argument("--stub-latency", type=float, default=0.05, help="Stały czas syntezy fragmentu (--spawn)")
+    parser.add_argument("--stub-realtime-factor", type=float, default=0, help="Sekundy audio na sekundę obliczeń (--spawn)")
+    parser.add_argument("--json", help="Zapisz wyniki w pliku JSON")
+    args = parser.parse_args()
+
+    server = None
+    if args.spawn:
+        args.url = args.url or f"http://127.0.0.1:{args.port}"
+        server = spawn_server(args)
+    args.url = (args.url or "http://127.0.0.1:5000").rstrip("/")
+    try:
+        wait_ready(args.url, 120)
+        with urllib.request.urlopen(f"{args.url}/health", timeout=10) as response:
+            health = json.loads(response.read())
+        corpus = load_corpus(args.corpus, args.synthetic_books)
+        print(f"Serwer: {health.get('backend', '?')}, korpus: {len(corpus)} książek, "
+              f"{sum(len(data) for _, data in corpus) / 1e6:.1f} MB", flush=True)
+        levels = []
+        for concurrency in (int(value) for value in args.concurrency.split(",")):
+            print(f"Poziom obciążenia: {concurrency} klientów, {args.requests} przesłań...", flush=True)
+            levels.append(run_level(args, corpus, concurrency))
+        print_report(levels)
+        if args.json:
+            with open(args.json, 'w', encoding='utf-8') as f:
+                json.dump({'url': args.url, 'health': health, 'levels': levels}, f, ensure_ascii=False, indent=2)
+    finally:
+        if server is not None:
+            server.terminate()
+            server.wait()
+
+if __name__ == '__main__':
+    main()
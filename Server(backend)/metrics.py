@@ -0,0 +1,344 @@
+import os
+import sys
+import threading
+import time
+from collections import deque
+from contextlib import contextmanager
+
+# Granice kubełków histogramów w sekundach - od pojedynczych fragmentów po całe książki
+DEFAULT_BUCKETS = (0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800, 3600, 7200)
+
+def _format_labels(names: tuple, values: tuple, extra: dict = None) -> str:
+    """Formatuje etykiety metryki w składni Prometheusa.
+
+    Args:
+        names (tuple): Nazwy etykiet
+        values (tuple): Wartości etykiet
+        extra (dict): Dodatkowe etykiety (np. le dla histogramu)
+
+    Returns:
+        str: Etykiety w postaci {a="1",b="2"} lub pusty napis
+    """
+    pairs = list(zip(names, values))
+    if extra:
+        pairs.extend(extra.items())
+    if not pairs:
+        return ""
+    escaped = []
+    for key, value in pairs:
+        value = str(value).replace("\\", "\\\\").replace('"', '\\"').replace("\n", "\\n")
+        escaped.append(f'{key}="{value}"')
+    return "{" + ",".join(escaped) + "}"
+
+def _format_value(value: float) -> str:
+    if value == float("inf"):
+        return "+Inf"
+    if float(value).is_integer():
+        return str(int(value))
+    return repr(float(value))
+
+class _Metric:
+    """Wspólna baza metryk z etykietami."""
+
+    metric_type = "untyped"
+
+    def __init__(self, name: str, documentation: str, labelnames: tuple = ()):
+        self.name = name
+        self.documentation = documentation
+        self.labelnames = tuple(labelnames)
+        self._lock = threading.Lock()
+        self._values = {}
+
+    def _key(self, labels: dict) -> tuple:
+        return tuple(str(labels.get(name, "")) for name in self.labelnames)
+
+    def label_values(self) -> list:
+        """Zwraca wszystkie zarejestrowane kombinacje wartości etykiet."""
+        with self._lock:
+            return list(self._values.keys())
+
+    def render(self) -> list:
+        lines = [f"# HELP {self.name} {self.documentation}", f"# TYPE {self.name} {self.metric_type}"]
+        with self._lock:
+            items = sorted(self._values.items())
+        for key, value in items:
+            lines.append(f"{self.name}{_format_labels(self.labelnames, key)} {_format_value(value)}")
+        return lines
+
+class Counter(_Metric):
+    """Licznik monotonicznie rosnący."""
+
+    metric_type = "counter"
+
+    def inc(self, amount: float = 1.0, **labels):
+        key = self._key(labels)
+        with self._lock:
+            self._values[key] = self._values.get(key, 0.0) + amount
+
+    def get(self, **labels) -> float:
+        with self._lock:
+            return self._values.get(self._key(labels), 0.0)
+
+class Gauge(_Metric):
+    """Wartość chwilowa, która może rosnąć i maleć."""
+
+    metric_type = "gauge"
+
+    def set(self, value: float, **labels):
+        with self._lock:
+            self._values[self._key(labels)] = float(value)
+
+    def inc(self, amount: float = 1.0, **labels):
+        key = self._key(labels)
+        with self._lock:
+            self._values[key] = self._values.get(key, 0.0) + amount
+
+    def dec(self, amount: float = 1.0, **labels):
+        self.inc(-amount, **labels)
+
+    def get(self, **labels) -> float:
+        with self._lock:
+            return self._values.get(self._key(labels), 0.0)
+
+class Histogram(_Metric):
+    """Histogram kumulatywny z sumą i licznikiem obserwacji."""
+
+    metric_type = "histogram"
+
+    def __init__(self, name: str, documentation: str, labelnames: tuple = (), buckets: tuple = DEFAULT_BUCKETS):
+        super().__init__(name, documentation, labelnames)
+        self.buckets = tuple(sorted(buckets)) + (float("inf"),)
+
+    def observe(self, value: float, **labels):
+        key = self._key(labels)
+        with self._lock:
+            state = self._values.get(key)
+            if state is None:
+                state = {"counts": [0] * len(self.buckets), "sum": 0.0, "count": 0}
+                self._values[key] = state
+            for idx, bound in enumerate(self.buckets):
+                if value <= bound:
+                    state["counts"][idx] += 1
+                    break
+            state["sum"] += value
+            state["count"] += 1
+
+    def render(self) -> list:
+        lines = [f"# HELP {self.name} {self.documentation}", f"# TYPE {self.name} {self.metric_type}"]
+        with self._lock:
+            items = sorted((key, dict(state, counts=list(state["counts"]))) for key, state in self._values.items())
+        for key, state in items:
+            cumulative = 0
+            for bound, count in zip(self.buckets, state["counts"]):
+                cumulative += count
+                labels = _format_labels(self.labelnames, key, {"le": _format_value(bound)})
+                lines.append(f"{self.name}_bucket{labels} {cumulative}")
+            labels = _format_labels(self.labelnames, key)
+            lines.append(f"{self.name}_sum{labels} {_format_value(state['sum'])}")
+            lines.append(f"{self.name}_count{labels} {state['count']}")
+        return lines
+
+class Registry:
+    """Rejestr metryk renderowany na żądanie w formacie tekstowym Prometheusa."""
+
+    def __init__(self):
+        self._metrics = []
+        self._collectors = []
+        self._lock = threading.Lock()
+
+    def register(self, metric: _Metric) -> _Metric:
+        with self._lock:
+            self._metrics.append(metric)
+        return metric
+
+    def counter(self, name: str, documentation: str, labelnames: tuple = ()) -> Counter:
+        return self.register(Counter(name, documentation, labelnames))
+
+    def gauge(self, name: str, documentation: str, labelnames: tuple = ()) -> Gauge:
+        return self.register(Gauge(name, documentation, labelnames))
+
+    def histogram(self, name: str, documentation: str, labelnames: tuple = (), buckets: tuple = DEFAULT_BUCKETS) -> Histogram:
+        return self.register(Histogram(name, documentation, labelnames, buckets))
+
+    def add_collector(self, collector):
+        """Rejestruje funkcję wywoływaną tuż przed renderowaniem (np. do wyliczenia metryk pochodnych)."""
+        with self._lock:
+            self._collectors.append(collector)
+
+    def render(self) -> str:
+        with self._lock:
+            collectors = list(self._collectors)
+            metrics = list(self._metrics)
+        for collector in collectors:
+            collector()
+        lines = []
+        for metric in metrics:
+            lines.extend(metric.render())
+        return "\n".join(lines) + "\n"
+
+registry = Registry()
+
+STAGES = ("parse", "cover", "clean_text", "split", "synthesis", "postprocess", "export", "zip", "base64")
+
+# Jedna obserwacja na etap i książkę (suma po rozdziałach i fragmentach) - czasy pojedynczych
+# fragmentów trafiają do neurovoice_chunk_synthesis_seconds
+stage_duration = registry.histogram(
+    "neurovoice_stage_duration_seconds",
+    "Łączny czas etapu przetwarzania jednej książki",
+    ("stage",))
+chunk_synthesis_duration = registry.histogram(
+    "neurovoice_chunk_synthesis_seconds",
+    "Czas syntezy pojedynczego fragmentu tekstu",
+    buckets=(0.1, 0.25, 0.5, 1, 2, 3, 5, 7.5, 10, 15, 20, 30, 60))
+chunk_audio_duration = registry.histogram(
+    "neurovoice_chunk_audio_seconds",
+    "Długość audio wygenerowanego dla pojedynczego fragmentu",
+    buckets=(1, 2, 3, 5, 7.5, 10, 15, 20, 30))
+request_duration = registry.histogram(
+    "neurovoice_request_duration_seconds",
+    "Całkowity czas obsługi żądania /upload",
+    ("status",))
+audio_seconds_total = registry.counter(
+    "neurovoice_audio_seconds_total",
+    "Łączna długość wygenerowanego audio w sekundach")
+synthesis_seconds_total = registry.counter(
+    "neurovoice_synthesis_seconds_total",
+    "Łączny czas obliczeń syntezy w sekundach")
+chunks_total = registry.counter(
+    "neurovoice_chunks_total",
+    "Liczba zsyntezowanych fragmentów według wyniku",
+    ("result",))
+realtime_factor = registry.gauge(
+    "neurovoice_realtime_factor",
+    "Sekundy audio na sekundę obliczeń (łącznie od startu serwera)")
+active_requests = registry.gauge(
+    "neurovoice_requests_active",
+    "Liczba żądań /upload w trakcie przetwarzania")
+queued_requests = registry.gauge(
+    "neurovoice_requests_queued",
+    "Liczba żądań oczekujących na rozpoczęcie syntezy")
+cache_lookups = registry.counter(
+    "neurovoice_cache_lookups_total",
+    "Odwołania do pamięci podręcznych według wyniku",
+    ("cache", "result"))
+cache_hit_ratio = registry.gauge(
+    "neurovoice_cache_hit_ratio",
+    "Udział trafień w odwołaniach do pamięci podręcznej",
+    ("cache",))
+
+def _collect_derived():
+    audio = audio_seconds_total.get()
+    compute = synthesis_seconds_total.get()
+    realtime_factor.set(audio / compute if compute > 0 else 0.0)
+    caches = {key[0] for key in cache_lookups.label_values()}
+    for cache in caches:
+        hits = cache_lookups.get(cache=cache, result="hit")
+        misses = cache_lookups.get(cache=cache, result="miss")
+        total = hits + misses
+        cache_hit_ratio.set(hits / total if total else 0.0, cache=cache)
+
+registry.add_collector(_collect_derived)
+
+resident_memory = registry.gauge(
+    "neurovoice_process_resident_memory_bytes",
+    "Bieżąca pamięć rezydentna (RSS) procesu serwera")
+peak_resident_memory = registry.gauge(
+    "neurovoice_process_peak_resident_memory_bytes",
+    "Największa pamięć rezydentna procesu serwera od startu")
+
+def _collect_memory():
+    try:
+        with open("/proc/self/statm") as f:
+            resident_memory.set(int(f.read().split()[1]) * os.sysconf("SC_PAGE_SIZE"))
+    except (OSError, ValueError):
+        pass
+    try:
+        import resource
+    except ImportError:
+        return
+    # ru_maxrss jest w kilobajtach na Linuksie i w bajtach na macOS
+    maxrss = resource.getrusage(resource.RUSAGE_SELF).ru_maxrss
+    peak_resident_memory.set(maxrss if sys.platform == "darwin" else maxrss * 1024)
+
+registry.add_collector(_collect_memory)
+
+def record_cache(cache: str, hit: bool):
+    """Zapisuje trafienie lub chybienie w pamięci podręcznej.
+
+    Args:
+        cache (str): Nazwa pamięci podręcznej
+        hit (bool): Czy element został znaleziony
+    """
+    cache_lookups.inc(cache=cache, result="hit" if hit else "miss")
+
+def record_chunk(compute_seconds: float, audio_seconds: float):
+    """Zapisuje czas syntezy i długość audio pojedynczego fragmentu.
+
+    Args:
+        compute_seconds (float): Czas obliczeń syntezy
+        audio_seconds (float): Długość wygenerowanego audio
+    """
+    chunk_synthesis_duration.observe(compute_seconds)
+    chunk_audio_duration.observe(audio_seconds)
+    synthesis_seconds_total.inc(compute_seconds)
+    audio_seconds_total.inc(audio_seconds)
+    chunks_total.inc(result="ok")
+
+class RequestStats:
+    """Zbiera czasy etapów dla pojedynczego żądania i publikuje je w histogramach."""
+
+    def __init__(self, request_id: str, filename: str):
+        self.request_id = request_id
+        self.filename = filename
+        self.started_at = time.time()
+        self.stages = {stage: 0.0 for stage in STAGES}
+        self.chunks = 0
+        self.audio_seconds = 0.0
+        self.synthesis_seconds = 0.0
+        self.status = "running"
+        self.duration = 0.0
+
+    @contextmanager
+    def stage(self, name: str):
+        """Mierzy czas etapu i dolicza go do sumy etapu w żądaniu."""
+        start = time.perf_counter()
+        try:
+            yield
+        finally:
+            self.add_stage(name, time.perf_counter() - start)
+
+    def add_stage(self, name: str, elapsed: float):
+        self.stages[name] = self.stages.get(name, 0.0) + elapsed
+
+    def add_chunk(self, compute_seconds: float, audio_seconds: float):
+        self.chunks += 1
+        self.synthesis_seconds += compute_seconds
+        self.audio_seconds += audio_seconds
+        record_chunk(compute_seconds, audio_seconds)
+
+    def finish(self, status: str):
+        self.status = status
+        self.duration = time.time() - self.started_at
+        request_duration.observe(self.duration, status=status)
+        for name, elapsed in self.stages.items():
+            # Etapy pominięte w tym żądaniu (np. odczytane z punktu kontrolnego) nie zaniżają rozkładu
+            if elapsed > 0:
+                stage_duration.observe(elapsed, stage=name)
+        recent_requests.append(self.as_dict())
+
+    def as_dict(self) -> dict:
+        return {
+            'request_id': self.request_id,
+            'filename': self.filename,
+            'started_at': self.started_at,
+            'status': self.status,
+            'duration': round(self.duration, 3),
+            'stages': {name: round(value, 3) for name, value in self.stages.items()},
+            'chunks': self.chunks,
+            'audio_seconds': round(self.audio_seconds, 3),
+            'synthesis_seconds': round(self.synthesis_seconds, 3),
+            'realtime_factor': round(self.audio_seconds / self.synthesis_seconds, 3) if self.synthesis_seconds else 0.0
+        }
+
+# Ostatnie zakończone żądania z rozbiciem na etapy (do planowania pojemności)
+recent_requests = deque(maxlen=int(os.environ.get("NEUROVOICE_METRICS_HISTORY", "200")))
@@ -0,0 +1,216 @@
+import logging
+import queue
+import threading
+import time
+from concurrent.futures import TimeoutError as FutureTimeoutError
+import metrics
+
+logger = logging.getLogger(__name__)
+
+queue_depth = metrics.registry.gauge(
+    "neurovoice_pipeline_queue_depth",
+    "Liczba elementów oczekujących w kolejce przed etapem potoku (suma dla wszystkich zadań)",
+    ("queue",))
+queue_capacity = metrics.registry.gauge(
+    "neurovoice_pipeline_queue_capacity",
+    "Pojemność kolejki przed etapem potoku (na zadanie)",
+    ("queue",))
+stage_wait_seconds = metrics.registry.counter(
+    "neurovoice_pipeline_wait_seconds_total",
+    "Czas oczekiwania etapu na dane wejściowe (input) lub na miejsce w kolejce następnego etapu (output)",
+    ("stage", "reason"))
+
+# Co ile sekund oczekujący wątek sprawdza, czy potok nie został przerwany
+POLL_SECONDS = 0.2
+
+_END = object()
+
+class PipelineCancelled(Exception):
+    """Zgłaszany w wątkach etapów, gdy potok został przerwany przez błąd innego etapu."""
+
+class _StageQueue:
+    """Ograniczona kolejka przed etapem potoku z licznikiem głębokości w metrykach."""
+
+    def __init__(self, pipeline: "Pipeline", name: str, maxsize: int):
+        self.pipeline = pipeline
+        self.name = name
+        self._queue = queue.Queue(maxsize)
+        queue_capacity.set(maxsize, queue=name)
+
+    def put(self, stage: str, item):
+        start = time.perf_counter()
+        if item is not _END:
+            queue_depth.inc(queue=self.name)
+        try:
+            while True:
+                self.pipeline.check()
+                try:
+                    self._queue.put(item, timeout=POLL_SECONDS)
+                    break
+                except queue.Full:
+                    continue
+        except PipelineCancelled:
+            if item is not _END:
+                queue_depth.dec(queue=self.name)
+            raise
+        finally:
+            stage_wait_seconds.inc(time.perf_counter() - start, stage=stage, reason="output")
+
+    def get(self, stage: str):
+        start = time.perf_counter()
+        try:
+            while True:
+                self.pipeline.check()
+                try:
+                    item = self._queue.get(timeout=POLL_SECONDS)
+                    break
+                except queue.Empty:
+                    continue
+        finally:
+            stage_wait_seconds.inc(time.perf_counter() - start, stage=stage, reason="input")
+        if item is not _END:
+            queue_depth.dec(queue=self.name)
+        return item
+
+    def drain(self):
+        """Usuwa elementy pozostawione przez przerwany potok, korygując metrykę głębokości."""
+        while True:
+            try:
+                item = self._queue.get_nowait()
+            except queue.Empty:
+                return
+            if item is not _END:
+                queue_depth.dec(queue=self.name)
+
+class Pipeline:
+    """Łańcuch etapów przetwarzania, z których każdy działa we własnym wątku.
+
+    Etapy są połączone ograniczonymi kolejkami, więc szybki etap wyprzedza wolniejszy najwyżej
+    o pojemność kolejki, a wolny etap (synteza) ma zawsze przygotowaną pracę. Błąd w dowolnym
+    etapie przerywa cały potok i jest zgłaszany przez run().
+    """
+
+    def __init__(self, name: str):
+        self.name = name
+        self._source = None
+        self._stages = []
+        self._cancelled = threading.Event()
+        self._error = None
+        self._error_lock = threading.Lock()
+
+    def source(self, name: str, produce):
+        """Ustawia pierwszy etap potoku.
+
+        Args:
+            name (str): Nazwa etapu (etykieta w metrykach)
+            produce: Funkcja bez argumentów zwracająca iterator elementów
+        """
+        self._source = (name, produce)
+
+    def stage(self, name: str, process, queue_size: int):
+        """Dodaje kolejny etap potoku.
+
+        Args:
+            name (str): Nazwa etapu (etykieta w metrykach i nazwa kolejki przed etapem)
+            process: Funkcja przetwarzająca jeden element; zwraca element dla następnego etapu
+                lub None, jeśli element ma zostać pominięty
+            queue_size (int): Pojemność kolejki przed etapem
+        """
+        self._stages.append((name, process, queue_size))
+
+    def check(self):
+        """Zgłasza PipelineCancelled, jeśli potok został przerwany."""
+        if self._cancelled.is_set():
+            raise PipelineCancelled(self.name)
+
+    def wait(self, future, stage: str):
+        """Czeka na zakończenie future, przerywając oczekiwanie razem z potokiem.
+
+        Args:
+            future: Future, na które czeka etap (np. fragment w harmonogramie syntezy)
+            stage (str): Nazwa czekającego etapu
+        """
+        start = time.perf_counter()
+        try:
+            while True:
+                self.check()
+                try:
+                    future.exception(timeout=POLL_SECONDS)
+                    return
+                except FutureTimeoutError:
+                    continue
+        finally:
+            stage_wait_seconds.inc(time.perf_counter() - start, stage=stage, reason="input")
+
+    def _fail(self, stage: str, error: Exception):
+        with self._error_lock:
+            if self._error is None:
+                logger.error(f"Etap {stage} potoku {self.name} zakończył się błędem: {str(error)}")
+                self._error = error
+        self._cancelled.set()
+
+    def _run_source(self, name: str, produce, outbox: _StageQueue):
+        try:
+            for item in produce():
+                outbox.put(name, item)
+            outbox.put(name, _END)
+        except PipelineCancelled:
+            pass
+        except Exception as e:
+            self._fail(name, e)
+
+    def _run_stage(self, name: str, process, inbox: _StageQueue, outbox: _StageQueue):
+        try:
+            while True:
+                item = inbox.get(name)
+                if item is _END:
+                    break
+                result = process(item)
+                if result is not None:
+                    outbox.put(name, result)
+            outbox.put(name, _END)
+        except PipelineCancelled:
+            pass
+        except Exception as e:
+            self._fail(name, e)
+
+    def run(self, sink_name: str, consume, queue_size: int):
+        """Uruchamia potok, wykonując ostatni etap w bieżącym wątku.
+
+        Args:
+            sink_name (str): Nazwa ostatniego etapu
+            consume: Funkcja wywoływana dla każdego elementu, który przeszedł przez wszystkie etapy
+            queue_size (int): Pojemność kolejki przed ostatnim etapem
+
+        Raises:
+            Exception: Pierwszy błąd zgłoszony przez którykolwiek etap
+        """
+        names = [name for name, _, _ in self._stages] + [sink_name]
+        sizes = [size for _, _, size in self._stages] + [queue_size]
+        queues = [_StageQueue(self, name, size) for name, size in zip(names, sizes)]
+        source_name, produce = self._source
+        threads = [threading.Thread(target=self._run_source, args=(source_name, produce, queues[0]),
+                                    name=f"{self.name}-{source_name}", daemon=True)]
+        for i, (name, process, _) in enumerate(self._stages):
+            threads.append(threading.Thread(target=self._run_stage, args=(name, process, queues[i], queues[i + 1]),
+                                            name=f"{self.name}-{name}", daemon=True))
+        for thread in threads:
+            thread.start()
+        try:
+            while True:
+                item = queues[-1].get(sink_name)
+                if item is _END:
+                    break
+                consume(item)
+        except PipelineCancelled:
+            pass
+        except Exception as e:
+            self._fail(sink_name, e)
+        finally:
+            self._cancelled.set()
+            for thread in threads:
+                thread.join()
+            for stage_queue in queues:
+                stage_queue.drain()
+        if self._error is not None:
+            raise self._error
@@ -0,0 +1,263 @@
+import logging
+import threading
+import time
+import uuid
+from collections import OrderedDict, deque
+from concurrent.futures import Future
+import metrics
+
+logger = logging.getLogger(__name__)
+
+backlog_chunks = metrics.registry.gauge(
+    "neurovoice_scheduler_backlog_chunks",
+    "Liczba fragmentów oczekujących w kolejce syntezy")
+active_jobs_gauge = metrics.registry.gauge(
+    "neurovoice_scheduler_jobs",
+    "Liczba zadań zarejestrowanych w harmonogramie syntezy")
+rejected_total = metrics.registry.counter(
+    "neurovoice_scheduler_rejected_total",
+    "Żądania odrzucone przez kontrolę dopuszczenia",
+    ("reason",))
+queue_wait = metrics.registry.histogram(
+    "neurovoice_scheduler_queue_wait_seconds",
+    "Czas oczekiwania fragmentu w kolejce przed syntezą")
+
+class AdmissionError(Exception):
+    """Zgłaszany, gdy harmonogram nie może przyjąć kolejnego zadania."""
+
+    def __init__(self, message: str, retry_after: int):
+        super().__init__(message)
+        self.retry_after = retry_after
+
+class _Chunk:
+    __slots__ = ("chunk_id", "job_id", "text", "output_path", "future", "enqueued_at", "attempts")
+
+    def __init__(self, job_id: str, text: str, output_path: str):
+        self.chunk_id = uuid.uuid4().hex
+        self.job_id = job_id
+        self.text = text
+        self.output_path = output_path
+        self.future = Future()
+        self.enqueued_at = time.perf_counter()
+        self.attempts = 0
+
+class _Job:
+    __slots__ = ("job_id", "client_id", "pending", "started")
+
+    def __init__(self, job_id: str, client_id: str):
+        self.job_id = job_id
+        self.client_id = client_id
+        self.pending = deque()
+        self.started = False
+
+class SynthesisScheduler:
+    """Jedyny właściciel kolejki syntezy - wydaje fragmenty w kolejności round-robin.
+
+    Klienci są obsługiwani na zmianę, a w obrębie klienta na zmianę jego zadania, więc krótka
+    książka nie czeka na zakończenie długiej. Fragmenty pobiera lokalny wątek z modelem
+    (jeśli synthesize_fn jest podane) oraz zdalne węzły robocze przez take()/complete().
+    """
+
+    def __init__(self, synthesize_fn=None, max_backlog_chunks: int = 2000, max_active_jobs: int = 8):
+        """Tworzy harmonogram.
+
+        Args:
+            synthesize_fn: Funkcja (tekst, ścieżka_wav) wykonująca syntezę jednego fragmentu
+                lokalnie lub None, gdy syntezę wykonują wyłącznie zdalne węzły
+            max_backlog_chunks (int): Próg kolejki fragmentów, powyżej którego nowe zadania są odrzucane
+            max_active_jobs (int): Maksymalna liczba jednocześnie obsługiwanych zadań
+        """
+        self.synthesize_fn = synthesize_fn
+        self.max_backlog_chunks = max_backlog_chunks
+        self.max_active_jobs = max_active_jobs
+        self._clients = OrderedDict()
+        self._jobs = {}
+        self._backlog = 0
+        self._avg_chunk_seconds = 5.0
+        self._condition = threading.Condition()
+        self._thread = None
+        if synthesize_fn is not None:
+            self._thread = threading.Thread(target=self._run, name="synthesis-scheduler", daemon=True)
+            self._thread.start()
+
+    def retry_after(self) -> int:
+        """Szacuje, po ilu sekundach kolejka zmaleje poniżej progu.
+
+        Returns:
+            int: Liczba sekund do nagłówka Retry-After
+        """
+        with self._condition:
+            return self._retry_after_locked()
+
+    def open_job(self, job_id: str, client_id: str, enforce_limits: bool = True):
+        """Rejestruje nowe zadanie po sprawdzeniu kontroli dopuszczenia.
+
+        Args:
+            job_id (str): Identyfikator zadania
+            client_id (str): Identyfikator klienta (np. adres IP)
+            enforce_limits (bool): Czy stosować kontrolę dopuszczenia (wyłączone dla wznawianych zadań)
+
+        Raises:
+            AdmissionError: Gdy kolejka lub liczba zadań przekracza próg
+        """
+        with self._condition:
+            if enforce_limits and len(self._jobs) >= self.max_active_jobs:
+                rejected_total.inc(reason="active_jobs")
+                raise AdmissionError(f"Osiągnięto limit {self.max_active_jobs} jednoczesnych książek", self._retry_after_locked())
+            if enforce_limits and self._backlog >= self.max_backlog_chunks:
+                rejected_total.inc(reason="backlog")
+                raise AdmissionError(f"Kolejka syntezy jest pełna ({self._backlog} fragmentów)", self._retry_after_locked())
+            job = _Job(job_id, client_id)
+            self._jobs[job_id] = job
+            self._clients.setdefault(client_id, deque()).append(job_id)
+            active_jobs_gauge.set(len(self._jobs))
+            metrics.queued_requests.inc()
+            logger.info(f"Przyjęto zadanie {job_id} od {client_id} ({len(self._jobs)} aktywnych)")
+
+    def is_open(self, job_id: str) -> bool:
+        with self._condition:
+            return job_id in self._jobs
+
+    def _retry_after_locked(self) -> int:
+        excess = max(1, self._backlog - self.max_backlog_chunks // 2)
+        return max(1, int(excess * self._avg_chunk_seconds))
+
+    def submit(self, job_id: str, text: str, output_path: str) -> Future:
+        """Dodaje fragment do kolejki zadania.
+
+        Args:
+            job_id (str): Identyfikator zadania zarejestrowanego przez open_job
+            text (str): Tekst fragmentu
+            output_path (str): Ścieżka docelowa pliku WAV
+
+        Returns:
+            Future: Wynik z czasem obliczeń syntezy w sekundach
+        """
+        chunk = _Chunk(job_id, text, output_path)
+        with self._condition:
+            job = self._jobs[job_id]
+            job.pending.append(chunk)
+            self._backlog += 1
+            backlog_chunks.set(self._backlog)
+            self._condition.notify()
+        return chunk.future
+
+    def close_job(self, job_id: str):
+        """Usuwa zadanie z harmonogramu, anulując jego nieprzetworzone fragmenty.
+
+        Args:
+            job_id (str): Identyfikator zadania
+        """
+        with self._condition:
+            job = self._jobs.pop(job_id, None)
+            if job is None:
+                return
+            for chunk in job.pending:
+                chunk.future.cancel()
+            self._backlog -= len(job.pending)
+            job.pending.clear()
+            if not job.started:
+                metrics.queued_requests.dec()
+            client_jobs = self._clients.get(job.client_id)
+            if client_jobs is not None:
+                client_jobs.remove(job_id)
+                if not client_jobs:
+                    del self._clients[job.client_id]
+            backlog_chunks.set(self._backlog)
+            active_jobs_gauge.set(len(self._jobs))
+
+    def _next_chunk(self):
+        """Wybiera następny fragment: kolejny klient, a u niego kolejne zadanie z pracą do wykonania."""
+        for _ in range(len(self._clients)):
+            client_id, client_jobs = next(iter(self._clients.items()))
+            self._clients.move_to_end(client_id)
+            for _ in range(len(client_jobs)):
+                job = self._jobs[client_jobs[0]]
+                client_jobs.rotate(-1)
+                if job.pending:
+                    if not job.started:
+                        job.started = True
+                        metrics.queued_requests.dec()
+                    self._backlog -= 1
+                    backlog_chunks.set(self._backlog)
+                    return job.pending.popleft()
+        return None
+
+    def take(self, max_chunks: int = 1, timeout: float = None) -> list:
+        """Pobiera do max_chunks fragmentów do syntezy, czekając najwyżej timeout sekund na pierwszy.
+
+        Args:
+            max_chunks (int): Maksymalna liczba fragmentów
+            timeout (float): Czas oczekiwania w sekundach (None - bez limitu)
+
+        Returns:
+            list: Fragmenty oznaczone jako rozpoczęte; pusta lista po upływie czasu
+        """
+        deadline = None if timeout is None else time.monotonic() + timeout
+        taken = []
+        with self._condition:
+            while not taken:
+                chunk = self._next_chunk()
+                while chunk is not None and len(taken) < max_chunks:
+                    # Fragment zwrócony przez requeue() jest już w stanie "running"
+                    if chunk.attempts > 0 or chunk.future.set_running_or_notify_cancel():
+                        chunk.attempts += 1
+                        queue_wait.observe(time.perf_counter() - chunk.enqueued_at)
+                        taken.append(chunk)
+                    if len(taken) < max_chunks:
+                        chunk = self._next_chunk()
+                if taken:
+                    break
+                remaining = None if deadline is None else deadline - time.monotonic()
+                if remaining is not None and remaining <= 0:
+                    break
+                self._condition.wait(remaining)
+        return taken
+
+    def complete(self, chunk, elapsed: float):
+        """Oznacza fragment jako zsyntezowany.
+
+        Args:
+            chunk: Fragment pobrany przez take()
+            elapsed (float): Czas obliczeń syntezy w sekundach
+        """
+        with self._condition:
+            # Średnia krocząca czasu fragmentu - podstawa szacowania Retry-After
+            self._avg_chunk_seconds = 0.9 * self._avg_chunk_seconds + 0.1 * elapsed
+        if not chunk.future.done():
+            chunk.future.set_result(elapsed)
+
+    def fail(self, chunk, error: Exception):
+        """Kończy fragment błędem, który zobaczy oczekujący na niego wątek zadania."""
+        if not chunk.future.done():
+            chunk.future.set_exception(error)
+
+    def requeue(self, chunk) -> bool:
+        """Zwraca fragment na początek kolejki jego zadania (np. po awarii węzła roboczego).
+
+        Args:
+            chunk: Fragment pobrany przez take()
+
+        Returns:
+            bool: False, jeśli zadanie zostało już zamknięte i fragment nie jest potrzebny
+        """
+        with self._condition:
+            job = self._jobs.get(chunk.job_id)
+            if job is None or chunk.future.done():
+                return False
+            job.pending.appendleft(chunk)
+            self._backlog += 1
+            backlog_chunks.set(self._backlog)
+            self._condition.notify()
+            return True
+
+    def _run(self):
+        while True:
+            chunk = self.take(1)[0]
+            start = time.perf_counter()
+            try:
+                self.synthesize_fn(chunk.text, chunk.output_path)
+            except Exception as e:
+                self.fail(chunk, e)
+                continue
+            self.complete(chunk, time.perf_counter() - start)
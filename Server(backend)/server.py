@@ -2,52 +2,88 @@ import logging
 import os
 import time
 import uuid
-import shutil
 import zipfile
 import io
+import json
 import base64
 import re
-import tempfile
-from flask import Flask, request, jsonify
-from TTS.api import TTS
-import torch
-from pydub import AudioSegment
+import threading
+import wave
+import hmac
+import ipaddress
+import math
+from flask import Flask, request, jsonify, Response, send_file
 import xml.etree.ElementTree as ET
 from ebooklib import epub, ITEM_DOCUMENT
 from bs4 import BeautifulSoup
 from charset_normalizer import detect
+import metrics
+import cluster
+import tts_backend
+import jobs
+import audio_post
+import covers
+import dedup
+import pipeline
+from audio_post import StreamingPostProcessor
+from scheduler import SynthesisScheduler, AdmissionError
 
 app = Flask(__name__)
 logging.basicConfig(level=logging.INFO)
 logger = logging.getLogger(__name__)
 
-# Inicjalizacja TTS
-device = "cuda" if torch.cuda.is_available() else "cpu"
-logger.info(f"Używane urządzenie: {device}")
-tts = TTS(model_name="tts_models/multilingual/multi-dataset/xtts_v2", progress_bar=False).to(device)
+# Rola procesu: "standalone" - jeden serwer z modelem, "coordinator" - parsowanie i składanie
+# rozdziałów na tym serwerze, synteza na zdalnych węzłach roboczych (worker.py)
+ROLE = os.environ.get("NEUROVOICE_ROLE", "standalone")
+if ROLE not in ("standalone", "coordinator"):
+    raise ValueError(f"Nieznana rola serwera: {ROLE}")
+LOCAL_SYNTHESIS = ROLE == "standalone" or os.environ.get("NEUROVOICE_COORDINATOR_SYNTHESIS", "0") == "1"
+CLUSTER_TOKEN = os.environ.get("NEUROVOICE_CLUSTER_TOKEN", "")
 
-def text_similarity(text1: str, text2: str, sample_size: int = 200) -> float:
-    """Oblicza przybliżone podobieństwo między dwoma tekstami na podstawie zbioru znaków.
+# Model ładuje się w tle, a serwer HTTP startuje od razu - /health zgłasza stan "starting"
+# do czasu gotowości (koordynator bez lokalnej syntezy nie ładuje modelu)
+model_loader = tts_backend.BackendLoader() if LOCAL_SYNTHESIS else None
+if model_loader is not None:
+    model_loader.start()
+
+def synthesize_chunk(text: str, output_path: str):
+    """Syntezuje jeden fragment do pliku WAV. Wywoływane wyłącznie z wątku harmonogramu.
+    
+    Fragmenty przyjęte przed załadowaniem modelu czekają w kolejce na jego gotowość.
     
     Args:
-        text1 (str): Pierwszy tekst do porównania
-        text2 (str): Drugi tekst do porównania
-        sample_size (int): Liczba znaków do pobrania z każdego tekstu
-        
-    Returns:
-        float: Wynik podobieństwa od 0.0 do 1.0
+        text (str): Tekst fragmentu
+        output_path (str): Ścieżka docelowa pliku WAV
     """
-    if not text1 or not text2:
-        return 0.0
-    
-    t1_sample = text1[:sample_size] if len(text1) > sample_size else text1
-    t2_sample = text2[:sample_size] if len(text2) > sample_size else text2
-    
-    common_chars = set(t1_sample) & set(t2_sample)
-    if not common_chars:
-        return 0.0
-    
-    return len(common_chars) / max(len(set(t1_sample)), len(set(t2_sample)))
+    model_loader.wait().synthesize(text, output_path)
+
+# Harmonogram jest jedynym miejscem, które wywołuje model; w trybie koordynatora wydaje też
+# fragmenty zdalnym węzłom
+scheduler = SynthesisScheduler(
+    synthesize_chunk if model_loader is not None else None,
+    max_backlog_chunks=int(os.environ.get("NEUROVOICE_MAX_BACKLOG_CHUNKS", "2000")),
+    max_active_jobs=int(os.environ.get("NEUROVOICE_MAX_ACTIVE_JOBS", "8"))
+)
+coordinator = cluster.Coordinator(scheduler) if ROLE == "coordinator" else None
+if coordinator is not None and not CLUSTER_TOKEN:
+    logger.warning("Brak NEUROVOICE_CLUSTER_TOKEN - węzły robocze przyjmowane są tylko z tego komputera")
+
+# Pojemność kolejek (w rozdziałach) przed etapami potoku przetwarzania książki. Kolejka "encode"
+# określa, o ile rozdziałów synteza może wyprzedzić kodowanie MP3.
+PIPELINE_QUEUE_SIZES = {
+    'normalize': int(os.environ.get("NEUROVOICE_PIPELINE_NORMALIZE_QUEUE", "4")),
+    'synthesis': int(os.environ.get("NEUROVOICE_PIPELINE_SYNTHESIS_QUEUE", "2")),
+    'encode': int(os.environ.get("NEUROVOICE_PIPELINE_ENCODE_QUEUE", "2")),
+    'package': int(os.environ.get("NEUROVOICE_PIPELINE_PACKAGE_QUEUE", "4"))
+}
+
+# Rozdziały dłuższe niż tyle sekund audio są dzielone na granicy zdań na kilka plików MP3, które
+# klient odtwarza jako jeden rozdział (0 - bez podziału)
+SEGMENT_SECONDS = int(os.environ.get("NEUROVOICE_SEGMENT_SECONDS", "900"))
+# Co ile sekund usuwane są zadania starsze niż NEUROVOICE_JOB_RETENTION_HOURS (poza jednorazowym usuwaniem przy starcie)
+JOB_CLEANUP_INTERVAL = float(os.environ.get("NEUROVOICE_JOB_CLEANUP_MINUTES", "60")) * 60
+# Spis rozdziałów i segmentów w archiwum ZIP
+MANIFEST_NAME = "manifest.json"
 
 def clean_text(text: str) -> str:
     """Czysci tekst, usuwając niechciane wzorce, symbole i formatowanie.
@@ -106,20 +142,20 @@ def detect_encoding(file_path: str) -> str:
     logger.info(f"Wykryte kodowanie: {encoding}")
     return encoding
 
-def extract_text_from_fb2(file_path: str, encoding: str) -> list:
-    """Wyodrębnia rozdziały z pliku FB2.
+def extract_text_from_fb2(file_path: str, encoding: str, duplicates: dedup.ChapterDeduplicator):
+    """Wyodrębnia rozdziały z pliku FB2, zwracając każdy od razu po odczytaniu.
     
     Args:
         file_path (str): Ścieżka do pliku FB2
         encoding (str): Kodowanie pliku
+        duplicates (dedup.ChapterDeduplicator): Indeks odrzucający powtórzone rozdziały
         
-    Returns:
-        list: Lista krotek (tytuł_rozdzialu, tekst_rozdzialu)
+    Yields:
+        tuple: (tytuł_rozdzialu, tekst_rozdzialu)
     """
     with open(file_path, "r", encoding=encoding) as f:
         content = f.read()
     root = ET.fromstring(content)
-    chapters = []
     namespace = "{http://www.gribuser.ru/xml/fictionbook/2.0}"
     
     chapter_idx = 0
@@ -152,25 +188,26 @@ def extract_text_from_fb2(file_path: str, encoding: str) -> list:
                         continue
                     chapter_text.append(p.text.strip())
             if chapter_text:
-                chapters.append((chapter_title, " ".join(chapter_text)))
-    return chapters
+                chapter_content = " ".join(chapter_text)
+                if not duplicates.is_duplicate(chapter_title, chapter_content):
+                    yield chapter_title, chapter_content
 
-def extract_text_from_epub(file_path: str) -> list:
-    """Wyodrębnia rozdziały z pliku EPUB.
+def extract_text_from_epub(file_path: str, duplicates: dedup.ChapterDeduplicator):
+    """Wyodrębnia rozdziały z pliku EPUB, zwracając każdy od razu po odczytaniu.
     
     Args:
         file_path (str): Ścieżka do pliku EPUB
+        duplicates (dedup.ChapterDeduplicator): Indeks odrzucający powtórzone rozdziały
         
-    Returns:
-        list: Lista krotek (tytuł_rozdzialu, tekst_rozdzialu)
+    Yields:
+        tuple: (tytuł_rozdzialu, tekst_rozdzialu)
     """
     book = epub.read_epub(file_path)
-    chapters = []
+    chapter_count = 0
     current_chapter = []
     current_title = None
     chapter_idx = 0
     seen_titles = {}
-    seen_content_hashes = set()
     metadata_patterns = [
         r'ISBN-+',
         r'Copyright',
@@ -209,18 +246,7 @@ def extract_text_from_epub(file_path: str) -> list:
                 if current_chapter:
                     chapter_content = " ".join(current_chapter)
                     
-                    is_similar = False
-                    if is_single_story and chapters:
-                        for _, existing_content in chapters:
-                            if text_similarity(chapter_content, existing_content) > 0.7:
-                                logger.info(f"Treść wydaje się być podobna do istniejącego rozdziału, pomijanie")
-                                is_similar = True
-                                break
-                    
-                    content_hash = hash(chapter_content[:1000])
-                    if not is_similar and content_hash not in seen_content_hashes and len(chapter_content) > 200:
-                        seen_content_hashes.add(content_hash)
-                        
+                    if len(chapter_content) > 200 and not duplicates.is_duplicate(current_title or main_title, chapter_content):
                         use_title = main_title if is_single_story and len(chapter_content) > 5000 and "przypisy" not in current_title.lower() else current_title
                         
                         if use_title:
@@ -234,7 +260,8 @@ def extract_text_from_epub(file_path: str) -> list:
                             use_title = f"Rozdział {chapter_idx}"
                             
                         logger.info(f"Dodawanie rozdziału: {use_title} ({len(chapter_content)} znaków)")
-                        chapters.append((use_title, chapter_content))
+                        chapter_count += 1
+                        yield use_title, chapter_content
                     
                     current_chapter = []
                 
@@ -253,8 +280,7 @@ def extract_text_from_epub(file_path: str) -> list:
     
     if current_chapter:
         chapter_content = " ".join(current_chapter)
-        content_hash = hash(chapter_content[:1000])
-        if content_hash not in seen_content_hashes and len(chapter_content) > 200:
+        if len(chapter_content) > 200 and not duplicates.is_duplicate(current_title or main_title, chapter_content):
             if current_title:
                 if current_title in seen_titles:
                     seen_titles[current_title] += 1
@@ -266,10 +292,10 @@ def extract_text_from_epub(file_path: str) -> list:
                 current_title = f"Rozdział {chapter_idx}"
                 
             logger.info(f"Dodawanie ostatniego rozdziału: {current_title} ({len(chapter_content)} znaków)")
-            chapters.append((current_title, chapter_content))
+            chapter_count += 1
+            yield current_title, chapter_content
     
-    logger.info(f"Wyodrębniono {len(chapters)} unikalnych rozdziałów z EPUB")
-    return chapters
+    logger.info(f"Wyodrębniono {chapter_count} unikalnych rozdziałów z EPUB")
 
 def extract_metadata_from_fb2(file_path: str, encoding: str, filename: str = "") -> dict:
     """Wyodrębnia metadane z pliku FB2.
@@ -378,28 +404,460 @@ def split_text(text: str, max_length: int = 150) -> list:
     
     return chunks
 
+def model_state() -> str:
+    """Zwraca stan lokalnego silnika syntezy; bez lokalnej syntezy serwer jest gotowy od razu."""
+    return model_loader.state if model_loader is not None else tts_backend.STATE_READY
+
 @app.route('/health', methods=['GET'])
 def health_check():
     """Sprawdza status serwera.
     
+    Proces, który ładuje jeszcze model, odpowiada 200 ze statusem "starting"; kod 503 oznacza,
+    że ładowanie modelu się nie powiodło.
+    
     Returns:
         jsonify: Status serwera w formacie JSON
     """
+    state = model_state()
     status = {
-        'status': 'ok',
-        'tts_model': tts.model_name,
-        'device': device,
-        'cuda_available': torch.cuda.is_available()
+        'status': {tts_backend.STATE_READY: 'ok', tts_backend.STATE_STARTING: 'starting'}.get(state, 'failed'),
+        'role': ROLE
+    }
+    status.update(model_loader.info() if model_loader is not None else {'backend': None})
+    if coordinator is not None:
+        status['workers'] = len(coordinator.status())
+    return jsonify(status), 503 if state == tts_backend.STATE_FAILED else 200
+
+@app.route('/ready', methods=['GET'])
+def readiness_check():
+    """Sprawdzenie gotowości dla równoważenia obciążenia: 200 dopiero po załadowaniu modelu.
+    
+    Returns:
+        Response: "ready" (200), "starting" (503 z nagłówkiem Retry-After) lub "failed" (503)
+    """
+    state = model_state()
+    if state == tts_backend.STATE_READY:
+        return 'ready', 200
+    if state == tts_backend.STATE_STARTING:
+        return state, 503, {'Retry-After': '5'}
+    return state, 503
+
+@app.route('/metrics', methods=['GET'])
+def metrics_endpoint():
+    """Udostępnia metryki serwera w formacie tekstowym Prometheusa.
+    
+    Returns:
+        Response: Metryki w formacie text/plain
+    """
+    return Response(metrics.registry.render(), mimetype='text/plain; version=0.0.4; charset=utf-8')
+
+@app.route('/metrics/requests', methods=['GET'])
+def metrics_requests():
+    """Zwraca czasy etapów ostatnio obsłużonych żądań.
+    
+    Returns:
+        jsonify: Lista żądań z rozbiciem czasu na etapy
+    """
+    return jsonify(list(metrics.recent_requests))
+
+def wav_duration(file_path: str) -> float:
+    """Odczytuje długość pliku WAV z nagłówka bez dekodowania próbek.
+    
+    Args:
+        file_path (str): Ścieżka do pliku WAV
+        
+    Returns:
+        float: Długość w sekundach
+    """
+    with wave.open(file_path, 'rb') as wav:
+        return wav.getnframes() / float(wav.getframerate())
+
+class TimestampIndex:
+    """Indeks rozdziału mapujący pozycje w tekście fragmentów na znaczniki czasu w audio.
+    
+    Zapisywany jako kompaktowy JSON z równoległymi tablicami: offsets (pozycja fragmentu w tekście
+    powstałym przez złączenie fragmentów spacją), starts (początek fragmentu w ms) i texts.
+    """
+
+    def __init__(self):
+        self.offsets = []
+        self.starts = []
+        self.texts = []
+        self.duration_ms = 0
+        self._text_length = 0
+
+    def add(self, text: str, start_ms: int):
+        """Dodaje fragment rozpoczynający się w danym momencie audio.
+        
+        Args:
+            text (str): Tekst fragmentu
+            start_ms (int): Początek fragmentu w milisekundach od początku rozdziału
+        """
+        if self.texts:
+            self._text_length += 1
+        self.offsets.append(self._text_length)
+        self.starts.append(int(start_ms))
+        self.texts.append(text)
+        self._text_length += len(text)
+
+    def save(self, path: str):
+        with open(path, 'w', encoding='utf-8') as f:
+            json.dump({'version': 1, 'duration_ms': int(self.duration_ms), 'offsets': self.offsets,
+                       'starts': self.starts, 'texts': self.texts}, f, ensure_ascii=False, separators=(',', ':'))
+
+def iter_book_chapters(input_path: str, filename: str, duplicates: dedup.ChapterDeduplicator):
+    """Wyodrębnia kolejne rozdziały z pliku EPUB lub FB2.
+    
+    Rozdziały powtarzające treść wcześniejszych są pomijane, zanim trafią do syntezy.
+    
+    Args:
+        input_path (str): Ścieżka do pliku
+        filename (str): Oryginalna nazwa pliku
+        duplicates (dedup.ChapterDeduplicator): Indeks powtórzeń, zbierający raport pominiętych rozdziałów
+        
+    Yields:
+        tuple: (tytuł_rozdzialu, tekst_rozdzialu)
+    """
+    if filename.endswith(".fb2"):
+        yield from extract_text_from_fb2(input_path, detect_encoding(input_path), duplicates)
+    elif filename.endswith(".epub"):
+        yield from extract_text_from_epub(input_path, duplicates)
+    else:
+        raise ValueError("Format pliku musi być .fb2 lub .epub")
+
+def extract_metadata(input_path: str, filename: str) -> dict:
+    """Wyodrębnia metadane z pliku EPUB lub FB2.
+    
+    Args:
+        input_path (str): Ścieżka do pliku
+        filename (str): Oryginalna nazwa pliku
+        
+    Returns:
+        dict: Metadane z tytułem i autorem
+    """
+    if filename.endswith(".fb2"):
+        return extract_metadata_from_fb2(input_path, detect_encoding(input_path), filename)
+    return extract_metadata_from_epub(input_path, filename)
+
+def extract_covers(job):
+    """Wyodrębnia okładkę książki i zapisuje jej miniatury w katalogu zadania.
+    
+    Args:
+        job: Zadanie z magazynu zadań
+    """
+    filename = job.state['filename']
+    encoding = detect_encoding(job.input_path) if filename.endswith(".fb2") else None
+    image_data = covers.extract_cover(job.input_path, filename, encoding)
+    if image_data is None:
+        logger.info(f"Książka {filename} nie zawiera okładki")
+        job.save_covers({})
+        return
+    job.save_covers(covers.make_thumbnails(image_data, job.dir))
+
+class ChapterWork:
+    """Rozdział przekazywany między etapami potoku przetwarzania zadania."""
+
+    __slots__ = ("index", "title", "text", "chunks", "pending")
+
+    def __init__(self, index: int, title: str, text: str):
+        self.index = index
+        self.title = title
+        self.text = text
+        # None - rozdział gotowy w punkcie kontrolnym, pusty lub pominięty (nie wymaga syntezy)
+        self.chunks = None
+        self.pending = []
+
+def process_job(job, stats: metrics.RequestStats, run_id: str):
+    """Przetwarza zadanie od ostatniego zapisanego punktu kontrolnego aż do gotowego archiwum ZIP.
+    
+    Etapy (wyodrębnianie, normalizacja, przekazanie do syntezy, kodowanie, pakowanie) działają
+    w osobnych wątkach połączonych ograniczonymi kolejkami: model syntezuje fragmenty kolejnego
+    rozdziału, gdy poprzedni jest kodowany do MP3 i zapisywany w archiwum. Gotowe fragmenty WAV
+    i zakodowane rozdziały MP3 są zapisywane na dysku, więc po awarii lub restarcie praca jest
+    kontynuowana od ostatniego ukończonego fragmentu.
+    
+    Args:
+        job: Zadanie z magazynu zadań
+        stats (metrics.RequestStats): Statystyki żądania
+        run_id (str): Identyfikator zadania w harmonogramie syntezy
+    """
+    book_pipeline = pipeline.Pipeline(f"job-{job.job_id[:8]}")
+
+    def extract_chapters():
+        if job.has_chapters():
+            chapters = job.load_chapters()
+            metrics.record_cache("parsed_book", True)
+            logger.info(f"Wczytano {len(chapters)} rozdziałów z punktu kontrolnego zadania {job.job_id}")
+            for chapter_idx, (chapter_title, chapter_text) in enumerate(chapters):
+                yield ChapterWork(chapter_idx, chapter_title, chapter_text)
+        else:
+            metrics.record_cache("parsed_book", False)
+            job.set_status(jobs.STATUS_PARSING)
+            filename = job.state['filename']
+            chapters = []
+            parse_elapsed = 0.0
+            duplicates = dedup.ChapterDeduplicator()
+            parser = iter_book_chapters(job.input_path, filename, duplicates)
+            while True:
+                # Czas oczekiwania na miejsce w kolejce nie jest wliczany do parsowania
+                start = time.perf_counter()
+                chapter = next(parser, None)
+                parse_elapsed += time.perf_counter() - start
+                if chapter is None:
+                    break
+                chapters.append(chapter)
+                yield ChapterWork(len(chapters) - 1, *chapter)
+            start = time.perf_counter()
+            metadata = extract_metadata(job.input_path, filename)
+            stats.add_stage("parse", parse_elapsed + time.perf_counter() - start)
+            if duplicates.dropped:
+                logger.info(f"Pominięto {len(duplicates.dropped)} powtórzonych rozdziałów zadania {job.job_id}")
+            job.save_chapters(chapters, metadata, duplicates.dropped)
+        if not job.has_covers():
+            with stats.stage("cover"):
+                extract_covers(job)
+
+    def normalize(work: ChapterWork) -> ChapterWork:
+        if job.encoded_chapter(work.index) is not None or job.is_skipped(work.index):
+            metrics.record_cache("chapter", True)
+            logger.info(f"Rozdział {work.index + 1} gotowy w punkcie kontrolnym, pomijanie")
+            return work
+        metrics.record_cache("chapter", False)
+
+        logger.info(f"Przetwarzanie rozdziału {work.index + 1}: {work.title}")
+        with stats.stage("clean_text"):
+            chapter_text = clean_text(work.text)
+        if not chapter_text:
+            logger.info(f"Rozdział {work.index + 1} jest pusty, pomijanie.")
+            job.skip_chapter(work.index)
+            return work
+        
+        with stats.stage("split"):
+            work.chunks = [re.sub(r'\s+', ' ', re.sub(r'ISBN-+', '', chunk)).strip() for chunk in split_text(chapter_text)]
+        logger.info(f"Rozdział {work.index + 1} podzielony na {len(work.chunks)} fragmentów")
+        return work
+
+    def submit_synthesis(work: ChapterWork) -> ChapterWork:
+        if work.chunks is None:
+            return work
+        if job.status != jobs.STATUS_SYNTHESIZING:
+            job.set_status(jobs.STATUS_SYNTHESIZING)
+        # Wszystkie brakujące fragmenty rozdziału trafiają do harmonogramu, który przeplata je z innymi zadaniami
+        for chunk_idx, chunk in enumerate(work.chunks):
+            if job.chunk_done(work.index, chunk_idx):
+                metrics.record_cache("chunk", True)
+                work.pending.append((chunk_idx, chunk, None, None))
+                continue
+            metrics.record_cache("chunk", False)
+            temp_wav = f"{job.chunk_path(work.index, chunk_idx)}.{uuid.uuid4().hex}.tmp"
+            work.pending.append((chunk_idx, chunk, temp_wav, scheduler.submit(run_id, chunk, temp_wav)))
+        return work
+
+    def encode(work: ChapterWork) -> ChapterWork:
+        if work.chunks is None:
+            return work
+        chapter_idx = work.index
+        failed_chunks = 0
+        postprocess_elapsed = 0.0
+        # Fragmenty są łączone strumieniowo zaraz po syntezie: skracanie ciszy, normalizacja głośności i kodowanie MP3
+        segment_paths = [f"{job.chapter_audio_path(chapter_idx)}.tmp"]
+        segment_stats = []
+        processor = StreamingPostProcessor(segment_paths[0], bitrate="192k")
+        index = TimestampIndex()
+        remaining_chars = sum(len(chunk) for chunk in work.chunks)
+        encoded_chars = 0
+        try:
+            for chunk_idx, chunk, temp_wav, future in work.pending:
+                if future is not None:
+                    logger.info(f"Syntezowanie fragmentu {chunk_idx+1}/{len(work.chunks)} dla rozdziału {chapter_idx + 1}")
+                    book_pipeline.wait(future, "encode")
+                    try:
+                        synthesis_elapsed = future.result()
+                        stats.add_stage("synthesis", synthesis_elapsed)
+                        stats.add_chunk(synthesis_elapsed, wav_duration(temp_wav))
+                        job.commit_chunk(temp_wav, chapter_idx, chunk_idx)
+                    except Exception as e:
+                        metrics.chunks_total.inc(result="error")
+                        failed_chunks += 1
+                        logger.error(f"Błąd podczas syntezowania fragmentu {chunk_idx+1}: {str(e)}")
+                       
+                        if failed_chunks < len(work.chunks) // 2:  
+                            continue
+                        else:
+                            raise Exception(f"Zbyt wiele nieudanych fragmentów ({failed_chunks}/{len(work.chunks)}) w rozdziale {work.title}")
+                start = time.perf_counter()
+                if SEGMENT_SECONDS and processor.segment_ms >= SEGMENT_SECONDS * 1000 and encoded_chars:
+                    # Resztę rozdziału szacujemy z tempa mowy dotychczasowych fragmentów - krótka końcówka
+                    # trafia do bieżącego segmentu zamiast do osobnego pliku
+                    remaining_ms = remaining_chars * processor.position_ms / encoded_chars
+                    if remaining_ms >= SEGMENT_SECONDS * 1000 / 4:
+                        # Fragment zaczyna się od pełnego zdania, więc podział nie przecina zdania
+                        segment_paths.append(f"{job.chapter_audio_path(chapter_idx, len(segment_paths))}.tmp")
+                        segment_stats.append(processor.start_segment(segment_paths[-1]))
+                index.add(chunk, processor.add_chunk(job.chunk_path(chapter_idx, chunk_idx)))
+                encoded_chars += len(chunk)
+                remaining_chars -= len(chunk)
+                postprocess_elapsed += time.perf_counter() - start
+            stats.add_stage("postprocess", postprocess_elapsed)
+
+            if not index.texts:
+                processor.abort()
+                logger.warning(f"Nie wygenerowano audio dla rozdziału {work.title}, pomijanie")
+                job.skip_chapter(chapter_idx)
+                return work
+            with stats.stage("export"):
+                segment_stats.append(processor.close())
+        except Exception:
+            processor.abort()
+            for path in segment_paths:
+                if os.path.exists(path):
+                    os.remove(path)
+            raise
+        sanitized_title = sanitize_filename(work.title)
+        audio_stats = {key: sum(segment[key] for segment in segment_stats) for key in ('input_ms', 'output_ms', 'bytes')}
+        segments = []
+        for segment_idx, segment in enumerate(segment_stats):
+            segments.append({
+                'file': os.path.basename(job.chapter_audio_path(chapter_idx, segment_idx)),
+                'name': f"{sanitized_title}.mp3" if len(segment_stats) == 1 else f"{sanitized_title} ({segment_idx + 1:02d}).mp3",
+                'start_ms': sum(previous['output_ms'] for previous in segment_stats[:segment_idx]),
+                'duration_ms': segment['output_ms'],
+                'bytes': segment['bytes']
+            })
+        index.duration_ms = audio_stats['output_ms']
+        index.save(job.chapter_index_path(chapter_idx))
+        job.commit_chapter(chapter_idx, segment_paths, {'title': work.title, 'name': segments[0]['name'], 'index_name': f"{sanitized_title}.idx.json", 'audio': audio_stats, 'segments': segments})
+        logger.info(f"Zakodowano rozdział: {sanitized_title} ({len(segments)} plików, {audio_stats['input_ms'] / 1000:.1f} s -> {audio_stats['output_ms'] / 1000:.1f} s)")
+        return work
+
+    try:
+        book_pipeline.source("extract", extract_chapters)
+        book_pipeline.stage("normalize", normalize, PIPELINE_QUEUE_SIZES['normalize'])
+        book_pipeline.stage("synthesis", submit_synthesis, PIPELINE_QUEUE_SIZES['synthesis'])
+        book_pipeline.stage("encode", encode, PIPELINE_QUEUE_SIZES['encode'])
+
+        tmp_zip_path = f"{job.result_path}.tmp"
+        packaged = []
+        manifest = []
+        zip_elapsed = [0.0]
+        with zipfile.ZipFile(tmp_zip_path, 'w', zipfile.ZIP_DEFLATED) as zipf:
+            def package(work: ChapterWork):
+                # Rozdziały docierają w kolejności książki, więc archiwum powstaje na bieżąco
+                packaged.append(work.index)
+                entry = job.encoded_chapter(work.index)
+                if entry is None:
+                    return
+                start = time.perf_counter()
+                segments = job.chapter_segments(work.index)
+                for segment in segments:
+                    zipf.write(os.path.join(job.chapters_dir, segment['file']), segment['name'])
+                has_index = bool(entry.get('index_name')) and os.path.exists(job.chapter_index_path(work.index))
+                if has_index:
+                    zipf.write(job.chapter_index_path(work.index), entry['index_name'])
+                manifest.append({
+                    'title': entry['title'],
+                    'index_name': entry['index_name'] if has_index else None,
+                    'duration_ms': entry.get('audio', {}).get('output_ms'),
+                    'segments': [{key: segment[key] for key in ('name', 'start_ms', 'duration_ms')} for segment in segments]
+                })
+                zip_elapsed[0] += time.perf_counter() - start
+                logger.info(f"Dodano do ZIP: {entry['name']}")
+
+            book_pipeline.run("package", package, PIPELINE_QUEUE_SIZES['package'])
+            # Spis pozwala klientowi odtwarzać segmenty długiego rozdziału jako jedną całość
+            zipf.writestr(MANIFEST_NAME, json.dumps({'version': 1, 'chapters': manifest}, ensure_ascii=False))
+        stats.add_stage("zip", zip_elapsed[0])
+        os.replace(tmp_zip_path, job.result_path)
+        encoded = [job.encoded_chapter(chapter_idx) for chapter_idx in packaged]
+        audio_stats = audio_post.summarize([entry['audio'] for entry in encoded if entry and 'audio' in entry])
+        job.update(audio_stats=audio_stats)
+        logger.info(f"Oszczędności po usunięciu ciszy: {audio_stats}")
+        job.set_status(jobs.STATUS_DONE)
+    except Exception as e:
+        job.set_status(jobs.STATUS_FAILED, str(e))
+        raise
+
+def build_response(job):
+    """Tworzy odpowiedź JSON z archiwum ZIP w formacie base64 i metadanymi zadania.
+    
+    Args:
+        job: Zakończone zadanie
+        
+    Returns:
+        dict: Treść odpowiedzi
+    """
+    with open(job.result_path, 'rb') as f:
+        zip_data = base64.b64encode(f.read()).decode('utf-8')
+    return {
+        'zip_file': zip_data,
+        'job_id': job.job_id,
+        'audio_stats': job.state.get('audio_stats', {}),
+        'dropped_chapters': job.state.get('dropped_chapters', []),
+        'metadata': response_metadata(job)
+    }
+
+def response_metadata(job) -> dict:
+    """Zwraca tytuł, autora i adresy miniatur okładki zadania (również przed końcem parsowania).
+    
+    Args:
+        job: Zadanie z magazynu zadań
+        
+    Returns:
+        dict: Metadane do odpowiedzi JSON
+    """
+    filename = job.state['filename']
+    metadata = job.state.get('metadata', {})
+    # Okładki nie są osadzane w JSON - klient pobiera miniatury osobnymi żądaniami
+    cover_urls = {size_name: f"/jobs/{job.job_id}/cover/{size_name}"
+                  for size_name in covers.THUMBNAIL_SIZES if job.cover_path(size_name)}
+    return {
+        'title': metadata.get('title', filename.replace('.epub', '').replace('.fb2', '')),
+        'author': metadata.get('author', 'Nieznany'),
+        'covers': cover_urls
+    }
+
+def stream_response(job) -> dict:
+    """Tworzy odpowiedź trybu strumieniowego - bez archiwum, z adresem listy gotowych rozdziałów.
+    
+    Args:
+        job: Zadanie (w trakcie przetwarzania lub zakończone)
+        
+    Returns:
+        dict: Treść odpowiedzi
+    """
+    return {
+        'job_id': job.job_id,
+        'status': job.status,
+        'chapters_url': f"/jobs/{job.job_id}/chapters"
     }
-    return jsonify(status)
+
+def run_job_in_background(job, stats: metrics.RequestStats, run_id: str):
+    """Przetwarza zadanie przyjęte w trybie strumieniowym, gdy klient odtwarza już gotowe rozdziały."""
+    status = "error"
+    try:
+        with job.lock:
+            if job.status != jobs.STATUS_DONE or not os.path.exists(job.result_path):
+                process_job(job, stats, run_id)
+        status = "ok"
+    except Exception as e:
+        logger.error(f"Błąd podczas przetwarzania zadania {job.job_id} w tle: {str(e)}")
+    finally:
+        scheduler.close_job(run_id)
+        metrics.active_requests.dec()
+        stats.finish(status)
 
 @app.route('/upload', methods=['POST'])
 def upload_file():
     """Przetwarza przesłany plik EPUB lub FB2, generując audiobook w formacie MP3.
     
+    Ponowne przesłanie tej samej książki wznawia przerwane zadanie lub zwraca gotowy wynik.
+    Z parametrem mode=stream odpowiedź (202) wraca od razu, a rozdziały można odtwarzać przez
+    /jobs/<job_id>/chapters w miarę ich kodowania.
+    
     Returns:
         jsonify: Odpowiedź z plikiem ZIP w formacie base64 i metadanymi
     """
+    stream_mode = request.args.get('mode') == 'stream'
     start_time = time.time()
     logger.info(f"Żądanie od {request.remote_addr}")
     
@@ -414,104 +872,336 @@ def upload_file():
         logger.warning("Nieprawidłowy format pliku")
         return 'Plik musi być w formacie EPUB lub FB2', 400  
 
-    temp_dir = tempfile.mkdtemp()
+    if model_state() == tts_backend.STATE_FAILED:
+        logger.warning("Odrzucono żądanie - silnik syntezy nie został załadowany")
+        return f"Silnik syntezy niedostępny: {model_loader.error}", 503
+
+    upload_path = os.path.join(job_store.root, f".upload_{uuid.uuid4().hex}")
+    file.save(upload_path)
+    logger.info(f"Otrzymano plik: {file.filename}, rozmiar: {os.path.getsize(upload_path)} bajtów")
+    job_id = job_store.job_id_for(upload_path)
+    job = job_store.get(job_id)
+
+    if job is not None and job.status == jobs.STATUS_DONE and os.path.exists(job.result_path):
+        os.remove(upload_path)
+        metrics.record_cache("result", True)
+        logger.info(f"Zwracanie gotowego wyniku zadania {job_id}")
+        return jsonify(stream_response(job) if stream_mode else build_response(job))
+    metrics.record_cache("result", False)
+
+    run_id = str(uuid.uuid4())
     try:
-        input_path = os.path.join(temp_dir, file.filename)
-        file.save(input_path)
-        logger.info(f"Otrzymano plik: {file.filename}, rozmiar: {os.path.getsize(input_path)} bajtów")
-
-        # Wyodrębnianie metadanych
-        metadata = {}
-        if file.filename.endswith(".fb2"):
-            encoding = detect_encoding(input_path)
-            chapters = extract_text_from_fb2(input_path, encoding)
-            metadata = extract_metadata_from_fb2(input_path, encoding, file.filename)
-        elif file.filename.endswith(".epub"):
-            chapters = extract_text_from_epub(input_path)
-            metadata = extract_metadata_from_epub(input_path, file.filename)
-        else:
-            raise ValueError("Format pliku musi być .fb2 lub .epub")  
+        scheduler.open_job(run_id, request.remote_addr)
+    except AdmissionError as e:
+        os.remove(upload_path)
+        logger.warning(f"Odrzucono żądanie od {request.remote_addr}: {str(e)}")
+        return f"Serwer jest przeciążony: {str(e)}", 429, {'Retry-After': str(e.retry_after)}
 
-        zip_path = os.path.join(temp_dir, f"chapters_{uuid.uuid4()}.zip")
-        with zipfile.ZipFile(zip_path, 'w', zipfile.ZIP_DEFLATED) as zipf:
-            for chapter_idx, (chapter_title, chapter_text) in enumerate(chapters):
-                logger.info(f"Przetwarzanie rozdziału {chapter_idx + 1}/{len(chapters)}: {chapter_title}")
-                chapter_text = clean_text(chapter_text)
-                if not chapter_text:
-                    logger.info(f"Rozdział {chapter_idx + 1} jest pusty, pomijanie.")
-                    continue
-                
-                text_chunks = split_text(chapter_text)
-                logger.info(f"Rozdział {chapter_idx + 1} podzielony na {len(text_chunks)} fragmentów")
-                
-                temp_files = []
-                failed_chunks = 0
-                
-                for chunk_idx, chunk in enumerate(text_chunks):
-                    temp_wav = os.path.join(temp_dir, f"temp_{chapter_idx}_{chunk_idx}_{uuid.uuid4()}.wav")
-                    logger.info(f"Syntezowanie fragmentu {chunk_idx+1}/{len(text_chunks)} dla rozdziału {chapter_idx + 1}")
-                    try:
-                        chunk = re.sub(r'ISBN-+', '', chunk)
-                        chunk = re.sub(r'\s+', ' ', chunk).strip()
-                        tts.tts_to_file(
-                            text=chunk, 
-                            file_path=temp_wav, 
-                            speaker="Ana Florence", 
-                            language="pl"
-                        )
-                        temp_files.append(temp_wav)
-                    except Exception as e:
-                        failed_chunks += 1
-                        logger.error(f"Błąd podczas syntezowania fragmentu {chunk_idx+1}: {str(e)}")
-                       
-                        if failed_chunks < len(text_chunks) // 2:  
-                            continue
-                        else:
-                            raise Exception(f"Zbyt wiele nieudanych fragmentów ({failed_chunks}/{len(text_chunks)}) w rozdziale {chapter_title}")
-                
-                if temp_files:
-                    sanitized_title = sanitize_filename(chapter_title)
-                    chapter_output_path = os.path.join(temp_dir, f"{sanitized_title}.mp3")
-                    combined = AudioSegment.empty()
-                    for temp_file in temp_files:
-                        with open(temp_file, 'rb') as f:
-                            audio = AudioSegment.from_wav(f)
-                            combined += audio
-                        os.remove(temp_file)
-                    
-                    combined.export(chapter_output_path, format="mp3", bitrate="192k")
-                    zipf.write(chapter_output_path, f"{sanitized_title}.mp3")
-                    combined = None
-                    logger.info(f"Dodano do ZIP: {sanitized_title}.mp3")
-                else:
-                    logger.warning(f"Nie wygenerowano audio dla rozdziału {chapter_title}, pomijanie")
+    stats = metrics.RequestStats(job_id, file.filename)
+    metrics.active_requests.inc()
+    if stream_mode:
+        try:
+            job = job_store.get_or_create(job_id, sanitize_filename(file.filename), upload_path)
+        except Exception as e:
+            scheduler.close_job(run_id)
+            metrics.active_requests.dec()
+            stats.finish("error")
+            logger.error(f"Błąd podczas zakładania zadania: {str(e)}")
+            return f"Błąd serwera: {str(e)}", 500
+        threading.Thread(target=run_job_in_background, args=(job, stats, run_id),
+                         name=f"job-{job_id[:8]}", daemon=True).start()
+        logger.info(f"Zadanie {job_id} przetwarzane w tle (tryb strumieniowy)")
+        return jsonify(stream_response(job)), 202
 
-        # Odczyt pliku ZIP w formacie base64
-        with open(zip_path, 'rb') as f:
-            zip_data = base64.b64encode(f.read()).decode('utf-8')
+    status = "error"
+    try:
+        if job is not None:
+            logger.info(f"Wznawianie zadania {job_id} (status: {job.status})")
+        job = job_store.get_or_create(job_id, sanitize_filename(file.filename), upload_path)
+
+        # Ta sama książka może być właśnie przetwarzana przez inne żądanie lub wątek wznawiania
+        with job.lock:
+            if job.status != jobs.STATUS_DONE or not os.path.exists(job.result_path):
+                process_job(job, stats, run_id)
 
-        # Tworzenie odpowiedzi JSON
-        response = {
-            'zip_file': zip_data,
-            'metadata': {
-                'title': metadata.get('title', file.filename.replace('.epub', '').replace('.fb2', '')),
-                'author': metadata.get('author', 'Nieznany')
-            }
-        }
+        with stats.stage("base64"):
+            response = build_response(job)
 
         logger.info(f"Plik przetworzony w {time.time() - start_time:.2f} sekund")
+        status = "ok"
         return jsonify(response)
 
     except Exception as e:
         logger.error(f"Błąd podczas przetwarzania pliku: {str(e)}")
         return f"Błąd serwera: {str(e)}", 500  
     finally:
-        logger.info("Czyszczenie tymczasowych plików")
+        scheduler.close_job(run_id)
+        metrics.active_requests.dec()
+        stats.finish(status)
+        logger.info(f"Czasy etapów: {stats.as_dict()['stages']}")
+
+@app.route('/jobs/<job_id>', methods=['GET'])
+def job_status(job_id: str):
+    """Zwraca postęp zadania konwersji.
+    
+    Args:
+        job_id (str): Identyfikator zadania
+        
+    Returns:
+        jsonify: Status i postęp zadania
+    """
+    job = job_store.get(job_id)
+    if job is None:
+        return 'Nie znaleziono zadania', 404
+    return jsonify(job.progress())
+
+@app.route('/jobs/<job_id>/cover/<size_name>', methods=['GET'])
+def job_cover(job_id: str, size_name: str):
+    """Zwraca miniaturę okładki w formacie JPEG.
+    
+    Args:
+        job_id (str): Identyfikator zadania
+        size_name (str): Rozmiar miniatury ("grid" lub "player")
+        
+    Returns:
+        Response: Plik JPEG lub 404, jeśli książka nie ma okładki
+    """
+    job = job_store.get(job_id)
+    if job is None or size_name not in covers.THUMBNAIL_SIZES:
+        return 'Nie znaleziono okładki', 404
+    path = job.cover_path(size_name)
+    if path is None:
+        return 'Nie znaleziono okładki', 404
+    # Identyfikator zadania wynika z treści książki, więc okładka pod danym adresem się nie zmienia
+    return send_file(path, mimetype='image/jpeg', conditional=True, max_age=30 * 24 * 3600)
+
+@app.route('/jobs/<job_id>/chapters', methods=['GET'])
+def job_chapters(job_id: str):
+    """Zwraca listę rozdziałów gotowych do odtwarzania strumieniowego.
+    
+    Lista rośnie w trakcie przetwarzania; klient odpytuje ją, dopóki status nie jest "done".
+    Długie rozdziały mają kilka segmentów z pozycją początku na osi czasu całego rozdziału.
+    
+    Args:
+        job_id (str): Identyfikator zadania
+        
+    Returns:
+        jsonify: Status zadania, metadane i rozdziały z adresami audio oraz indeksu
+    """
+    job = job_store.get(job_id)
+    if job is None:
+        return 'Nie znaleziono zadania', 404
+    # Odtwarzanie strumieniowe przedłuża przechowywanie zadania na serwerze
+    job.touch()
+    chapters = []
+    for key, entry in sorted(list(job.state.get('encoded', {}).items()), key=lambda item: int(item[0])):
+        chapter_idx = int(key)
+        segments = job.chapter_segments(chapter_idx)
+        if not segments:
+            continue
+        chapters.append({
+            'index': chapter_idx,
+            'title': entry['title'],
+            'duration_ms': entry.get('audio', {}).get('output_ms'),
+            'index_name': entry.get('index_name'),
+            'index_url': f"/jobs/{job_id}/chapters/{chapter_idx}/index" if os.path.exists(job.chapter_index_path(chapter_idx)) else None,
+            'segments': [{
+                'segment': segment_idx,
+                'name': segment['name'],
+                'bytes': segment['bytes'],
+                'start_ms': segment['start_ms'],
+                'duration_ms': segment['duration_ms'],
+                'audio_url': f"/jobs/{job_id}/chapters/{chapter_idx}/audio/{segment_idx}"
+            } for segment_idx, segment in enumerate(segments)]
+        })
+    return jsonify({
+        'job_id': job_id,
+        'status': job.status,
+        'error': job.state.get('error'),
+        'chapters_total': job.state.get('chapters_total'),
+        'dropped_chapters': job.state.get('dropped_chapters', []),
+        'metadata': response_metadata(job),
+        'chapters': chapters
+    })
+
+@app.route('/jobs/<job_id>/chapters/<int:chapter_idx>/audio', methods=['GET'])
+@app.route('/jobs/<job_id>/chapters/<int:chapter_idx>/audio/<int:segment>', methods=['GET'])
+def job_chapter_audio(job_id: str, chapter_idx: int, segment: int = 0):
+    """Zwraca plik MP3 segmentu rozdziału z obsługą nagłówka Range (odpowiedzi 206) do odtwarzania strumieniowego.
+    
+    Args:
+        job_id (str): Identyfikator zadania
+        chapter_idx (int): Indeks rozdziału
+        segment (int): Numer segmentu (0 dla rozdziałów bez podziału)
+        
+    Returns:
+        Response: Plik MP3 lub jego zakres
+    """
+    job = job_store.get(job_id)
+    if job is None or not 0 <= segment < len(job.chapter_segments(chapter_idx)):
+        return 'Nie znaleziono rozdziału', 404
+    # Zakodowany rozdział nie zmienia się po zapisaniu, więc zakresy z pamięci podręcznej klienta pozostają ważne
+    return send_file(job.chapter_audio_path(chapter_idx, segment), mimetype='audio/mpeg', conditional=True,
+                     max_age=30 * 24 * 3600)
+
+@app.route('/jobs/<job_id>/chapters/<int:chapter_idx>/index', methods=['GET'])
+def job_chapter_index(job_id: str, chapter_idx: int):
+    """Zwraca indeks znaczników czasu rozdziału (ten sam plik .idx.json, który trafia do archiwum ZIP).
+    
+    Args:
+        job_id (str): Identyfikator zadania
+        chapter_idx (int): Indeks rozdziału
+        
+    Returns:
+        Response: Plik JSON lub 404
+    """
+    job = job_store.get(job_id)
+    if job is None or job.encoded_chapter(chapter_idx) is None or not os.path.exists(job.chapter_index_path(chapter_idx)):
+        return 'Nie znaleziono indeksu', 404
+    return send_file(job.chapter_index_path(chapter_idx), mimetype='application/json', conditional=True,
+                     max_age=30 * 24 * 3600)
+
+def cluster_request_allowed() -> bool:
+    """Sprawdza, czy serwer działa jako koordynator i czy żądanie węzła ma poprawny token.
+
+    Bez skonfigurowanego NEUROVOICE_CLUSTER_TOKEN przyjmowane są tylko żądania z adresu pętli
+    zwrotnej - inaczej każdy w sieci mógłby dzierżawić fragmenty i podsyłać własne nagrania.
+    """
+    if coordinator is None:
+        return False
+    if not CLUSTER_TOKEN:
+        try:
+            return ipaddress.ip_address(request.remote_addr or '').is_loopback
+        except ValueError:
+            return False
+    token = request.headers.get('X-Cluster-Token', '')
+    return hmac.compare_digest(token.encode('utf-8'), CLUSTER_TOKEN.encode('utf-8'))
+
+def parse_compute_seconds(value: str) -> float:
+    """Odczytuje czas syntezy zgłoszony przez węzeł w nagłówku X-Compute-Seconds.
+
+    Wartość trafia do średniej, z której liczony jest Retry-After, więc błędna, ujemna lub
+    nieskończona liczba jest zastępowana zerem, a zbyt duża ograniczana do maksymalnej dzierżawy.
+
+    Args:
+        value (str): Wartość nagłówka
+
+    Returns:
+        float: Czas syntezy w sekundach z przedziału [0, cluster.MAX_LEASE_SECONDS]
+    """
+    try:
+        seconds = float(value)
+    except (TypeError, ValueError):
+        return 0.0
+    if not math.isfinite(seconds):
+        return 0.0
+    return min(max(seconds, 0.0), cluster.MAX_LEASE_SECONDS)
+
+@app.route('/cluster/workers', methods=['GET', 'POST'])
+def cluster_workers():
+    """Rejestruje węzeł roboczy (POST) lub zwraca stan zarejestrowanych węzłów (GET).
+    
+    Returns:
+        jsonify: Parametry dzierżaw dla nowego węzła lub lista węzłów
+    """
+    if not cluster_request_allowed():
+        return 'Serwer nie działa jako koordynator', 404
+    if request.method == 'GET':
+        return jsonify(coordinator.status())
+    body = request.get_json(silent=True) or {}
+    return jsonify(coordinator.register(body.get('name', 'worker'), request.remote_addr))
+
+@app.route('/cluster/workers/<worker_id>', methods=['DELETE'])
+def cluster_release(worker_id: str):
+    """Wyrejestrowuje węzeł, zwracając jego niedokończone fragmenty do kolejki."""
+    if not cluster_request_allowed():
+        return 'Serwer nie działa jako koordynator', 404
+    coordinator.release(worker_id)
+    return '', 204
+
+@app.route('/cluster/workers/<worker_id>/heartbeat', methods=['POST'])
+def cluster_heartbeat(worker_id: str):
+    """Przedłuża dzierżawy węzła; 404 oznacza, że węzeł musi zarejestrować się ponownie."""
+    if not cluster_request_allowed() or not coordinator.heartbeat(worker_id):
+        return 'Nieznany węzeł', 404
+    return '', 204
+
+@app.route('/cluster/workers/<worker_id>/lease', methods=['POST'])
+def cluster_lease(worker_id: str):
+    """Wydziela węzłowi partię fragmentów do syntezy (long polling).
+    
+    Args:
+        worker_id (str): Identyfikator węzła
+        
+    Returns:
+        jsonify: Dzierżawa z fragmentami, 204 gdy brak pracy lub 404 dla nieznanego węzła
+    """
+    if not cluster_request_allowed():
+        return 'Nieznany węzeł', 404
+    max_chunks = request.args.get('max', default=coordinator.batch_size, type=int)
+    wait_seconds = min(30.0, request.args.get('wait', default=20.0, type=float))
+    lease = coordinator.lease(worker_id, max_chunks, wait_seconds)
+    if lease is None:
+        return 'Nieznany węzeł', 404
+    if not lease:
+        return '', 204
+    return jsonify(lease)
+
+@app.route('/cluster/leases/<lease_id>/chunks/<chunk_id>', methods=['PUT'])
+def cluster_chunk_result(lease_id: str, chunk_id: str):
+    """Przyjmuje plik WAV zsyntezowanego fragmentu; 409 oznacza, że dzierżawa już wygasła."""
+    if not cluster_request_allowed():
+        return 'Nieznany węzeł', 404
+    worker_id = request.headers.get('X-Worker-Id', '')
+    compute_seconds = parse_compute_seconds(request.headers.get('X-Compute-Seconds', '0'))
+    if not coordinator.complete(worker_id, lease_id, chunk_id, request.get_data(), compute_seconds):
+        return 'Dzierżawa wygasła', 409
+    return '', 204
+
+@app.route('/cluster/leases/<lease_id>/chunks/<chunk_id>/error', methods=['POST'])
+def cluster_chunk_error(lease_id: str, chunk_id: str):
+    """Przyjmuje zgłoszenie błędu syntezy fragmentu od węzła."""
+    if not cluster_request_allowed():
+        return 'Nieznany węzeł', 404
+    body = request.get_json(silent=True) or {}
+    coordinator.fail(request.headers.get('X-Worker-Id', ''), lease_id, chunk_id, body.get('error', ''))
+    return '', 204
+
+def cleanup_expired_jobs():
+    """Okresowo usuwa zadania starsze niż okres przechowywania - serwer działający tygodniami nie zapełnia dysku."""
+    while True:
+        time.sleep(JOB_CLEANUP_INTERVAL)
+        try:
+            job_store.cleanup()
+        except Exception as e:
+            logger.error(f"Błąd podczas usuwania przeterminowanych zadań: {str(e)}")
+
+def resume_unfinished_jobs():
+    """Wznawia w tle zadania przerwane przez restart lub awarię serwera."""
+    job_store.cleanup()
+    for job in job_store.unfinished():
+        run_id = str(uuid.uuid4())
+        stats = metrics.RequestStats(job.job_id, job.state.get('filename', ''))
+        scheduler.open_job(run_id, "resume", enforce_limits=False)
+        status = "error"
         try:
-            shutil.rmtree(temp_dir, ignore_errors=True)
-            logger.info(f"Usunięto katalog tymczasowy {temp_dir}")
+            logger.info(f"Wznawianie przerwanego zadania {job.job_id}")
+            with job.lock:
+                if job.status != jobs.STATUS_DONE:
+                    process_job(job, stats, run_id)
+            status = "ok"
         except Exception as e:
-            logger.warning(f"Błąd podczas czyszczenia plików tymczasowych: {str(e)}")
+            logger.error(f"Nie udało się wznowić zadania {job.job_id}: {str(e)}")
+        finally:
+            scheduler.close_job(run_id)
+            stats.finish(status)
+
+job_store = jobs.JobStore(
+    os.environ.get("NEUROVOICE_JOBS_DIR", os.path.join(os.path.dirname(os.path.abspath(__file__)), "jobs")),
+    retention_seconds=float(os.environ.get("NEUROVOICE_JOB_RETENTION_HOURS", "24")) * 3600
+)
+threading.Thread(target=resume_unfinished_jobs, name="job-resume", daemon=True).start()
+threading.Thread(target=cleanup_expired_jobs, name="job-cleanup", daemon=True).start()
 
 if __name__ == '__main__':
-    app.run(host='0.0.0.0', port=5000, debug=False)
\ No newline at end of file
+    app.run(host='0.0.0.0', port=int(os.environ.get("NEUROVOICE_PORT", "5000")), debug=False, threaded=True)
\ No newline at end of file
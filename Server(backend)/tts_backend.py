@@ -0,0 +1,314 @@
+import array
+import hashlib
+import itertools
+import logging
+import math
+import os
+import re
+import sys
+import threading
+import time
+import wave
+import metrics
+
+logger = logging.getLogger(__name__)
+
+XTTS_MODEL_NAME = "tts_models/multilingual/multi-dataset/xtts_v2"
+XTTS_SPEAKER = "Ana Florence"
+XTTS_LANGUAGE = "pl"
+
+# Lokalna migawka załadowanego modelu: kolejne starty pomijają pobieranie, parsowanie konfiguracji
+# i przemapowanie punktu kontrolnego, a wagi są mapowane z pliku zamiast kopiowane do pamięci
+SNAPSHOT_DIR = os.environ.get("NEUROVOICE_MODEL_SNAPSHOT_DIR",
+                              os.path.join(os.path.dirname(os.path.abspath(__file__)), "model_snapshots"))
+SNAPSHOT_ENABLED = os.environ.get("NEUROVOICE_MODEL_SNAPSHOT", "1") == "1"
+
+STATE_STARTING = "starting"
+STATE_READY = "ready"
+STATE_FAILED = "failed"
+
+model_ready = metrics.registry.gauge(
+    "neurovoice_model_ready",
+    "1, gdy silnik syntezy jest załadowany i przyjmuje fragmenty")
+time_to_ready = metrics.registry.gauge(
+    "neurovoice_time_to_ready_seconds",
+    "Czas od startu serwera do gotowości silnika syntezy")
+model_load_seconds = metrics.registry.gauge(
+    "neurovoice_model_load_seconds",
+    "Czas ładowania modelu według źródła (snapshot - migawka lokalna, model - pełne ładowanie)",
+    ("source",))
+
+class TTSBackend:
+    """Interfejs silnika syntezy - jeden fragment tekstu na jeden plik WAV (16-bit PCM)."""
+
+    name = "base"
+
+    def synthesize(self, text: str, output_path: str):
+        """Syntezuje fragment do pliku WAV.
+
+        Args:
+            text (str): Tekst fragmentu
+            output_path (str): Ścieżka docelowa pliku WAV
+        """
+        raise NotImplementedError
+
+    def info(self) -> dict:
+        """Zwraca opis silnika do /health."""
+        return {'backend': self.name}
+
+class XTTSBackend(TTSBackend):
+    """Model Coqui XTTS v2 z opcjonalnym trybem przyspieszenia CPU."""
+
+    name = "xtts"
+
+    def __init__(self):
+        import torch
+        import cpu_perf
+        self._cpu_perf = cpu_perf
+        self.device = "cuda" if torch.cuda.is_available() else "cpu"
+        logger.info(f"Używane urządzenie: {self.device}")
+        if cpu_perf.is_enabled(self.device):
+            cpu_perf.configure_threads()
+        start = time.perf_counter()
+        self.tts, self.loaded_from = self._load_model(torch)
+        self.load_seconds = time.perf_counter() - start
+        model_load_seconds.set(self.load_seconds, source=self.loaded_from)
+        logger.info(f"Model załadowany ({self.loaded_from}) w {self.load_seconds:.2f} s")
+        self.tts = self.tts.to(self.device)
+        # Kwantyzacja i kompilacja zawsze na modelu z migawki - migawka przechowuje wagi float32
+        self.inference_mode = cpu_perf.apply(self.tts, self.device)
+        logger.info(f"Tryb inferencji: {self.inference_mode}")
+
+    @staticmethod
+    def snapshot_path(torch) -> str:
+        """Zwraca ścieżkę migawki dla bieżących wersji TTS i torch.
+
+        Migawka to zserializowany obiekt TTS, więc zmiana wersji bibliotek ją unieważnia.
+        """
+        import TTS
+        version = f"tts{getattr(TTS, '__version__', 'unknown')}-torch{torch.__version__}"
+        return os.path.join(SNAPSHOT_DIR, f"xtts_v2-{re.sub(r'[^A-Za-z0-9.]+', '_', version)}.pt")
+
+    def _load_model(self, torch):
+        """Ładuje model z migawki lub, gdy jej brak, przez TTS i zapisuje migawkę na kolejne starty.
+
+        Returns:
+            tuple: Obiekt TTS na CPU i źródło ("snapshot" lub "model")
+        """
+        path = self.snapshot_path(torch) if SNAPSHOT_ENABLED else None
+        if path is not None and os.path.exists(path):
+            try:
+                try:
+                    # mmap=True (torch >= 2.1): wagi są stronicowane z pliku na żądanie
+                    tts = torch.load(path, map_location="cpu", mmap=True, weights_only=False)
+                except TypeError:
+                    tts = torch.load(path, map_location="cpu")
+                return tts, "snapshot"
+            except Exception as e:
+                logger.warning(f"Nie udało się wczytać migawki {path}, pełne ładowanie modelu: {str(e)}")
+                os.remove(path)
+
+        from TTS.api import TTS
+        tts = TTS(model_name=XTTS_MODEL_NAME, progress_bar=False)
+        if path is not None:
+            self._save_snapshot(torch, tts, path)
+        return tts, "model"
+
+    @staticmethod
+    def _save_snapshot(torch, tts, path: str):
+        start = time.perf_counter()
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        tmp_path = f"{path}.tmp"
+        try:
+            torch.save(tts, tmp_path)
+            os.replace(tmp_path, path)
+            logger.info(f"Zapisano migawkę modelu {path} w {time.perf_counter() - start:.2f} s")
+        except Exception as e:
+            # Brak migawki spowalnia tylko kolejne starty
+            logger.warning(f"Nie udało się zapisać migawki modelu: {str(e)}")
+            if os.path.exists(tmp_path):
+                os.remove(tmp_path)
+
+    def synthesize(self, text: str, output_path: str):
+        with self._cpu_perf.inference_context(self.inference_mode):
+            self.tts.tts_to_file(
+                text=text,
+                file_path=output_path,
+                speaker=XTTS_SPEAKER,
+                language=XTTS_LANGUAGE
+            )
+
+    def info(self) -> dict:
+        return {
+            'backend': self.name,
+            'tts_model': self.tts.model_name,
+            'device': self.device,
+            'cuda_available': self.device == "cuda",
+            'inference_mode': self.inference_mode,
+            'loaded_from': self.loaded_from,
+            'load_seconds': round(self.load_seconds, 2)
+        }
+
+class StubBackend(TTSBackend):
+    """Deterministyczny zamiennik modelu do testów - bez modelu, GPU i zależności od torch.
+
+    Ten sam tekst zawsze daje identyczny plik WAV: ton o wysokości zależnej od skrótu tekstu,
+    z przerwą co "słowo", o długości proporcjonalnej do liczby znaków. Czas syntezy można
+    skalibrować do prawdziwego modelu: stały narzut na fragment plus długość audio podzielona
+    przez współczynnik czasu rzeczywistego (neurovoice_realtime_factor z /metrics). Opcjonalnie
+    co n-te wywołanie kończy się błędem, aby testy klastra sprawdzały ponawianie fragmentów.
+    """
+
+    name = "stub"
+
+    def __init__(self, sample_rate: int = 24000, chars_per_second: float = 15.0, latency_seconds: float = 0.0,
+                 realtime_factor: float = 0.0, fail_every: int = 0):
+        """Tworzy silnik testowy.
+
+        Args:
+            sample_rate (int): Częstotliwość próbkowania wyjścia (XTTS: 24 kHz)
+            chars_per_second (float): Tempo mowy - długość audio to len(text) / chars_per_second
+            latency_seconds (float): Stały czas syntezy jednego fragmentu
+            realtime_factor (float): Sekundy audio na sekundę obliczeń; 0 - bez czasu zależnego od długości
+            fail_every (int): Co które wywołanie synthesize zgłasza błąd; 0 - nigdy
+        """
+        self.sample_rate = sample_rate
+        self.chars_per_second = chars_per_second
+        self.latency_seconds = latency_seconds
+        self.realtime_factor = realtime_factor
+        self.fail_every = fail_every
+        self._calls = itertools.count(1)
+
+    def audio_seconds(self, text: str) -> float:
+        return max(0.2, len(text) / self.chars_per_second)
+
+    def compute_seconds(self, text: str) -> float:
+        """Zwraca czas, przez jaki silnik symuluje obliczenia dla danego fragmentu."""
+        if self.realtime_factor > 0:
+            return self.latency_seconds + self.audio_seconds(text) / self.realtime_factor
+        return self.latency_seconds
+
+    def synthesize(self, text: str, output_path: str):
+        delay = self.compute_seconds(text)
+        if delay > 0:
+            time.sleep(delay)
+        call = next(self._calls)
+        if self.fail_every > 0 and call % self.fail_every == 0:
+            raise RuntimeError(f"Symulowany błąd syntezy (wywołanie {call})")
+        seed = int.from_bytes(hashlib.sha256(text.encode("utf-8")).digest()[:4], "big")
+        frequency = 140.0 + seed % 120
+        total = int(self.audio_seconds(text) * self.sample_rate)
+        # Krótka cisza po każdym "słowie", aby postprocessing miał co skracać
+        word = array.array('h', (int(8000 * math.sin(2 * math.pi * frequency * i / self.sample_rate))
+                                 for i in range(int(0.35 * self.sample_rate))))
+        word.extend([0] * int(0.08 * self.sample_rate))
+        samples = (word * (total // len(word) + 1))[:total]
+        if sys.byteorder != "little":
+            samples.byteswap()
+        with wave.open(output_path, 'wb') as wav:
+            wav.setnchannels(1)
+            wav.setsampwidth(2)
+            wav.setframerate(self.sample_rate)
+            wav.writeframes(samples.tobytes())
+
+    def info(self) -> dict:
+        return {
+            'backend': self.name,
+            'sample_rate': self.sample_rate,
+            'chars_per_second': self.chars_per_second,
+            'latency_seconds': self.latency_seconds,
+            'realtime_factor': self.realtime_factor,
+            'fail_every': self.fail_every
+        }
+
+def create_backend(name: str = None) -> TTSBackend:
+    """Tworzy silnik syntezy wybrany parametrem lub zmienną NEUROVOICE_TTS_BACKEND.
+
+    Args:
+        name (str): "xtts" (domyślnie) lub "stub"
+
+    Returns:
+        TTSBackend: Gotowy do użycia silnik
+    """
+    name = name or os.environ.get("NEUROVOICE_TTS_BACKEND", "xtts")
+    if name == "xtts":
+        return XTTSBackend()
+    if name == "stub":
+        return StubBackend(
+            chars_per_second=float(os.environ.get("NEUROVOICE_STUB_CHARS_PER_SECOND", "15")),
+            latency_seconds=float(os.environ.get("NEUROVOICE_STUB_LATENCY_SECONDS", "0")),
+            realtime_factor=float(os.environ.get("NEUROVOICE_STUB_REALTIME_FACTOR", "0")),
+            fail_every=int(os.environ.get("NEUROVOICE_STUB_FAIL_EVERY", "0"))
+        )
+    raise ValueError(f"Nieznany silnik syntezy: {name}")
+
+class BackendLoader:
+    """Ładuje silnik syntezy w wątku tła, aby serwer HTTP przyjmował połączenia od razu po starcie.
+
+    Do czasu załadowania stan to "starting"; wywołania wait() blokują się do końca ładowania.
+    """
+
+    def __init__(self, factory=create_backend):
+        """Tworzy ładowarkę.
+
+        Args:
+            factory: Funkcja bez argumentów zwracająca gotowy TTSBackend
+        """
+        self._factory = factory
+        self._loaded = threading.Event()
+        self._started_at = time.perf_counter()
+        self.state = STATE_STARTING
+        self.backend = None
+        self.error = None
+        self.ready_seconds = None
+        model_ready.set(0)
+
+    def start(self):
+        threading.Thread(target=self._load, name="model-loader", daemon=True).start()
+
+    def _load(self):
+        try:
+            backend = self._factory()
+            self.backend = backend
+            self.ready_seconds = time.perf_counter() - self._started_at
+            self.state = STATE_READY
+            model_ready.set(1)
+            time_to_ready.set(self.ready_seconds)
+            logger.info(f"Silnik syntezy gotowy po {self.ready_seconds:.2f} s od startu")
+        except Exception as e:
+            self.error = str(e)
+            self.state = STATE_FAILED
+            logger.exception(f"Nie udało się załadować silnika syntezy: {str(e)}")
+        finally:
+            self._loaded.set()
+
+    def wait(self, timeout: float = None) -> TTSBackend:
+        """Zwraca silnik, czekając na zakończenie ładowania.
+
+        Args:
+            timeout (float): Maksymalny czas oczekiwania w sekundach (None - bez limitu)
+
+        Returns:
+            TTSBackend: Załadowany silnik
+
+        Raises:
+            RuntimeError: Gdy ładowanie się nie powiodło lub nie zakończyło w podanym czasie
+        """
+        if not self._loaded.wait(timeout):
+            raise RuntimeError("Silnik syntezy jest jeszcze ładowany")
+        if self.backend is None:
+            raise RuntimeError(f"Silnik syntezy niedostępny: {self.error}")
+        return self.backend
+
+    def info(self) -> dict:
+        """Zwraca stan ładowania i opis silnika do /health."""
+        info = {'model_state': self.state}
+        if self.state == STATE_READY:
+            info['time_to_ready_seconds'] = round(self.ready_seconds, 2)
+            info.update(self.backend.info())
+        else:
+            info['backend'] = None
+            info['loading_seconds'] = round(time.perf_counter() - self._started_at, 2)
+        if self.error is not None:
+            info['error'] = self.error
+        return info
@@ -0,0 +1,192 @@
+"""Węzeł roboczy syntezy dla serwera uruchomionego z NEUROVOICE_ROLE=coordinator.
+
+Węzeł rejestruje się u koordynatora, pobiera partie fragmentów (dzierżawy), syntezuje je
+lokalnym silnikiem i odsyła pliki WAV. Heartbeat wysyłany w osobnym wątku utrzymuje
+dzierżawy; po awarii węzła koordynator przekazuje jego fragmenty innym węzłom.
+
+Przykład na jednym komputerze (silnik testowy, bez modelu):
+
+    NEUROVOICE_ROLE=coordinator python server.py
+    python worker.py --coordinator http://127.0.0.1:5000 --backend stub --name w1
+    python worker.py --coordinator http://127.0.0.1:5000 --backend stub --name w2
+
+Węzły z innych komputerów koordynator przyjmuje tylko wtedy, gdy oba procesy mają ten sam
+NEUROVOICE_CLUSTER_TOKEN (w węźle także opcja --token).
+"""
+import argparse
+import json
+import logging
+import os
+import signal
+import socket
+import tempfile
+import threading
+import time
+import urllib.error
+import urllib.request
+import tts_backend
+
+logger = logging.getLogger(__name__)
+
+class CoordinatorClient:
+    """Minimalny klient HTTP API koordynatora (tylko biblioteka standardowa)."""
+
+    def __init__(self, base_url: str, token: str = ""):
+        self.base_url = base_url.rstrip("/")
+        self.token = token
+
+    def request(self, method: str, path: str, body: bytes = None, headers: dict = None, timeout: float = 60):
+        """Wysyła żądanie do koordynatora.
+
+        Returns:
+            tuple: (kod HTTP, treść odpowiedzi)
+        """
+        req = urllib.request.Request(f"{self.base_url}{path}", data=body, method=method, headers=headers or {})
+        if self.token:
+            req.add_header("X-Cluster-Token", self.token)
+        try:
+            with urllib.request.urlopen(req, timeout=timeout) as response:
+                return response.status, response.read()
+        except urllib.error.HTTPError as e:
+            return e.code, e.read()
+
+    def request_json(self, method: str, path: str, data: dict = None, timeout: float = 60, headers: dict = None):
+        body = json.dumps(data or {}).encode("utf-8")
+        status, payload = self.request(method, path, body, dict(headers or {}, **{"Content-Type": "application/json"}),
+                                       timeout)
+        return status, (json.loads(payload) if payload and status == 200 else None)
+
+class Worker:
+    """Pętla węzła: rejestracja, dzierżawa, synteza, odesłanie wyniku."""
+
+    def __init__(self, client: CoordinatorClient, backend: tts_backend.TTSBackend, name: str, batch_size: int = None):
+        self.client = client
+        self.backend = backend
+        self.name = name
+        self.batch_size = batch_size
+        self.worker_id = None
+        self.heartbeat_seconds = 10.0
+        self._registered = threading.Event()
+        self._stopping = threading.Event()
+        self._tmp_dir = tempfile.mkdtemp(prefix="neurovoice-worker-")
+
+    def register(self):
+        """Rejestruje węzeł, ponawiając próbę, dopóki koordynator nie odpowie."""
+        delay = 1.0
+        while not self._stopping.is_set():
+            try:
+                status, data = self.client.request_json("POST", "/cluster/workers", {"name": self.name})
+                if status == 200:
+                    self.worker_id = data['worker_id']
+                    self.heartbeat_seconds = data['heartbeat_seconds']
+                    self.batch_size = self.batch_size or data['batch_size']
+                    self._registered.set()
+                    logger.info(f"Zarejestrowano jako {self.worker_id} (partie po {self.batch_size})")
+                    return
+                logger.error(f"Rejestracja odrzucona: HTTP {status}")
+            except OSError as e:
+                logger.warning(f"Koordynator niedostępny: {str(e)}")
+            self._stopping.wait(delay)
+            delay = min(30.0, delay * 2)
+
+    def _heartbeat_loop(self):
+        while not self._stopping.is_set():
+            self._stopping.wait(self.heartbeat_seconds)
+            if self._stopping.is_set() or not self._registered.is_set():
+                continue
+            try:
+                status, _ = self.client.request("POST", f"/cluster/workers/{self.worker_id}/heartbeat", b"", timeout=10)
+                if status == 404:
+                    logger.warning("Koordynator nie zna węzła - ponowna rejestracja")
+                    self._registered.clear()
+            except OSError as e:
+                logger.warning(f"Heartbeat nieudany: {str(e)}")
+
+    def process_lease(self, lease: dict):
+        """Syntezuje fragmenty dzierżawy i odsyła wyniki po kolei."""
+        lease_id = lease['lease_id']
+        headers = {"X-Worker-Id": self.worker_id}
+        for chunk in lease['chunks']:
+            if self._stopping.is_set():
+                return
+            output_path = os.path.join(self._tmp_dir, f"{chunk['chunk_id']}.wav")
+            path = f"/cluster/leases/{lease_id}/chunks/{chunk['chunk_id']}"
+            start = time.perf_counter()
+            try:
+                self.backend.synthesize(chunk['text'], output_path)
+                elapsed = time.perf_counter() - start
+                with open(output_path, 'rb') as f:
+                    wav_data = f.read()
+            except Exception as e:
+                logger.error(f"Błąd syntezy fragmentu {chunk['chunk_id']}: {str(e)}")
+                try:
+                    self.client.request_json("POST", f"{path}/error", {"error": str(e)}, headers=headers)
+                except OSError as report_error:
+                    # Fragment wróci do kolejki po wygaśnięciu dzierżawy
+                    logger.warning(f"Zgłoszenie błędu nieudane: {str(report_error)}")
+                continue
+            finally:
+                if os.path.exists(output_path):
+                    os.remove(output_path)
+            try:
+                status, _ = self.client.request("PUT", path, wav_data, dict(headers, **{
+                    "Content-Type": "audio/wav", "X-Compute-Seconds": f"{elapsed:.4f}"}))
+            except OSError as e:
+                logger.warning(f"Odesłanie fragmentu {chunk['chunk_id']} nieudane: {str(e)}")
+                continue
+            if status == 409:
+                # Dzierżawa wygasła - pozostałe fragmenty są już u innego węzła
+                logger.warning(f"Dzierżawa {lease_id} wygasła, porzucanie pozostałych fragmentów")
+                return
+            logger.info(f"Fragment {chunk['chunk_id']} gotowy w {elapsed:.2f} s")
+
+    def run(self):
+        threading.Thread(target=self._heartbeat_loop, name="worker-heartbeat", daemon=True).start()
+        while not self._stopping.is_set():
+            if not self._registered.is_set():
+                self.register()
+                continue
+            try:
+                status, lease = self.client.request_json(
+                    "POST", f"/cluster/workers/{self.worker_id}/lease?max={self.batch_size}&wait=20", timeout=40)
+            except OSError as e:
+                logger.warning(f"Pobieranie pracy nieudane: {str(e)}")
+                self._stopping.wait(2.0)
+                continue
+            if status == 404:
+                self._registered.clear()
+            elif status == 200:
+                self.process_lease(lease)
+            elif status != 204:
+                logger.error(f"Nieoczekiwana odpowiedź koordynatora: HTTP {status}")
+                self._stopping.wait(2.0)
+
+    def stop(self):
+        """Kończy pracę i oddaje niedokończone fragmenty koordynatorowi."""
+        self._stopping.set()
+        if self.worker_id is not None:
+            try:
+                self.client.request("DELETE", f"/cluster/workers/{self.worker_id}", timeout=5)
+            except OSError:
+                pass
+
+def main():
+    parser = argparse.ArgumentParser(description="Węzeł roboczy syntezy Neurovoice")
+    parser.add_argument("--coordinator", default=os.environ.get("NEUROVOICE_COORDINATOR_URL", "http://127.0.0.1:5000"))
+    parser.add_argument("--backend", default=None, help="xtts lub stub (domyślnie NEUROVOICE_TTS_BACKEND)")
+    parser.add_argument("--name", default=f"{socket.gethostname()}-{os.getpid()}")
+    parser.add_argument("--batch", type=int, default=None, help="Liczba fragmentów w dzierżawie")
+    parser.add_argument("--token", default=os.environ.get("NEUROVOICE_CLUSTER_TOKEN", ""))
+    args = parser.parse_args()
+    logging.basicConfig(level=logging.INFO, format=f"%(asctime)s [{args.name}] %(message)s")
+
+    worker = Worker(CoordinatorClient(args.coordinator, args.token), tts_backend.create_backend(args.backend),
+                    args.name, args.batch)
+    signal.signal(signal.SIGTERM, lambda *_: worker.stop())
+    try:
+        worker.run()
+    except KeyboardInterrupt:
+        worker.stop()
+
+if __name__ == '__main__':
+    main()
@@ -14,6 +14,15 @@ android {
         versionName = "1.0"
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+
+        // Naruszenia StrictMode w buildzie debug (i testach instrumentalnych) kończą się awarią;
+        // -Pneurovoice.strictModeDeath=false zostawia tylko log i mignięcie ekranu
+        val strictModeDeath = (project.findProperty("neurovoice.strictModeDeath") as String?)?.toBoolean() ?: true
+        buildConfigField("boolean", "STRICT_MODE_DEATH", strictModeDeath.toString())
+    }
+
+    buildFeatures {
+        buildConfig = true
     }
 
     buildTypes {
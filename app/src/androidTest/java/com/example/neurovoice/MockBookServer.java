@@ -0,0 +1,194 @@
+package com.example.neurovoice;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+
+// Lokalny serwer HTTP/1.1 na ServerSocket udający POST /upload: odczytuje całe żądanie multipart
+// i odpowiada JSON-em BookResponse z syntetycznym ZIP-em zakodowanym w base64. Odpowiedź jest
+// generowana w locie, więc serwer nie zajmuje pamięci mierzonej po stronie klienta.
+final class MockBookServer implements Closeable {
+
+    private static final String TAG = "MockBookServer";
+    private static final int BLOCK_BYTES = 1024 * 1024;
+    private static final String RESPONSE_PREFIX =
+            "{\"job_id\":\"benchmark\",\"metadata\":{\"title\":\"Benchmark\",\"author\":\"Nieznany\"},\"zip_file\":\"";
+    private static final String RESPONSE_SUFFIX = "\"}";
+
+    // Dane losowe jak MP3 - nie kompresują się, a blok powtarza się do żądanego rozmiaru
+    private final byte[] block = new byte[BLOCK_BYTES];
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+    private volatile long zipBytes;
+    private volatile Runnable onRequestReceived;
+    private volatile long receivedBytes;
+
+    MockBookServer() throws IOException {
+        new Random(42).nextBytes(block);
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        thread = new Thread(this::serve, "mock-book-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    // onRequestReceived jest wywoływane w wątku serwera po odczytaniu całego żądania, przed odpowiedzią
+    void respondWith(long zipBytes, Runnable onRequestReceived) {
+        this.zipBytes = zipBytes;
+        this.onRequestReceived = onRequestReceived;
+    }
+
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    static long encodedLength(long zipBytes) {
+        return RESPONSE_PREFIX.length() + (zipBytes + 2) / 3 * 4 + RESPONSE_SUFFIX.length();
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                InputStream inputStream = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                // Połączenie keep-alive obsługuje kolejne żądania, dopóki klient go nie zamknie
+                while (handle(inputStream, outputStream)) {
+                    outputStream.flush();
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.w(TAG, "Connection failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean handle(InputStream inputStream, OutputStream outputStream) throws IOException {
+        String requestLine = readLine(inputStream);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return false;
+        }
+        long contentLength = 0;
+        boolean chunked = false;
+        String header;
+        while ((header = readLine(inputStream)) != null && !header.isEmpty()) {
+            String lower = header.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("content-length:")) {
+                contentLength = Long.parseLong(header.substring(15).trim());
+            } else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+                chunked = true;
+            }
+        }
+        receivedBytes = chunked ? skipChunked(inputStream) : skipFully(inputStream, contentLength);
+
+        if (!requestLine.startsWith("POST /upload")) {
+            writeHead(outputStream, "404 Not Found", 0);
+            return true;
+        }
+        Runnable hook = onRequestReceived;
+        if (hook != null) {
+            hook.run();
+        }
+        long size = zipBytes;
+        writeHead(outputStream, "200 OK", encodedLength(size));
+        outputStream.write(RESPONSE_PREFIX.getBytes(StandardCharsets.US_ASCII));
+        // Koder zamykany jest tylko po to, aby dopisał końcówkę base64 - strumień gniazda zostaje otwarty
+        try (OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                out.write(data, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        })) {
+            long remaining = size;
+            while (remaining > 0) {
+                int length = (int) Math.min(BLOCK_BYTES, remaining);
+                encoder.write(block, 0, length);
+                remaining -= length;
+            }
+        }
+        outputStream.write(RESPONSE_SUFFIX.getBytes(StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    private static void writeHead(OutputStream outputStream, String status, long contentLength) throws IOException {
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + contentLength + "\r\n"
+                + "\r\n";
+        outputStream.write(head.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Zwraca null na końcu strumienia
+    private static String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            if (b == '\n') {
+                String text = line.toString("ISO-8859-1");
+                return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString("ISO-8859-1") : null;
+    }
+
+    private static long skipFully(InputStream inputStream, long count) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = count;
+        while (remaining > 0) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Request body ended after " + (count - remaining) + " of " + count + " bytes");
+            }
+            remaining -= read;
+        }
+        return count;
+    }
+
+    private static long skipChunked(InputStream inputStream) throws IOException {
+        long total = 0;
+        while (true) {
+            String sizeLine = readLine(inputStream);
+            if (sizeLine == null) {
+                throw new IOException("Chunked request body ended unexpectedly");
+            }
+            long size = Long.parseLong(sizeLine.split(";")[0].trim(), 16);
+            if (size == 0) {
+                // Pomijamy ewentualne nagłówki końcowe
+                String trailer;
+                while ((trailer = readLine(inputStream)) != null && !trailer.isEmpty()) {
+                }
+                return total;
+            }
+            total += skipFully(inputStream, size);
+            readLine(inputStream);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,418 @@
+package com.example.neurovoice;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+// Pomiar ścieżki przesyłania książki po stronie klienta na tym samym kodzie co MainActivity:
+// kopia z content:// (FileUtil.getPath), wysyłanie multipart i odpowiedź z parsowaniem Gson
+// (Retrofit), dekodowanie base64 i zapis ZIP. Serwerem jest lokalny MockBookServer, więc wynik
+// nie zależy od syntezy ani od sieci. Dla każdego etapu raportuje MB/s, czas, szczyt sterty i GC.
+//
+// Nie uruchamia się przy zwykłym connectedAndroidTest, tylko z argumentem transferBenchmark:
+//   ./gradlew connectedDebugAndroidTest \
+//     -Pandroid.testInstrumentationRunnerArguments.class=com.example.neurovoice.TransferBenchmark \
+//     -Pandroid.testInstrumentationRunnerArguments.transferBenchmark=true \
+//     -Pandroid.testInstrumentationRunnerArguments.sizesMb=50,200,500,2048 \
+//     -Pandroid.testInstrumentationRunnerArguments.bookMb=20
+// Raport trafia do logcat (tag TransferBenchmark), wyników instrumentacji oraz pliku
+// transfer_benchmark.json w getExternalFilesDir(null) aplikacji.
+//
+// Test kończy się błędem, gdy etap jest wolniejszy albo zajmuje więcej sterty niż progi z
+// assets/transfer_benchmark_limits.json, albo gdy OutOfMemoryError wystąpi przy rozmiarze, który
+// powinien się mieścić. Pojedyncze progi nadpisują argumenty, np. minMbPerSecond.upload=40,
+// maxHeapMb.decode=64, maxHeapPerZipMb.response=3, oomFreeUpToMb=500; checkLimits=false wyłącza
+// sprawdzanie i zostawia sam pomiar.
+@RunWith(AndroidJUnit4.class)
+public class TransferBenchmark {
+
+    private static final String TAG = "TransferBenchmark";
+    private static final String DEFAULT_SIZES_MB = "50,200,500,2048";
+    private static final int DEFAULT_BOOK_MB = 20;
+    private static final long MB = 1024L * 1024L;
+    // Zapas miejsca na dysku ponad ZIP i kopię książki
+    private static final long FREE_SPACE_MARGIN = 200 * MB;
+    private static final String LIMITS_ASSET = "transfer_benchmark_limits.json";
+
+    private Context context;
+    private Bundle arguments;
+    private MockBookServer server;
+    private MainActivity.ApiService api;
+    private HeapSampler heapSampler;
+    private Uri bookUri;
+    private File workDir;
+    private Limits limits;
+    private final List<String> violations = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        arguments = InstrumentationRegistry.getArguments();
+        assumeTrue("Run with -e transferBenchmark true", Boolean.parseBoolean(arguments.getString("transferBenchmark")));
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        server = new MockBookServer();
+        api = MainActivity.createApiService(server.url());
+        limits = loadLimits();
+        heapSampler = new HeapSampler();
+        workDir = new File(context.getFilesDir(), "transfer_benchmark");
+        workDir.mkdirs();
+        bookUri = createSyntheticBook(context.getContentResolver(), parseInt(arguments.getString("bookMb"), DEFAULT_BOOK_MB) * MB);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (heapSampler != null) {
+            heapSampler.stop();
+        }
+        if (server != null) {
+            server.close();
+        }
+        if (bookUri != null) {
+            context.getContentResolver().delete(bookUri, null, null);
+        }
+        if (workDir != null) {
+            File[] files = workDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            workDir.delete();
+        }
+    }
+
+    @Test
+    public void transferPath() throws Exception {
+        String sizes = arguments.getString("sizesMb", DEFAULT_SIZES_MB);
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (String size : sizes.split(",")) {
+            runs.add(runSize(Long.parseLong(size.trim()) * MB));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("device", android.os.Build.MANUFACTURER + " " + android.os.Build.MODEL);
+        report.put("sdk", android.os.Build.VERSION.SDK_INT);
+        report.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        report.put("runs", runs);
+        report.put("violations", violations);
+        String json = new GsonBuilder().setPrettyPrinting().create().toJson(report);
+        File reportFile = new File(context.getExternalFilesDir(null), "transfer_benchmark.json");
+        try (Writer writer = new FileWriter(reportFile)) {
+            writer.write(json);
+        }
+        Log.i(TAG, "Report written to " + reportFile.getAbsolutePath());
+        if (Boolean.parseBoolean(arguments.getString("checkLimits", "true"))) {
+            assertTrue("Transfer path regressed:\n" + String.join("\n", violations), violations.isEmpty());
+        }
+    }
+
+    private Map<String, Object> runSize(long zipBytes) throws Exception {
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("zipBytes", zipBytes);
+        List<Stage> stages = new ArrayList<>();
+        run.put("stages", stages);
+        long needed = zipBytes + FREE_SPACE_MARGIN;
+        if (workDir.getUsableSpace() < needed) {
+            run.put("skipped", "not enough free space: " + workDir.getUsableSpace() / MB + " MB");
+            Log.w(TAG, "Skipping " + zipBytes / MB + " MB: not enough free space");
+            return run;
+        }
+
+        File bookFile = null;
+        File zipFile = new File(workDir, "benchmark.zip");
+        try {
+            Stage importStage = begin(stages, "import", zipBytes);
+            String path = FileUtil.getPath(context, bookUri, null);
+            assertNotNull("FileUtil.getPath failed", path);
+            bookFile = new File(path);
+            importStage.end(bookFile.length());
+
+            // Koniec wysyłania wyznacza serwer po odczytaniu całego żądania; reszta wywołania to
+            // pobranie odpowiedzi i parsowanie jej przez Gson do BookResponse
+            Stage[] current = {begin(stages, "upload", zipBytes)};
+            server.respondWith(zipBytes, () -> {
+                current[0].end(server.getReceivedBytes());
+                current[0] = begin(stages, "response", zipBytes);
+            });
+            Response<BookResponse> response = api.uploadFile(MainActivity.createFilePart(bookFile)).execute();
+            current[0].end(MockBookServer.encodedLength(zipBytes));
+            assertEquals(200, response.code());
+            BookResponse body = response.body();
+            assertNotNull(body);
+
+            Stage decodeStage = begin(stages, "decode", zipBytes);
+            byte[] decoded = MainActivity.decodeZip(body.zipFile, zipFile.getName());
+            decodeStage.end(decoded.length);
+            assertEquals(zipBytes, decoded.length);
+
+            Stage writeStage = begin(stages, "write", zipBytes);
+            MainActivity.writeZip(decoded, zipFile, null);
+            writeStage.end(zipFile.length());
+            assertEquals(zipBytes, zipFile.length());
+        } catch (OutOfMemoryError e) {
+            // Granica ścieżki przesyłania to wynik pomiaru, a nie błąd testu
+            Stage failed = stages.get(stages.size() - 1);
+            failed.fail("OutOfMemoryError");
+            run.put("failedStage", failed.name);
+            if (zipBytes <= limits.oomFreeUpToMb * MB) {
+                violations.add(String.format(Locale.US, "%s zip %d MB: OutOfMemoryError (limit %.0f MB)",
+                        failed.name, zipBytes / MB, limits.oomFreeUpToMb));
+            }
+        } finally {
+            if (bookFile != null) {
+                bookFile.delete();
+            }
+            zipFile.delete();
+        }
+        for (Stage stage : stages) {
+            if (stage.error == null) {
+                checkStage(stage);
+            }
+        }
+        return run;
+    }
+
+    private void checkStage(Stage stage) {
+        StageLimit limit = limits.stages.get(stage.name);
+        if (limit == null) {
+            return;
+        }
+        if (limit.minMbPerSecond != null && stage.mbPerSecond < limit.minMbPerSecond) {
+            violations.add(String.format(Locale.US, "%s zip %d MB: %.1f MB/s < %.1f MB/s",
+                    stage.name, stage.zipBytes / MB, stage.mbPerSecond, limit.minMbPerSecond));
+        }
+        double maxHeapMb = (limit.maxHeapMb != null ? limit.maxHeapMb : 0)
+                + (limit.maxHeapPerZipMb != null ? limit.maxHeapPerZipMb : 0) * stage.zipBytes / MB;
+        if ((limit.maxHeapMb != null || limit.maxHeapPerZipMb != null) && stage.heapGrowthBytes > maxHeapMb * MB) {
+            violations.add(String.format(Locale.US, "%s zip %d MB: heap +%d MB > %.0f MB",
+                    stage.name, stage.zipBytes / MB, stage.heapGrowthBytes / MB, maxHeapMb));
+        }
+    }
+
+    // Progi z pliku w assets aplikacji testowej, nadpisane argumentami instrumentacji
+    private Limits loadLimits() throws IOException {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        Limits loaded;
+        try (Reader reader = new InputStreamReader(testContext.getAssets().open(LIMITS_ASSET), StandardCharsets.UTF_8)) {
+            loaded = new Gson().fromJson(reader, Limits.class);
+        }
+        if (loaded.stages == null) {
+            loaded.stages = new HashMap<>();
+        }
+        for (String key : arguments.keySet()) {
+            int dot = key.indexOf('.');
+            String kind = dot > 0 ? key.substring(0, dot) : "";
+            if (!kind.equals("minMbPerSecond") && !kind.equals("maxHeapMb") && !kind.equals("maxHeapPerZipMb")) {
+                continue;
+            }
+            StageLimit limit = loaded.stages.computeIfAbsent(key.substring(dot + 1), name -> new StageLimit());
+            double value = Double.parseDouble(arguments.getString(key).trim());
+            if (kind.equals("minMbPerSecond")) {
+                limit.minMbPerSecond = value;
+            } else if (kind.equals("maxHeapMb")) {
+                limit.maxHeapMb = value;
+            } else {
+                limit.maxHeapPerZipMb = value;
+            }
+        }
+        String oomFreeUpToMb = arguments.getString("oomFreeUpToMb");
+        if (oomFreeUpToMb != null) {
+            loaded.oomFreeUpToMb = Double.parseDouble(oomFreeUpToMb.trim());
+        }
+        return loaded;
+    }
+
+    private Stage begin(List<Stage> stages, String name, long zipBytes) {
+        Stage stage = new Stage(name, zipBytes);
+        synchronized (stages) {
+            stages.add(stage);
+        }
+        stage.begin(heapSampler);
+        return stage;
+    }
+
+    private Uri createSyntheticBook(ContentResolver resolver, long bytes) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, "transfer_benchmark.epub");
+        values.put(MediaStore.MediaColumns.MIME_TYPE, "application/epub+zip");
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        Uri uri = resolver.insert(MediaStore.Downloads.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) {
+            throw new IOException("Cannot create synthetic book in Downloads");
+        }
+        byte[] block = new byte[(int) MB];
+        new Random(7).nextBytes(block);
+        try (OutputStream outputStream = resolver.openOutputStream(uri)) {
+            if (outputStream == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            for (long written = 0; written < bytes; written += block.length) {
+                outputStream.write(block, 0, (int) Math.min(block.length, bytes - written));
+            }
+        }
+        values.clear();
+        values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        resolver.update(uri, values, null, null);
+        return uri;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        return value != null ? Integer.parseInt(value.trim()) : fallback;
+    }
+
+    private static long gcStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        return value != null ? Long.parseLong(value) : -1;
+    }
+
+    static final class Limits {
+        double oomFreeUpToMb;
+        Map<String, StageLimit> stages;
+    }
+
+    // Brak pola oznacza brak progu dla danej wielkości
+    static final class StageLimit {
+        Double minMbPerSecond;
+        Double maxHeapMb;
+        Double maxHeapPerZipMb;
+    }
+
+    // Pomiar jednego etapu; pola trafiają wprost do raportu JSON
+    static final class Stage {
+        final String name;
+        final long zipBytes;
+        long bytes;
+        long wallMs;
+        double mbPerSecond;
+        long peakHeapBytes;
+        long heapGrowthBytes;
+        long gcCount;
+        long blockingGcCount;
+        long gcTimeMs;
+        String error;
+        private transient long startNanos;
+        private transient long startHeapBytes;
+        private transient long startGcCount;
+        private transient long startBlockingGcCount;
+        private transient long startGcTimeMs;
+        private transient HeapSampler sampler;
+
+        Stage(String name, long zipBytes) {
+            this.name = name;
+            this.zipBytes = zipBytes;
+        }
+
+        void begin(HeapSampler sampler) {
+            this.sampler = sampler;
+            startHeapBytes = sampler.reset();
+            startGcCount = gcStat("art.gc.gc-count");
+            startBlockingGcCount = gcStat("art.gc.blocking-gc-count");
+            startGcTimeMs = gcStat("art.gc.gc-time");
+            startNanos = SystemClock.elapsedRealtimeNanos();
+        }
+
+        void end(long bytes) {
+            wallMs = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1_000_000L;
+            this.bytes = bytes;
+            mbPerSecond = wallMs > 0 ? (bytes / (double) MB) / (wallMs / 1000.0) : 0;
+            peakHeapBytes = sampler.peak();
+            heapGrowthBytes = Math.max(0, peakHeapBytes - startHeapBytes);
+            gcCount = gcStat("art.gc.gc-count") - startGcCount;
+            blockingGcCount = gcStat("art.gc.blocking-gc-count") - startBlockingGcCount;
+            gcTimeMs = gcStat("art.gc.gc-time") - startGcTimeMs;
+            report(String.format(Locale.US, "%-8s zip %5d MB  %8.1f MB/s  %7d ms  peak heap %5d MB  GC %d (blocking %d, %d ms)",
+                    name, zipBytes / MB, mbPerSecond, wallMs, peakHeapBytes / MB, gcCount, blockingGcCount, gcTimeMs));
+        }
+
+        void fail(String error) {
+            end(0);
+            this.error = error;
+            report(name + " zip " + zipBytes / MB + " MB failed: " + error);
+        }
+
+        private void report(String line) {
+            Log.i(TAG, line);
+            Bundle status = new Bundle();
+            status.putString("stream", line + "\n");
+            InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+        }
+    }
+
+    // Próbkuje zajętość sterty co kilka ms - szczyt wewnątrz Gson czy Base64.decode nie jest
+    // widoczny z zewnątrz wywołania
+    static final class HeapSampler {
+        private static final long INTERVAL_MS = 5;
+        private final AtomicLong peak = new AtomicLong();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        HeapSampler() {
+            thread = new Thread(() -> {
+                while (running) {
+                    sample();
+                    SystemClock.sleep(INTERVAL_MS);
+                }
+            }, "heap-sampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void sample() {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            peak.accumulateAndGet(used, Math::max);
+        }
+
+        // Szczyt liczony od stanu sterty na początku etapu; zwraca ten stan
+        long reset() {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            peak.set(used);
+            return used;
+        }
+
+        long peak() {
+            sample();
+            return peak.get();
+        }
+
+        void stop() {
+            running = false;
+        }
+    }
+}
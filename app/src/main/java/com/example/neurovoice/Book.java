@@ -5,6 +5,8 @@ public class Book {
     private String title;
     private String author;
     private String coverPath;
+    private String playerCoverPath;
+    private String streamJobId;
 
     public Book(String fileName, String title, String author, String coverPath) {
         this.fileName = fileName;
@@ -40,4 +42,26 @@ public class Book {
     public void setCoverPath(String coverPath) {
         this.coverPath = coverPath;
     }
-}
\ No newline at end of file
+
+    // Większa miniatura z serwera dla odtwarzacza; null oznacza użycie coverPath
+    public String getPlayerCoverPath() {
+        return playerCoverPath != null ? playerCoverPath : coverPath;
+    }
+
+    public void setPlayerCoverPath(String playerCoverPath) {
+        this.playerCoverPath = playerCoverPath;
+    }
+
+    // Identyfikator zadania na serwerze dla książki odtwarzanej strumieniowo; null dla pobranego ZIP
+    public String getStreamJobId() {
+        return streamJobId;
+    }
+
+    public void setStreamJobId(String streamJobId) {
+        this.streamJobId = streamJobId;
+    }
+
+    public boolean isStreamed() {
+        return streamJobId != null;
+    }
+}
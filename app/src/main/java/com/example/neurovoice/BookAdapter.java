@@ -7,15 +7,21 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
-import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder> {
 
+    private static final int COVER_WIDTH_DP = 217;
+    private static final int COVER_HEIGHT_DP = 148;
+
     private List<Book> books;
     private OnBookClickListener clickListener;
     private Context context;
+    private final int coverWidth;
+    private final int coverHeight;
 
     public interface OnBookClickListener {
         void onBookClick(Book book, int position);
@@ -24,8 +30,11 @@ public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder
 
     public BookAdapter(Context context, List<Book> books, OnBookClickListener listener) {
         this.context = context;
-        this.books = books;
+        this.books = new ArrayList<>(books);
         this.clickListener = listener;
+        float density = context.getResources().getDisplayMetrics().density;
+        this.coverWidth = (int) (COVER_WIDTH_DP * density);
+        this.coverHeight = (int) (COVER_HEIGHT_DP * density);
     }
 
     @NonNull
@@ -41,15 +50,12 @@ public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder
         holder.title.setText(book.getTitle());
         holder.author.setText(book.getAuthor());
 
-        if (book.getCoverPath() != null && new File(book.getCoverPath()).exists()) {
-            holder.cover.setImageURI(android.net.Uri.fromFile(new File(book.getCoverPath())));
-        } else {
-            holder.cover.setImageResource(R.drawable.ic_default_cover);
-        }
+        // Okładka dekodowana w tle i zmniejszana do rozmiaru kafelka
+        CoverLoader.load(holder.cover, book.getCoverPath(), coverWidth, coverHeight);
 
-        holder.itemView.setOnClickListener(v -> clickListener.onBookClick(book, position));
+        holder.itemView.setOnClickListener(v -> clickListener.onBookClick(book, holder.getBindingAdapterPosition()));
         holder.itemView.setOnLongClickListener(v -> {
-            clickListener.onBookLongClick(book, position);
+            clickListener.onBookLongClick(book, holder.getBindingAdapterPosition());
             return true;
         });
     }
@@ -59,10 +65,41 @@ public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder
         return books.size();
     }
 
+    // Pokazuje nową listę (np. wynik wyszukiwania); przebudowywane są tylko kafelki, które się zmieniły
     public void updateBooks(List<Book> newBooks) {
-        books.clear();
-        books.addAll(newBooks);
-        notifyDataSetChanged();
+        List<Book> oldBooks = books;
+        List<Book> visible = new ArrayList<>(newBooks);
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldBooks.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return visible.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldBooks.get(oldPosition) == visible.get(newPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                // Zmiany tytułu, autora i okładki zgłasza notifyBookChanged
+                return true;
+            }
+        }, false);
+        books = visible;
+        diff.dispatchUpdatesTo(this);
+    }
+
+    public void notifyBookChanged(Book book) {
+        int position = books.indexOf(book);
+        if (position >= 0) {
+            notifyItemChanged(position);
+        }
     }
 
     static class BookViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,107 @@
+package com.example.neurovoice;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Spis archiwum ZIP (manifest.json): rozdziały i pliki MP3, z których się składają. Długie rozdziały
+// serwer dzieli na kilka plików; starsze archiwa nie mają spisu - każdy plik MP3 to osobny rozdział.
+public class BookManifest {
+    static final String ENTRY_NAME = "manifest.json";
+    private static final int VERSION = 1;
+
+    @SerializedName("version")
+    int version;
+
+    @SerializedName("chapters")
+    List<Chapter> chapters;
+
+    static class Chapter {
+        @SerializedName("title")
+        String title;
+
+        @SerializedName("index_name")
+        String indexName; // null dla rozdziałów bez indeksu zdań
+
+        @SerializedName("duration_ms")
+        Long durationMs;
+
+        @SerializedName("segments")
+        List<Segment> segments;
+    }
+
+    static class Segment {
+        @SerializedName("name")
+        String name;
+
+        // Początek segmentu na osi czasu całego rozdziału
+        @SerializedName("start_ms")
+        long startMs;
+
+        @SerializedName("duration_ms")
+        Long durationMs;
+    }
+
+    // Zwraca null, jeśli archiwum nie zawiera spisu albo spis jest niepoprawny
+    public static BookManifest load(ZipFile zipFile) throws IOException {
+        ZipEntry entry = zipFile.getEntry(ENTRY_NAME);
+        if (entry == null) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(zipFile.getInputStream(entry), StandardCharsets.UTF_8)) {
+            BookManifest manifest = new Gson().fromJson(reader, BookManifest.class);
+            if (manifest == null || manifest.chapters == null) {
+                return null;
+            }
+            for (Chapter chapter : manifest.chapters) {
+                if (chapter.segments == null || chapter.segments.isEmpty()) {
+                    return null;
+                }
+            }
+            return manifest;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    // Spis książki zapisywanej na urządzeniu z odtwarzania strumieniowego
+    public static BookManifest fromListing(ChapterListing listing) {
+        BookManifest manifest = new BookManifest();
+        manifest.version = VERSION;
+        manifest.chapters = new ArrayList<>();
+        for (ChapterListing.Chapter listed : listing.chapters) {
+            Chapter chapter = new Chapter();
+            chapter.title = listed.title;
+            chapter.indexName = listed.indexUrl != null ? listed.indexName : null;
+            chapter.durationMs = listed.durationMs;
+            chapter.segments = new ArrayList<>();
+            for (ChapterListing.Segment part : listed.segments) {
+                Segment segment = new Segment();
+                segment.name = part.name;
+                segment.startMs = part.startMs;
+                segment.durationMs = part.durationMs;
+                chapter.segments.add(segment);
+            }
+            manifest.chapters.add(chapter);
+        }
+        return manifest;
+    }
+
+    // Nie zamyka strumienia - zapis do bieżącego wpisu ZipOutputStream
+    public void write(OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        new Gson().toJson(this, writer);
+        writer.flush();
+    }
+}
@@ -4,7 +4,13 @@ import com.google.gson.annotations.SerializedName;
 
 public class BookResponse {
     @SerializedName("zip_file")
-    String zipFile; // base64-encode
+    String zipFile; // base64-encode; null w trybie strumieniowym
+
+    @SerializedName("job_id")
+    String jobId;
+
+    @SerializedName("status")
+    String status; // tylko w trybie strumieniowym
 
     @SerializedName("metadata")
     Metadata metadata;
@@ -16,7 +22,15 @@ public class BookResponse {
         @SerializedName("author")
         String author;
 
-        @SerializedName("cover")
-        String cover; // base64-encode
+        @SerializedName("covers")
+        Covers covers; // adresy miniatur okładki, pobierane osobno
+    }
+
+    static class Covers {
+        @SerializedName("grid")
+        String grid;
+
+        @SerializedName("player")
+        String player;
     }
 }
\ No newline at end of file
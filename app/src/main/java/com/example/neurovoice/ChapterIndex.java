@@ -0,0 +1,117 @@
+package com.example.neurovoice;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Indeks rozdziału z serwera: pozycja fragmentu w tekście -> początek fragmentu w audio
+public class ChapterIndex {
+
+    // Cofnięcie do poprzedniego zdania, jeśli od początku bieżącego minęło mniej niż tyle ms
+    private static final long RESTART_THRESHOLD_MS = 1500;
+
+    @SerializedName("duration_ms")
+    long durationMs;
+
+    @SerializedName("offsets")
+    int[] offsets;
+
+    @SerializedName("starts")
+    long[] starts;
+
+    @SerializedName("texts")
+    String[] texts;
+
+    private transient String foldedText;
+
+    public static String indexEntryName(String chapterEntryName) {
+        return chapterEntryName.replaceFirst("\\.mp3$", ".idx.json");
+    }
+
+    // Nazwę wpisu podaje spis archiwum, a dla archiwów bez spisu indexEntryName().
+    // Zwraca null, jeśli archiwum nie zawiera indeksu (starsze wersje serwera).
+    public static ChapterIndex load(String zipFilePath, String indexEntryName) throws IOException {
+        try (ZipFile zipFile = new ZipFile(zipFilePath)) {
+            ZipEntry entry = zipFile.getEntry(indexEntryName);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                return parse(inputStream);
+            }
+        }
+    }
+
+    // Wspólne dla archiwum ZIP i odtwarzania strumieniowego; null dla niepoprawnego indeksu
+    public static ChapterIndex parse(InputStream inputStream) throws IOException {
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            ChapterIndex index = new Gson().fromJson(reader, ChapterIndex.class);
+            if (index == null || index.starts == null || index.offsets == null || index.starts.length == 0
+                    || index.offsets.length != index.starts.length) {
+                return null;
+            }
+            return index;
+        }
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public long getStartMs(int entry) {
+        return starts[entry];
+    }
+
+    public String getText(int entry) {
+        return texts != null && entry < texts.length ? texts[entry] : "";
+    }
+
+    // Indeks fragmentu odtwarzanego w danej chwili (wyszukiwanie binarne)
+    public int entryAt(long positionMs) {
+        int found = Arrays.binarySearch(starts, positionMs);
+        if (found >= 0) {
+            return found;
+        }
+        return Math.max(0, -found - 2);
+    }
+
+    public long previousSentenceStart(long positionMs) {
+        int entry = entryAt(positionMs);
+        if (positionMs - starts[entry] > RESTART_THRESHOLD_MS || entry == 0) {
+            return starts[entry];
+        }
+        return starts[entry - 1];
+    }
+
+    // Zwraca -1, jeśli bieżący fragment jest ostatni
+    public long nextSentenceStart(long positionMs) {
+        int entry = entryAt(positionMs);
+        return entry + 1 < starts.length ? starts[entry + 1] : -1;
+    }
+
+    // Początek fragmentu zawierającego znak o danej pozycji w tekście rozdziału
+    public long positionForTextOffset(int textOffset) {
+        int found = Arrays.binarySearch(offsets, textOffset);
+        int entry = found >= 0 ? found : Math.max(0, -found - 2);
+        return starts[entry];
+    }
+
+    // Pozycja w tekście pierwszego wystąpienia frazy (bez rozróżniania wielkości liter) albo -1
+    public int findText(String query) {
+        if (query == null || query.trim().isEmpty() || texts == null) {
+            return -1;
+        }
+        if (foldedText == null) {
+            foldedText = String.join(" ", texts).toLowerCase(Locale.ROOT);
+        }
+        return foldedText.indexOf(query.trim().toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.neurovoice;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.List;
+
+// Lista rozdziałów gotowych do odtwarzania strumieniowego (/jobs/<job_id>/chapters)
+public class ChapterListing {
+    static final String STATUS_DONE = "done";
+    static final String STATUS_FAILED = "failed";
+
+    @SerializedName("job_id")
+    String jobId;
+
+    @SerializedName("status")
+    String status;
+
+    @SerializedName("error")
+    String error;
+
+    @SerializedName("chapters_total")
+    Integer chaptersTotal; // null, dopóki serwer nie skończy parsowania książki
+
+    @SerializedName("metadata")
+    BookResponse.Metadata metadata;
+
+    @SerializedName("chapters")
+    List<Chapter> chapters;
+
+    static class Chapter {
+        @SerializedName("index")
+        int index;
+
+        @SerializedName("title")
+        String title;
+
+        @SerializedName("duration_ms")
+        Long durationMs;
+
+        @SerializedName("index_name")
+        String indexName;
+
+        @SerializedName("index_url")
+        String indexUrl; // null dla rozdziałów bez indeksu zdań
+
+        // Długie rozdziały serwer dzieli na kilka plików; zwykle jest jeden segment
+        @SerializedName("segments")
+        List<Segment> segments;
+    }
+
+    static class Segment {
+        @SerializedName("segment")
+        int segment;
+
+        @SerializedName("name")
+        String name;
+
+        @SerializedName("bytes")
+        long bytes;
+
+        @SerializedName("start_ms")
+        long startMs;
+
+        @SerializedName("duration_ms")
+        Long durationMs;
+
+        @SerializedName("audio_url")
+        String audioUrl;
+    }
+
+    boolean isFinished() {
+        return STATUS_DONE.equals(status) || STATUS_FAILED.equals(status);
+    }
+}
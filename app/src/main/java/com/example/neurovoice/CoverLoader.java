@@ -0,0 +1,88 @@
+package com.example.neurovoice;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+import android.widget.ImageView;
+import java.io.File;
+
+// Wczytuje okładki w tle, zmniejszone do rozmiaru widoku, z pamięcią podręczną bitmap
+public final class CoverLoader {
+
+    private static final int CACHE_BYTES = 16 * 1024 * 1024;
+    private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+    };
+
+    private CoverLoader() {
+    }
+
+    public static void load(ImageView view, String coverPath, int targetWidth, int targetHeight) {
+        Object previous = view.getTag(R.id.cover_load_task);
+        if (previous instanceof IoExecutor.Task) {
+            ((IoExecutor.Task<?>) previous).cancel();
+        }
+        if (coverPath == null) {
+            view.setTag(R.id.cover_load_task, null);
+            view.setImageResource(R.drawable.ic_default_cover);
+            return;
+        }
+        String key = coverPath + "@" + targetWidth + "x" + targetHeight;
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            view.setTag(R.id.cover_load_task, null);
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageResource(R.drawable.ic_default_cover);
+        IoExecutor.Task<Bitmap> task = IoExecutor.covers().submit("cover " + coverPath,
+                t -> decodeSampled(coverPath, targetWidth, targetHeight),
+                new IoExecutor.Callback<Bitmap>() {
+                    @Override
+                    public void onSuccess(Bitmap bitmap) {
+                        view.setTag(R.id.cover_load_task, null);
+                        if (bitmap != null) {
+                            cache.put(key, bitmap);
+                            view.setImageBitmap(bitmap);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        view.setTag(R.id.cover_load_task, null);
+                    }
+                });
+        view.setTag(R.id.cover_load_task, task);
+    }
+
+    public static void invalidate(String coverPath) {
+        if (coverPath == null) {
+            return;
+        }
+        for (String key : cache.snapshot().keySet()) {
+            if (key.startsWith(coverPath + "@")) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    static Bitmap decodeSampled(String coverPath, int targetWidth, int targetHeight) {
+        File file = new File(coverPath);
+        if (!file.exists()) {
+            return null;
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(coverPath, bounds);
+        int sampleSize = 1;
+        while (bounds.outWidth / (sampleSize * 2) >= targetWidth && bounds.outHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFile(coverPath, options);
+    }
+}
@@ -8,27 +8,46 @@ import android.provider.OpenableColumns;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.concurrent.CancellationException;
 
 public class FileUtil {
 
     public static String getPath(Context context, Uri uri) {
+        return getPath(context, uri, null);
+    }
+
+    // Kopiuje plik do pamięci podręcznej; wywoływać z wątku roboczego (task może być null)
+    public static String getPath(Context context, Uri uri, IoExecutor.Task<?> task) {
         String filePath = null;
         if ("content".equals(uri.getScheme())) {
             try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
                 if (cursor != null && cursor.moveToFirst()) {
                     int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
                     String fileName = cursor.getString(nameIndex);
+                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                    long totalBytes = sizeIndex >= 0 && !cursor.isNull(sizeIndex) ? cursor.getLong(sizeIndex) : -1;
                     File file = new File(context.getCacheDir(), fileName);
-                    try (InputStream inputStream = context.getContentResolver().openInputStream(uri);
+                    try (PerfTracer.Section section = PerfTracer.begin("import.copy");
+                         InputStream inputStream = context.getContentResolver().openInputStream(uri);
                          FileOutputStream outputStream = new FileOutputStream(file)) {
-                        byte[] buffer = new byte[1024];
+                        section.setDetail(fileName);
+                        byte[] buffer = new byte[64 * 1024];
+                        long copied = 0;
                         int bytesRead;
                         while ((bytesRead = inputStream.read(buffer)) != -1) {
                             outputStream.write(buffer, 0, bytesRead);
+                            section.addBytes(bytesRead);
+                            copied += bytesRead;
+                            if (task != null) {
+                                task.publishProgress(copied, totalBytes);
+                            }
                         }
                         filePath = file.getAbsolutePath();
+                        section.complete();
                     }
                 }
+            } catch (CancellationException e) {
+                throw e;
             } catch (Exception e) {
                 e.printStackTrace();
             }
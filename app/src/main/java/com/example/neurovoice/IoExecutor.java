@@ -0,0 +1,215 @@
+package com.example.neurovoice;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Wspólna pula wątków dla operacji dyskowych i archiwów - nic z tego nie może działać w wątku UI
+public final class IoExecutor {
+
+    private static final String TAG = "IoExecutor";
+    private static final int MAX_THREADS = 3;
+    private static final int MAX_QUEUED_TASKS = 64;
+    private static final int COVER_THREADS = 2;
+    private static final int MAX_QUEUED_COVERS = 24;
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+    private static volatile IoExecutor instance;
+    private static volatile IoExecutor coverInstance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Work<T> {
+        T run(Task<T> task) throws Exception;
+    }
+
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        default void onError(Exception e) {
+            Log.e(TAG, "Background task failed", e);
+        }
+
+        default void onProgress(long done, long total) {
+        }
+    }
+
+    public static final class Task<T> {
+        private final String name;
+        private volatile boolean cancelled;
+        private volatile Future<?> future;
+        private long lastProgressNanos;
+        private Callback<T> callback;
+        private final IoExecutor owner;
+
+        private Task(IoExecutor owner, String name, Callback<T> callback) {
+            this.owner = owner;
+            this.name = name;
+            this.callback = callback;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Przerywa zadanie; callback nie zostanie już wywołany
+        public void cancel() {
+            cancelled = true;
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+                // Anulowane zadanie nie może zajmować miejsca w kolejce do czasu, aż wątek je zdejmie
+                if (running instanceof Runnable) {
+                    owner.executor.remove((Runnable) running);
+                }
+            }
+        }
+
+        // Odłącza callback bez przerywania pracy - np. zapis pobranej książki musi się dokończyć
+        public void detach() {
+            cancelled = true;
+        }
+
+        public void throwIfCancelled() {
+            if (cancelled || Thread.currentThread().isInterrupted()) {
+                throw new CancellationException(name + " cancelled");
+            }
+        }
+
+        // Wywoływane z wątku roboczego; postęp trafia do wątku UI najwyżej co 100 ms
+        public void publishProgress(long done, long total) {
+            throwIfCancelled();
+            long now = System.nanoTime();
+            if (done != total && now - lastProgressNanos < PROGRESS_INTERVAL_NANOS) {
+                return;
+            }
+            lastProgressNanos = now;
+            owner.mainHandler.post(() -> {
+                if (!cancelled && callback != null) {
+                    callback.onProgress(done, total);
+                }
+            });
+        }
+
+        private void deliver(Runnable runnable) {
+            deliver(runnable, null);
+        }
+
+        // Wynik, którego callback już nie odbierze (zadanie anulowane), jest zamykany tutaj
+        private void deliver(Runnable runnable, Object result) {
+            owner.mainHandler.post(() -> {
+                if (!cancelled && callback != null) {
+                    runnable.run();
+                } else {
+                    closeDiscarded(result);
+                }
+                callback = null;
+            });
+        }
+    }
+
+    private IoExecutor(String threadPrefix, int threads, int queuedTasks, RejectedExecutionHandler rejectionHandler) {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queuedTasks),
+                runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, threadPrefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, rejectionHandler);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static IoExecutor get() {
+        if (instance == null) {
+            synchronized (IoExecutor.class) {
+                if (instance == null) {
+                    instance = new IoExecutor("neurovoice-io-", MAX_THREADS, MAX_QUEUED_TASKS,
+                            new ThreadPoolExecutor.AbortPolicy());
+                }
+            }
+        }
+        return instance;
+    }
+
+    // Osobna pula dla okładek: szybkie przewijanie listy nie może zablokować pobierania i zapisu książek.
+    // Przy pełnej kolejce odrzucana jest najstarsza okładka - jej widok zwykle zniknął już z ekranu.
+    public static IoExecutor covers() {
+        if (coverInstance == null) {
+            synchronized (IoExecutor.class) {
+                if (coverInstance == null) {
+                    coverInstance = new IoExecutor("neurovoice-cover-", COVER_THREADS, MAX_QUEUED_COVERS,
+                            new ThreadPoolExecutor.DiscardOldestPolicy());
+                }
+            }
+        }
+        return coverInstance;
+    }
+
+    public <T> Task<T> submit(String name, Work<T> work, Callback<T> callback) {
+        Task<T> task = new Task<>(this, name, callback);
+        try {
+            task.future = executor.submit(() -> {
+                try {
+                    task.throwIfCancelled();
+                    T result = work.run(task);
+                    try {
+                        task.throwIfCancelled();
+                    } catch (CancellationException e) {
+                        closeDiscarded(result);
+                        throw e;
+                    }
+                    task.deliver(() -> task.callback.onSuccess(result), result);
+                } catch (CancellationException e) {
+                    Log.d(TAG, "Task cancelled: " + name);
+                } catch (Exception e) {
+                    if (task.isCancelled()) {
+                        Log.d(TAG, "Task cancelled: " + name);
+                    } else {
+                        task.deliver(() -> task.callback.onError(e));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Too many background tasks, rejected: " + name);
+            task.deliver(() -> task.callback.onError(e));
+        }
+        return task;
+    }
+
+    private static void closeDiscarded(Object result) {
+        if (result instanceof Closeable) {
+            try {
+                ((Closeable) result).close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close discarded result", e);
+            }
+        }
+    }
+
+    // Zadanie bez wyniku, np. sprzątanie plików tymczasowych
+    public void execute(String name, Runnable runnable) {
+        submit(name, task -> {
+            runnable.run();
+            return null;
+        }, result -> { });
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.neurovoice;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Indeks wyszukiwania biblioteki: prefiksy słów z tytułu i autora (bez polskich znaków) -> książki
+public class LibrarySearchIndex {
+
+    // Dłuższe prefiksy nie są indeksowane - dłuższe zapytania są dopasowywane do pełnych słów
+    private static final int MAX_PREFIX_LENGTH = 8;
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern TOKEN_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Map<String, Set<Book>> postings = new HashMap<>();
+    private final Map<Book, Entry> entries = new HashMap<>();
+    private long nextOrder = 0;
+
+    private static class Entry {
+        final long order;
+        final Set<String> tokens;
+
+        Entry(long order, Set<String> tokens) {
+            this.order = order;
+            this.tokens = tokens;
+        }
+    }
+
+    // Zamienia tekst na małe litery bez znaków diakrytycznych: "Żółć" -> "zolc"
+    public static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = text.toLowerCase(new Locale("pl", "PL"))
+                .replace('ł', 'l');
+        return COMBINING_MARKS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll("");
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATORS.split(fold(text))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Dodaje książkę albo aktualizuje jej wpis po zmianie tytułu lub autora
+    public void put(Book book) {
+        Entry previous = entries.get(book);
+        Set<String> tokens = new HashSet<>(tokenize(book.getTitle()));
+        tokens.addAll(tokenize(book.getAuthor()));
+        if (previous != null && previous.tokens.equals(tokens)) {
+            return;
+        }
+        if (previous != null) {
+            removePostings(book, previous.tokens);
+        }
+        for (String token : tokens) {
+            for (int length = 1; length <= Math.min(token.length(), MAX_PREFIX_LENGTH); length++) {
+                postings.computeIfAbsent(token.substring(0, length), key -> new HashSet<>()).add(book);
+            }
+        }
+        entries.put(book, new Entry(previous != null ? previous.order : nextOrder++, tokens));
+    }
+
+    public void remove(Book book) {
+        Entry entry = entries.remove(book);
+        if (entry != null) {
+            removePostings(book, entry.tokens);
+        }
+    }
+
+    private void removePostings(Book book, Set<String> tokens) {
+        Set<String> prefixes = new HashSet<>();
+        for (String token : tokens) {
+            for (int length = 1; length <= Math.min(token.length(), MAX_PREFIX_LENGTH); length++) {
+                prefixes.add(token.substring(0, length));
+            }
+        }
+        for (String prefix : prefixes) {
+            Set<Book> books = postings.get(prefix);
+            if (books != null) {
+                books.remove(book);
+                if (books.isEmpty()) {
+                    postings.remove(prefix);
+                }
+            }
+        }
+    }
+
+    // Książki, w których każde słowo zapytania jest początkiem któregoś słowa tytułu lub autora,
+    // w kolejności dodania do biblioteki; puste zapytanie zwraca całą bibliotekę
+    public List<Book> search(String query) {
+        List<String> queryTokens = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        List<Book> result = new ArrayList<>();
+        if (queryTokens.isEmpty()) {
+            result.addAll(entries.keySet());
+        } else {
+            // Zaczynamy od najmniej licznego prefiksu, pozostałe tylko sprawdzamy
+            Set<Book> smallest = null;
+            for (String token : queryTokens) {
+                Set<Book> books = postings.get(indexedPrefix(token));
+                if (books == null) {
+                    return result;
+                }
+                if (smallest == null || books.size() < smallest.size()) {
+                    smallest = books;
+                }
+            }
+            for (Book book : smallest) {
+                if (matchesAll(book, queryTokens)) {
+                    result.add(book);
+                }
+            }
+        }
+        Collections.sort(result, (a, b) -> Long.compare(entries.get(a).order, entries.get(b).order));
+        return result;
+    }
+
+    private static String indexedPrefix(String token) {
+        return token.length() > MAX_PREFIX_LENGTH ? token.substring(0, MAX_PREFIX_LENGTH) : token;
+    }
+
+    private boolean matchesAll(Book book, List<String> queryTokens) {
+        for (String queryToken : queryTokens) {
+            Set<Book> books = postings.get(indexedPrefix(queryToken));
+            if (books == null || !books.contains(book)) {
+                return false;
+            }
+            if (queryToken.length() > MAX_PREFIX_LENGTH && !hasTokenStartingWith(book, queryToken)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasTokenStartingWith(Book book, String prefix) {
+        for (String token : entries.get(book).tokens) {
+            if (token.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -5,8 +5,11 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Base64;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -18,40 +21,59 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.gson.Gson;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
 import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
+import retrofit2.http.GET;
 import retrofit2.http.Multipart;
 import retrofit2.http.POST;
 import retrofit2.http.Part;
+import retrofit2.http.Url;
 
 public class MainActivity extends AppCompatActivity implements BookAdapter.OnBookClickListener {
 
     private static final String TAG = "MainActivity";
     private ActivityResultLauncher<Intent> filePickerLauncher;
     private ActivityResultLauncher<Intent> coverPickerLauncher;
-    private final String SERVER_URL = "http://192.168.8.178:5000";
+    static final String SERVER_URL = "http://192.168.8.178:5000";
     private ProgressBar progressBar;
     private TextView statusText;
     private RecyclerView booksRecyclerView;
     private BookAdapter bookAdapter;
     private List<Book> books;
+    private LibrarySearchIndex searchIndex = new LibrarySearchIndex();
+    private String searchQuery = "";
     private SharedPreferences prefs;
     private static final String PREFS_NAME = "BookPrefs";
+    private static final int WRITE_CHUNK_BYTES = 256 * 1024;
+    // Książki odtwarzane strumieniowo: identyfikatory zadań na serwerze, bez pliku ZIP w audiobooks/
+    private static final String STREAM_JOBS_KEY = "stream_jobs";
+    private static final String STREAM_FILE_PREFIX = "stream_";
+    private ApiService apiService;
+    private final List<IoExecutor.Task<?>> ioTasks = new ArrayList<>();
+    private final List<IoExecutor.Task<?>> downloadTasks = new ArrayList<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -62,14 +84,38 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
         progressBar = findViewById(R.id.progress_bar);
         statusText = findViewById(R.id.status_text);
         booksRecyclerView = findViewById(R.id.books_recycler_view);
-        prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        EditText searchInput = findViewById(R.id.search_input);
 
-        books = loadBooks();
+        books = new ArrayList<>();
         bookAdapter = new BookAdapter(this, books, this);
         booksRecyclerView.setLayoutManager(new GridLayoutManager(this, 2));
         booksRecyclerView.setAdapter(bookAdapter);
 
+        // Instancja jest buforowana - dopiero pierwszy odczyt sięga do dysku, już w zadaniu loadBooks
+        prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        loadBooksAsync();
+
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+                searchQuery = text.toString();
+                refreshVisibleBooks();
+            }
+
+            @Override
+            public void afterTextChanged(Editable text) {
+            }
+        });
+
         addBookBtn.setOnClickListener(v -> openFilePicker());
+        addBookBtn.setOnLongClickListener(v -> {
+            startActivity(new Intent(this, PerfStatsActivity.class));
+            return true;
+        });
 
         filePickerLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
             if (result.getResultCode() == RESULT_OK && result.getData() != null) {
@@ -90,25 +136,62 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
         });
     }
 
-    private List<Book> loadBooks() {
+    private void loadBooksAsync() {
+        track(IoExecutor.get().submit("loadBooks", this::loadBooks, bookList -> {
+            books.addAll(bookList);
+            for (Book book : bookList) {
+                searchIndex.put(book);
+            }
+            refreshVisibleBooks();
+        }));
+    }
+
+    private List<Book> loadBooks(IoExecutor.Task<?> task) {
         List<Book> bookList = new ArrayList<>();
         File directory = new File(getFilesDir(), "audiobooks");
         if (directory.exists()) {
             File[] files = directory.listFiles((dir, name) -> name.endsWith(".zip"));
             if (files != null) {
                 for (File file : files) {
+                    task.throwIfCancelled();
                     String fileName = file.getName();
                     String title = prefs.getString("title_" + fileName, fileName.replace(".zip", ""));
                     String author = prefs.getString("author_" + fileName, "Unknown");
                     String coverPath = prefs.getString("cover_" + fileName, null);
-                    bookList.add(new Book(fileName, title, author, coverPath));
+                    Book book = new Book(fileName, title, author, coverPath);
+                    book.setPlayerCoverPath(prefs.getString("player_cover_" + fileName, null));
+                    bookList.add(book);
                     Log.d(TAG, "Loaded book: " + fileName + ", title: " + title + ", author: " + author);
                 }
             }
         }
+        for (String jobId : prefs.getStringSet(STREAM_JOBS_KEY, Collections.emptySet())) {
+            String fileName = STREAM_FILE_PREFIX + jobId;
+            Book book = new Book(fileName, prefs.getString("title_" + fileName, jobId),
+                    prefs.getString("author_" + fileName, "Nieznany"), prefs.getString("cover_" + fileName, null));
+            book.setStreamJobId(jobId);
+            bookList.add(book);
+            Log.d(TAG, "Loaded streamed book: " + jobId);
+        }
         return bookList;
     }
 
+    // Przekazuje do siatki wynik bieżącego zapytania; bez zapytania pokazywana jest cała biblioteka
+    private void refreshVisibleBooks() {
+        List<Book> visible;
+        try (PerfTracer.Section section = PerfTracer.begin("library.search")) {
+            visible = searchIndex.search(searchQuery);
+            section.setDetail(searchIndex.size() + " books, " + visible.size() + " matches");
+            section.complete();
+        }
+        bookAdapter.updateBooks(visible);
+    }
+
+    private <T> IoExecutor.Task<T> track(IoExecutor.Task<T> task) {
+        ioTasks.add(task);
+        return task;
+    }
+
     private void openFilePicker() {
         Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
         intent.setType("*/*");
@@ -117,60 +200,140 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
     }
 
     private void uploadFile(Uri fileUri) {
-        try {
-            statusText.setText("Wysłanie pliku...");
-            statusText.setVisibility(View.VISIBLE);
-            progressBar.setIndeterminate(true);
-            progressBar.setVisibility(View.VISIBLE);
+        statusText.setText("Kopiowanie pliku...");
+        statusText.setVisibility(View.VISIBLE);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisibility(View.VISIBLE);
+
+        track(IoExecutor.get().submit("import", task -> {
+            String filePath = FileUtil.getPath(this, fileUri, task);
+            return filePath != null ? new File(filePath) : null;
+        }, new IoExecutor.Callback<File>() {
+            @Override
+            public void onSuccess(File file) {
+                if (file == null) {
+                    showError("Nie udało się pobrać pliku");
+                    return;
+                }
+                chooseUploadMode(file);
+            }
 
-            String filePath = FileUtil.getPath(this, fileUri);
-            if (filePath == null) {
-                showError("Nie udało się pobrać pliku");
-                return;
+            @Override
+            public void onError(Exception e) {
+                showError("Błąd: " + e.getMessage());
+                Log.e(TAG, "Import exception: ", e);
             }
-            File file = new File(filePath);
-            Log.d(TAG, "Uploading file: " + file.getAbsolutePath() + ", size: " + file.length());
 
-            OkHttpClient client = new OkHttpClient.Builder()
-                    .connectTimeout(30, TimeUnit.SECONDS)
-                    .readTimeout(30, TimeUnit.HOURS)
-                    .writeTimeout(30, TimeUnit.HOURS)
-                    .build();
+            @Override
+            public void onProgress(long done, long total) {
+                showProgress(done, total);
+            }
+        }));
+    }
 
-            Retrofit retrofit = new Retrofit.Builder()
-                    .baseUrl(SERVER_URL)
-                    .client(client)
-                    .addConverterFactory(GsonConverterFactory.create())
-                    .build();
+    private void chooseUploadMode(File file) {
+        new AlertDialog.Builder(this)
+                .setTitle("Jak chcesz słuchać?")
+                .setItems(new String[]{"Pobierz całą książkę", "Słuchaj online (bez pobierania)"}, (dialog, which) -> {
+                    if (which == 0) {
+                        startUpload(file);
+                    } else {
+                        startStreamUpload(file);
+                    }
+                })
+                .setOnCancelListener(dialog -> {
+                    progressBar.setVisibility(View.GONE);
+                    statusText.setVisibility(View.GONE);
+                })
+                .show();
+    }
+
+    private synchronized ApiService getApiService() {
+        if (apiService == null) {
+            apiService = createApiService(SERVER_URL);
+        }
+        return apiService;
+    }
 
-            ApiService apiService = retrofit.create(ApiService.class);
-            RequestBody requestFile = RequestBody.create(MediaType.parse("multipart/form-data"), file);
-            MultipartBody.Part body = MultipartBody.Part.createFormData("file", file.getName(), requestFile);
+    // Metody statyczne poniżej to cała ścieżka przesyłania książki - używa ich też TransferBenchmark
+    static ApiService createApiService(String baseUrl) {
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.HOURS)
+                .writeTimeout(30, TimeUnit.HOURS)
+                .build();
+
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .client(client)
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+
+        return retrofit.create(ApiService.class);
+    }
+
+    static MultipartBody.Part createFilePart(File file) {
+        RequestBody requestFile = RequestBody.create(MediaType.parse("multipart/form-data"), file);
+        return MultipartBody.Part.createFormData("file", file.getName(), requestFile);
+    }
 
-            Call<BookResponse> call = apiService.uploadFile(body);
+    static byte[] decodeZip(String zipFile, String zipFileName) {
+        try (PerfTracer.Section section = PerfTracer.begin("download.decodeZip")) {
+            section.setDetail(zipFileName);
+            byte[] zipBytes = Base64.decode(zipFile, Base64.DEFAULT);
+            section.addBytes(zipBytes.length);
+            section.complete();
+            return zipBytes;
+        }
+    }
+
+    // task może być null
+    static void writeZip(byte[] zipBytes, File zipFile, IoExecutor.Task<?> task) throws IOException {
+        try (PerfTracer.Section section = PerfTracer.begin("download.writeZip");
+             FileOutputStream outputStream = new FileOutputStream(zipFile)) {
+            section.setDetail(zipFile.getName());
+            int offset = 0;
+            while (offset < zipBytes.length) {
+                int length = Math.min(WRITE_CHUNK_BYTES, zipBytes.length - offset);
+                outputStream.write(zipBytes, offset, length);
+                offset += length;
+                if (task != null) {
+                    task.publishProgress(offset, zipBytes.length);
+                }
+            }
+            outputStream.flush();
+            section.addBytes(zipBytes.length);
+            section.complete();
+        }
+    }
+
+    private void startUpload(File file) {
+        try {
+            statusText.setText("Wysłanie pliku...");
+            progressBar.setIndeterminate(true);
+            Log.d(TAG, "Uploading file: " + file.getAbsolutePath() + ", size: " + file.length());
+
+            Call<BookResponse> call = getApiService().uploadFile(createFilePart(file));
+            PerfTracer.Section uploadSection = PerfTracer.beginAsync("upload.roundtrip");
+            uploadSection.addBytes(file.length());
             call.enqueue(new Callback<BookResponse>() {
                 @Override
                 public void onResponse(Call<BookResponse> call, Response<BookResponse> response) {
+                    uploadSection.setDetail("HTTP " + response.code());
+                    uploadSection.close();
                     if (response.isSuccessful() && response.body() != null) {
                         Log.d(TAG, "File uploaded successfully, processing response...");
                         statusText.setText("Pobieranie audiobooku...");
                         downloadFile(response.body(), file.getName());
                     } else {
-                        String errorBody = "";
-                        try {
-                            if (response.errorBody() != null) {
-                                errorBody = response.errorBody().string();
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        showError("Błąd podczas przetwarzania: " + response.code() + ", " + errorBody);
-                        Log.e(TAG, "Upload failed: " + response.code() + ", " + errorBody);
+                        showUploadError(response);
                     }
                 }
 
                 @Override
                 public void onFailure(Call<BookResponse> call, Throwable t) {
+                    uploadSection.fail(t);
+                    uploadSection.close();
                     showError("Błąd sieci: " + t.getMessage());
                     Log.e(TAG, "Network error: ", t);
                 }
@@ -181,75 +344,208 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
         }
     }
 
-    private void downloadFile(BookResponse response, String originalFileName) {
+    // Serwer odpowiada od razu (202), a rozdziały są odtwarzane w miarę ich kodowania
+    private void startStreamUpload(File file) {
+        statusText.setText("Wysłanie pliku...");
+        progressBar.setIndeterminate(true);
+        Log.d(TAG, "Uploading file for streaming: " + file.getAbsolutePath() + ", size: " + file.length());
+
+        PerfTracer.Section uploadSection = PerfTracer.beginAsync("upload.stream");
+        uploadSection.addBytes(file.length());
+        getApiService().uploadFileForStreaming(createFilePart(file)).enqueue(new Callback<BookResponse>() {
+            @Override
+            public void onResponse(Call<BookResponse> call, Response<BookResponse> response) {
+                uploadSection.setDetail("HTTP " + response.code());
+                uploadSection.close();
+                if (response.isSuccessful() && response.body() != null && response.body().jobId != null) {
+                    addStreamedBook(response.body().jobId, file.getName());
+                } else {
+                    showUploadError(response);
+                }
+            }
+
+            @Override
+            public void onFailure(Call<BookResponse> call, Throwable t) {
+                uploadSection.fail(t);
+                uploadSection.close();
+                showError("Błąd sieci: " + t.getMessage());
+                Log.e(TAG, "Network error: ", t);
+            }
+        });
+    }
+
+    private void showUploadError(Response<BookResponse> response) {
+        String errorBody = "";
         try {
+            if (response.errorBody() != null) {
+                errorBody = response.errorBody().string();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (response.code() == 429) {
+            String retryAfter = response.headers().get("Retry-After");
+            showError("Serwer jest zajęty, spróbuj ponownie za " + (retryAfter != null ? retryAfter : "kilka") + " s");
+        } else {
+            showError("Błąd podczas przetwarzania: " + response.code() + ", " + errorBody);
+        }
+        Log.e(TAG, "Upload failed: " + response.code() + ", " + errorBody);
+    }
+
+    private void addStreamedBook(String jobId, String originalFileName) {
+        progressBar.setVisibility(View.GONE);
+        statusText.setVisibility(View.GONE);
+        String fileName = STREAM_FILE_PREFIX + jobId;
+        Book book = findBook(fileName);
+        if (book == null) {
+            book = new Book(fileName, originalFileName.replaceFirst("\\.(epub|fb2|txt)$", ""), "Nieznany", null);
+            book.setStreamJobId(jobId);
+            Set<String> streamJobs = new HashSet<>(prefs.getStringSet(STREAM_JOBS_KEY, Collections.emptySet()));
+            streamJobs.add(jobId);
+            prefs.edit()
+                    .putStringSet(STREAM_JOBS_KEY, streamJobs)
+                    .putString("title_" + fileName, book.getTitle())
+                    .putString("author_" + fileName, book.getAuthor())
+                    .apply();
+            books.add(book);
+            searchIndex.put(book);
+            refreshVisibleBooks();
+        }
+        Log.d(TAG, "Streamed book added: " + jobId);
+        onBookClick(book, -1);
+    }
+
+    private Book findBook(String fileName) {
+        for (Book book : books) {
+            if (book.getFileName().equals(fileName)) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    private void downloadFile(BookResponse response, String originalFileName) {
+        String baseName = originalFileName.replaceFirst("\\.(epub|fb2|txt)$", "");
+        String zipFileName = baseName + "_" + UUID.randomUUID().toString() + ".zip";
+        // Tytuł pochodzi z baseName (bez UUID), autor zawsze "Nieznany"
+        String title = baseName;
+        String author = "Nieznany";
+
+        // Zadanie nie jest przerywane w onDestroy - pobrana książka musi zostać zapisana w całości
+        IoExecutor.Task<Book> downloadTask = IoExecutor.get().submit("download " + zipFileName, task -> {
             File directory = new File(getFilesDir(), "audiobooks");
             if (!directory.exists()) {
                 directory.mkdirs();
             }
-            String baseName = originalFileName.replaceFirst("\\.(epub|fb2|txt)$", "");
-            String zipFileName = baseName + "_" + UUID.randomUUID().toString() + ".zip";
             File zipFile = new File(directory, zipFileName);
             Log.d(TAG, "Saving ZIP to: " + zipFile.getAbsolutePath());
 
             // Dekodujemy base64 do pliku ZIP
-            byte[] zipBytes = Base64.decode(response.zipFile, Base64.DEFAULT);
-            FileOutputStream outputStream = new FileOutputStream(zipFile);
-            outputStream.write(zipBytes);
-            outputStream.flush();
-            outputStream.close();
+            writeZip(decodeZip(response.zipFile, zipFileName), zipFile, task);
 
-            // Przetwarzamy okładkę
+            // Miniatury okładki pobieramy osobno, już przeskalowane przez serwer
             String coverPath = null;
-            if (response.metadata.cover != null && !response.metadata.cover.isEmpty()) {
-                File coverDir = new File(getFilesDir(), "covers");
-                if (!coverDir.exists()) {
-                    coverDir.mkdirs();
+            String playerCoverPath = null;
+            BookResponse.Covers covers = response.metadata != null ? response.metadata.covers : null;
+            if (covers != null && covers.grid != null) {
+                coverPath = downloadCover(covers.grid, "cover_" + zipFileName.replace(".zip", ".jpg"));
+                if (covers.player != null) {
+                    playerCoverPath = downloadCover(covers.player, "cover_" + zipFileName.replace(".zip", "_player.jpg"));
                 }
-                String coverFileName = "cover_" + zipFileName.replace(".zip", ".jpg");
-                File coverFile = new File(coverDir, coverFileName);
-                byte[] coverBytes = Base64.decode(response.metadata.cover, Base64.DEFAULT);
-                FileOutputStream coverOutputStream = new FileOutputStream(coverFile);
-                coverOutputStream.write(coverBytes);
-                coverOutputStream.flush();
-                coverOutputStream.close();
-                coverPath = coverFile.getAbsolutePath();
-                Log.d(TAG, "Cover saved to: " + coverPath);
             } else {
                 Log.w(TAG, "No cover received for book: " + zipFileName);
             }
 
-            progressBar.setVisibility(View.GONE);
-            statusText.setVisibility(View.GONE);
-            Toast.makeText(this, "Audiobook zapisany: " + zipFile.getName(), Toast.LENGTH_SHORT).show();
-            Log.d(TAG, "File downloaded and saved: " + zipFile.getAbsolutePath());
-
-            // Tytuł pochodzi z baseName (bez UUID), autor zawsze "Nieznany"
-            String title = baseName; 
-            String author = "Nieznany";
-
-            SharedPreferences.Editor editor = prefs.edit();
+            // Metadane zapisujemy razem z plikiem, nawet jeśli aktywność została już zamknięta
+            SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit();
             editor.putString("title_" + zipFileName, title);
             editor.putString("author_" + zipFileName, author);
             if (coverPath != null) {
                 editor.putString("cover_" + zipFileName, coverPath);
             }
+            if (playerCoverPath != null) {
+                editor.putString("player_cover_" + zipFileName, playerCoverPath);
+            }
             editor.apply();
-
-            for (int i = 0; i < books.size(); i++) {
-                if (books.get(i).getFileName().equals(zipFileName)) {
-                    books.remove(i);
-                    break;
+            Log.d(TAG, "File downloaded and saved: " + zipFile.getAbsolutePath());
+            Book book = new Book(zipFileName, title, author, coverPath);
+            book.setPlayerCoverPath(playerCoverPath);
+            return book;
+        }, new IoExecutor.Callback<Book>() {
+            @Override
+            public void onSuccess(Book book) {
+                progressBar.setVisibility(View.GONE);
+                statusText.setVisibility(View.GONE);
+                Toast.makeText(MainActivity.this, "Audiobook zapisany: " + zipFileName, Toast.LENGTH_SHORT).show();
+
+                for (int i = 0; i < books.size(); i++) {
+                    if (books.get(i).getFileName().equals(zipFileName)) {
+                        searchIndex.remove(books.remove(i));
+                        break;
+                    }
                 }
+                books.add(book);
+                searchIndex.put(book);
+                refreshVisibleBooks();
+                Log.d(TAG, "Book added: " + zipFileName + ", title: " + title + ", author: " + author);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                showError("Błąd podczas pobierania: " + e.getMessage());
+                Log.e(TAG, "Download exception: ", e);
             }
-            books.add(new Book(zipFileName, title, author, coverPath));
-            bookAdapter.notifyDataSetChanged();
-            Log.d(TAG, "Book added: " + zipFileName + ", title: " + title + ", author: " + author);
 
+            @Override
+            public void onProgress(long done, long total) {
+                showProgress(done, total);
+            }
+        });
+        downloadTasks.add(downloadTask);
+    }
+
+    // Wywoływane z wątku roboczego; brak okładki nie przerywa zapisu książki
+    private String downloadCover(String url, String coverFileName) {
+        File coverDir = new File(getFilesDir(), "covers");
+        if (!coverDir.exists()) {
+            coverDir.mkdirs();
+        }
+        File coverFile = new File(coverDir, coverFileName);
+        try (PerfTracer.Section section = PerfTracer.begin("download.writeCover")) {
+            section.setDetail(coverFileName);
+            Response<ResponseBody> response = getApiService().downloadCover(url).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.w(TAG, "Cover download failed: " + response.code() + " for " + url);
+                return null;
+            }
+            try (ResponseBody body = response.body();
+                 InputStream inputStream = body.byteStream();
+                 FileOutputStream outputStream = new FileOutputStream(coverFile)) {
+                byte[] buffer = new byte[16 * 1024];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                    section.addBytes(bytesRead);
+                }
+            }
+            Log.d(TAG, "Cover saved to: " + coverFile.getAbsolutePath());
+            section.complete();
+            return coverFile.getAbsolutePath();
         } catch (IOException e) {
-            showError("Błąd podczas pobierania: " + e.getMessage());
-            Log.e(TAG, "Download exception: ", e);
+            Log.w(TAG, "Cover download failed: " + url, e);
+            coverFile.delete();
+            return null;
+        }
+    }
+
+    private void showProgress(long done, long total) {
+        if (total <= 0) {
+            progressBar.setIndeterminate(true);
+            return;
         }
+        progressBar.setIndeterminate(false);
+        progressBar.setMax(1000);
+        progressBar.setProgress((int) (done * 1000 / total));
     }
 
     private void showError(String message) {
@@ -261,8 +557,12 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
     @Override
     public void onBookClick(Book book, int position) {
         Intent intent = new Intent(this, PlayerActivity.class);
-        intent.putExtra("zip_file_path", getFilesDir() + "/audiobooks/" + book.getFileName());
-        intent.putExtra("cover_path", book.getCoverPath());
+        if (book.isStreamed()) {
+            intent.putExtra("stream_job_id", book.getStreamJobId());
+        } else {
+            intent.putExtra("zip_file_path", getFilesDir() + "/audiobooks/" + book.getFileName());
+        }
+        intent.putExtra("cover_path", book.getPlayerCoverPath());
         intent.putExtra("title", book.getTitle());
         intent.putExtra("author", book.getAuthor());
         startActivity(intent);
@@ -271,54 +571,214 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
 
     @Override
     public void onBookLongClick(Book book, int position) {
+        String[] actions = book.isStreamed()
+                ? new String[]{"Usuń", "Zmień tytuł", "Zmień autora", "Zmień okładkę", "Zachowaj na urządzeniu"}
+                : new String[]{"Usuń", "Zmień tytuł", "Zmień autora", "Zmień okładkę"};
         new AlertDialog.Builder(this)
                 .setTitle(book.getTitle())
-                .setItems(new String[]{"Usuń", "Zmień tytuł", "Zmień autora", "Zmień okładkę"}, (dialog, which) -> {
+                .setItems(actions, (dialog, which) -> {
                     switch (which) {
                         case 0:
-                            deleteBook(book, position);
+                            deleteBook(book);
                             break;
                         case 1:
-                            editBookTitle(book, position);
+                            editBookTitle(book);
                             break;
                         case 2:
-                            editBookAuthor(book, position);
+                            editBookAuthor(book);
                             break;
                         case 3:
-                            selectCoverImage(book, position);
+                            selectCoverImage(book);
+                            break;
+                        case 4:
+                            keepBook(book);
                             break;
                     }
                 })
                 .show();
     }
 
-    private void deleteBook(Book book, int position) {
-        File file = new File(getFilesDir() + "/audiobooks/" + book.getFileName());
-        if (file.exists() && file.delete()) {
-            // Usuwamy okładkę, jeśli istnieje
-            String coverPath = prefs.getString("cover_" + book.getFileName(), null);
-            if (coverPath != null) {
-                File coverFile = new File(coverPath);
-                if (coverFile.exists()) {
-                    coverFile.delete();
+    private void deleteBook(Book book) {
+        String fileName = book.getFileName();
+        String coverPath = book.getCoverPath();
+        String playerCoverPath = book.getPlayerCoverPath();
+        String streamJobId = book.getStreamJobId();
+        track(IoExecutor.get().submit("delete " + fileName, task -> {
+            SharedPreferences.Editor editor = prefs.edit();
+            if (streamJobId != null) {
+                SegmentCache.get(this).removeJob(streamJobId);
+                Set<String> streamJobs = new HashSet<>(prefs.getStringSet(STREAM_JOBS_KEY, Collections.emptySet()));
+                streamJobs.remove(streamJobId);
+                editor.putStringSet(STREAM_JOBS_KEY, streamJobs);
+            } else {
+                File file = new File(getFilesDir() + "/audiobooks/" + fileName);
+                if (!file.exists() || !file.delete()) {
+                    return false;
                 }
             }
-            books.remove(position);
-            bookAdapter.notifyItemRemoved(position);
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.remove("title_" + book.getFileName());
-            editor.remove("author_" + book.getFileName());
-            editor.remove("cover_" + book.getFileName());
+            // Usuwamy okładki, jeśli istnieją
+            for (String path : new String[]{coverPath, playerCoverPath}) {
+                if (path != null) {
+                    File coverFile = new File(path);
+                    if (coverFile.exists()) {
+                        coverFile.delete();
+                    }
+                }
+            }
+            editor.remove("title_" + fileName);
+            editor.remove("author_" + fileName);
+            editor.remove("cover_" + fileName);
+            editor.remove("player_cover_" + fileName);
             editor.apply();
+            return true;
+        }, deleted -> {
+            if (!deleted) {
+                Toast.makeText(this, "Błąd podczas usuwania", Toast.LENGTH_SHORT).show();
+                Log.e(TAG, "Failed to delete book: " + fileName);
+                return;
+            }
+            books.remove(book);
+            searchIndex.remove(book);
+            refreshVisibleBooks();
+            CoverLoader.invalidate(coverPath);
             Toast.makeText(this, "Książka usunięta", Toast.LENGTH_SHORT).show();
-            Log.d(TAG, "Book deleted: " + book.getFileName());
-        } else {
-            Toast.makeText(this, "Błąd podczas usuwania", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "Failed to delete book: " + book.getFileName());
-        }
+            Log.d(TAG, "Book deleted: " + fileName);
+        }));
     }
 
-    private void editBookTitle(Book book, int position) {
+    // Szybkie przejście z odtwarzania strumieniowego do pobranej książki: segmenty z pamięci
+    // podręcznej trafiają do ZIP bez ponownego pobierania, a brakujące zakresy są dociągane z serwera
+    private void keepBook(Book book) {
+        String jobId = book.getStreamJobId();
+        String zipFileName = book.getTitle().replaceAll("[^\\p{L}\\p{N}._-]+", "_") + "_" + UUID.randomUUID().toString() + ".zip";
+        String title = book.getTitle();
+        String author = book.getAuthor();
+        statusText.setText("Zapisywanie książki na urządzeniu...");
+        statusText.setVisibility(View.VISIBLE);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisibility(View.VISIBLE);
+
+        // Jak pobieranie - zadanie nie jest przerywane w onDestroy
+        IoExecutor.Task<Book> keepTask = IoExecutor.get().submit("keep " + jobId, task -> {
+            StreamClient client = StreamClient.get();
+            ChapterListing listing = client.fetchChapters(jobId);
+            if (!ChapterListing.STATUS_DONE.equals(listing.status)) {
+                throw new IOException(ChapterListing.STATUS_FAILED.equals(listing.status)
+                        ? "Przetwarzanie książki nie powiodło się: " + listing.error
+                        : "Książka jest jeszcze przetwarzana na serwerze");
+            }
+            File directory = new File(getFilesDir(), "audiobooks");
+            if (!directory.exists()) {
+                directory.mkdirs();
+            }
+            File zipFile = new File(directory, zipFileName);
+            File partFile = new File(directory, zipFileName + ".part");
+            SegmentCache cache = SegmentCache.get(this);
+            long total = 0;
+            for (ChapterListing.Chapter chapter : listing.chapters) {
+                for (ChapterListing.Segment part : chapter.segments) {
+                    total += part.bytes;
+                }
+            }
+            long totalBytes = total;
+            long[] done = {0};
+            try (PerfTracer.Section section = PerfTracer.begin("stream.keep");
+                 ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(partFile), WRITE_CHUNK_BYTES))) {
+                // MP3 się nie kompresuje - zapis bez kompresji nie obciąża procesora
+                zip.setLevel(Deflater.NO_COMPRESSION);
+                long downloaded = 0;
+                for (ChapterListing.Chapter chapter : listing.chapters) {
+                    for (ChapterListing.Segment part : chapter.segments) {
+                        zip.putNextEntry(new ZipEntry(part.name));
+                        downloaded += StreamingDataSource.copyPart(cache, client, jobId, chapter.index, part, zip, count -> {
+                            done[0] += count;
+                            task.publishProgress(done[0], totalBytes);
+                        });
+                        zip.closeEntry();
+                    }
+                    if (chapter.indexUrl != null) {
+                        zip.putNextEntry(new ZipEntry(chapter.indexName));
+                        client.copyTo(chapter.indexUrl, zip);
+                        zip.closeEntry();
+                    }
+                }
+                // Ten sam spis co w archiwum z serwera - segmenty długich rozdziałów grają jako jeden rozdział
+                zip.putNextEntry(new ZipEntry(BookManifest.ENTRY_NAME));
+                BookManifest.fromListing(listing).write(zip);
+                zip.closeEntry();
+                section.addBytes(totalBytes);
+                section.setDetail(jobId + ", " + (totalBytes - downloaded) + " of " + totalBytes + " bytes from cache");
+                section.complete();
+            } catch (IOException | RuntimeException e) {
+                partFile.delete();
+                throw e;
+            }
+            if (!partFile.renameTo(zipFile)) {
+                partFile.delete();
+                throw new IOException("Nie można zapisać " + zipFile.getName());
+            }
+
+            String coverPath = book.getCoverPath();
+            String playerCoverPath = null;
+            BookResponse.Covers covers = listing.metadata != null ? listing.metadata.covers : null;
+            if (coverPath == null && covers != null && covers.grid != null) {
+                coverPath = downloadCover(covers.grid, "cover_" + zipFileName.replace(".zip", ".jpg"));
+                if (covers.player != null) {
+                    playerCoverPath = downloadCover(covers.player, "cover_" + zipFileName.replace(".zip", "_player.jpg"));
+                }
+            }
+
+            String streamFileName = book.getFileName();
+            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+            Set<String> streamJobs = new HashSet<>(prefs.getStringSet(STREAM_JOBS_KEY, Collections.emptySet()));
+            streamJobs.remove(jobId);
+            SharedPreferences.Editor editor = prefs.edit();
+            editor.putStringSet(STREAM_JOBS_KEY, streamJobs);
+            editor.remove("title_" + streamFileName);
+            editor.remove("author_" + streamFileName);
+            editor.remove("cover_" + streamFileName);
+            editor.putString("title_" + zipFileName, title);
+            editor.putString("author_" + zipFileName, author);
+            if (coverPath != null) {
+                editor.putString("cover_" + zipFileName, coverPath);
+            }
+            if (playerCoverPath != null) {
+                editor.putString("player_cover_" + zipFileName, playerCoverPath);
+            }
+            editor.apply();
+            cache.removeJob(jobId);
+            Log.d(TAG, "Streamed book kept as: " + zipFile.getAbsolutePath());
+            Book kept = new Book(zipFileName, title, author, coverPath);
+            kept.setPlayerCoverPath(playerCoverPath);
+            return kept;
+        }, new IoExecutor.Callback<Book>() {
+            @Override
+            public void onSuccess(Book kept) {
+                progressBar.setVisibility(View.GONE);
+                statusText.setVisibility(View.GONE);
+                books.remove(book);
+                searchIndex.remove(book);
+                books.add(kept);
+                searchIndex.put(kept);
+                refreshVisibleBooks();
+                Toast.makeText(MainActivity.this, "Książka zapisana na urządzeniu", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                showError("Nie udało się zapisać książki: " + e.getMessage());
+                Log.e(TAG, "Keep exception: ", e);
+            }
+
+            @Override
+            public void onProgress(long done, long total) {
+                showProgress(done, total);
+            }
+        });
+        downloadTasks.add(keepTask);
+    }
+
+    private void editBookTitle(Book book) {
         new AlertDialog.Builder(this)
                 .setTitle("Zmień tytuł")
                 .setView(R.layout.dialog_edit_text)
@@ -330,7 +790,9 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
                         SharedPreferences.Editor editor = prefs.edit();
                         editor.putString("title_" + book.getFileName(), newTitle);
                         editor.apply();
-                        bookAdapter.notifyItemChanged(position);
+                        searchIndex.put(book);
+                        bookAdapter.notifyBookChanged(book);
+                        refreshVisibleBooks();
                         Log.d(TAG, "Book title updated: " + newTitle);
                     }
                 })
@@ -338,7 +800,7 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
                 .show();
     }
 
-    private void editBookAuthor(Book book, int position) {
+    private void editBookAuthor(Book book) {
         new AlertDialog.Builder(this)
                 .setTitle("Zmień autora")
                 .setView(R.layout.dialog_edit_text)
@@ -350,7 +812,9 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
                         SharedPreferences.Editor editor = prefs.edit();
                         editor.putString("author_" + book.getFileName(), newAuthor);
                         editor.apply();
-                        bookAdapter.notifyItemChanged(position);
+                        searchIndex.put(book);
+                        bookAdapter.notifyBookChanged(book);
+                        refreshVisibleBooks();
                         Log.d(TAG, "Book author updated: " + newAuthor);
                     }
                 })
@@ -358,49 +822,88 @@ public class MainActivity extends AppCompatActivity implements BookAdapter.OnBoo
                 .show();
     }
 
-    private void selectCoverImage(Book book, int position) {
-        currentBookPosition = position;
+    private void selectCoverImage(Book book) {
+        coverTargetBook = book;
         Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
         intent.setType("image/*");
         coverPickerLauncher.launch(intent);
     }
 
-    private int currentBookPosition = -1;
+    private Book coverTargetBook;
 
     private void saveCoverImage(Uri coverUri) {
-        try {
+        Book book = coverTargetBook;
+        if (book == null || !books.contains(book)) {
+            return;
+        }
+        track(IoExecutor.get().submit("cover " + book.getFileName(), task -> {
             File directory = new File(getFilesDir(), "covers");
             if (!directory.exists()) {
                 directory.mkdirs();
             }
-            String coverFileName = "cover_" + books.get(currentBookPosition).getFileName().replace(".zip", ".jpg");
+            String coverFileName = "cover_" + book.getFileName().replace(".zip", ".jpg");
             File coverFile = new File(directory, coverFileName);
 
-            InputStream inputStream = getContentResolver().openInputStream(coverUri);
-            FileOutputStream outputStream = new FileOutputStream(coverFile);
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+            try (InputStream inputStream = getContentResolver().openInputStream(coverUri);
+                 FileOutputStream outputStream = new FileOutputStream(coverFile)) {
+                byte[] buffer = new byte[16 * 1024];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                }
             }
-            outputStream.close();
-            inputStream.close();
 
-            books.get(currentBookPosition).setCoverPath(coverFile.getAbsolutePath());
+            // Własna okładka zastępuje też miniaturę odtwarzacza z serwera
+            String playerCoverPath = prefs.getString("player_cover_" + book.getFileName(), null);
+            if (playerCoverPath != null) {
+                new File(playerCoverPath).delete();
+            }
             SharedPreferences.Editor editor = prefs.edit();
-            editor.putString("cover_" + books.get(currentBookPosition).getFileName(), coverFile.getAbsolutePath());
+            editor.putString("cover_" + book.getFileName(), coverFile.getAbsolutePath());
+            editor.remove("player_cover_" + book.getFileName());
             editor.apply();
-            bookAdapter.notifyItemChanged(currentBookPosition);
-            Log.d(TAG, "Cover updated for book: " + books.get(currentBookPosition).getFileName());
-        } catch (IOException e) {
-            Toast.makeText(this, "Błąd podczas zapisywania okładki", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "Cover save exception: ", e);
+            return coverFile.getAbsolutePath();
+        }, new IoExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String coverPath) {
+                CoverLoader.invalidate(coverPath);
+                book.setCoverPath(coverPath);
+                book.setPlayerCoverPath(null);
+                bookAdapter.notifyBookChanged(book);
+                Log.d(TAG, "Cover updated for book: " + book.getFileName());
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Toast.makeText(MainActivity.this, "Błąd podczas zapisywania okładki", Toast.LENGTH_SHORT).show();
+                Log.e(TAG, "Cover save exception: ", e);
+            }
+        }));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        for (IoExecutor.Task<?> task : ioTasks) {
+            task.cancel();
+        }
+        ioTasks.clear();
+        for (IoExecutor.Task<?> task : downloadTasks) {
+            task.detach();
         }
+        downloadTasks.clear();
     }
 
     interface ApiService {
         @Multipart
         @POST("/upload")
         Call<BookResponse> uploadFile(@Part MultipartBody.Part file);
+
+        @Multipart
+        @POST("/upload?mode=stream")
+        Call<BookResponse> uploadFileForStreaming(@Part MultipartBody.Part file);
+
+        @GET
+        Call<ResponseBody> downloadCover(@Url String url);
     }
 }
\ No newline at end of file
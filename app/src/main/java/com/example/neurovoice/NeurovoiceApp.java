@@ -0,0 +1,39 @@
+package com.example.neurovoice;
+
+import android.app.Application;
+import android.os.StrictMode;
+import android.util.Log;
+
+public class NeurovoiceApp extends Application {
+
+    private static final String TAG = "NeurovoiceApp";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (BuildConfig.DEBUG) {
+            enableStrictMode();
+        }
+    }
+
+    // W buildach testowych każdy dostęp do dysku lub sieci w wątku UI jest natychmiast widoczny
+    private void enableStrictMode() {
+        StrictMode.ThreadPolicy.Builder threadPolicy = new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .penaltyFlashScreen()
+                .penaltyDeathOnNetwork();
+        if (BuildConfig.STRICT_MODE_DEATH) {
+            threadPolicy.penaltyDeath();
+        }
+        StrictMode.setThreadPolicy(threadPolicy.build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedClosableObjects()
+                .detectLeakedRegistrationObjects()
+                .penaltyLog()
+                .build());
+        Log.d(TAG, "StrictMode enabled, death on violation: " + BuildConfig.STRICT_MODE_DEATH);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.neurovoice;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+public class PerfStatsActivity extends AppCompatActivity {
+
+    private static final String TAG = "PerfStatsActivity";
+    private TextView statsText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_perf_stats);
+
+        statsText = findViewById(R.id.perf_stats_text);
+        Button exportButton = findViewById(R.id.perf_export_button);
+        Button clearButton = findViewById(R.id.perf_clear_button);
+
+        exportButton.setOnClickListener(v -> exportStats());
+        clearButton.setOnClickListener(v -> {
+            PerfTracer.clear();
+            renderStats();
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        renderStats();
+    }
+
+    private void renderStats() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Podsumowanie\n");
+        for (Map.Entry<String, PerfTracer.Totals> entry : PerfTracer.getTotals().entrySet()) {
+            PerfTracer.Totals total = entry.getValue();
+            builder.append(String.format(Locale.US, "%-24s x%d  %d ms  %s  heap %s\n",
+                    entry.getKey(), total.count, total.durationMs, formatBytes(total.bytes), formatBytes(total.peakHeapBytes)));
+        }
+
+        builder.append("\nOstatnie operacje\n");
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.US);
+        for (PerfTracer.Operation operation : PerfTracer.getRecentOperations()) {
+            builder.append(String.format(Locale.US, "%s %-24s %6d ms  %9s  %6.1f MB/s  heap %s%s\n",
+                    timeFormat.format(new Date(operation.startedAt)),
+                    operation.name,
+                    operation.durationMs,
+                    formatBytes(operation.bytes),
+                    operation.throughputMbPerSecond(),
+                    formatBytes(operation.peakHeapBytes),
+                    operation.success ? "" : "  BŁĄD: " + operation.detail));
+        }
+        statsText.setText(builder.toString());
+    }
+
+    private void exportStats() {
+        String report = PerfTracer.exportJson();
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, "Neurovoice - pomiary wydajności");
+        intent.putExtra(Intent.EXTRA_TEXT, report);
+        startActivity(Intent.createChooser(intent, "Eksportuj pomiary"));
+        Log.d(TAG, "Exported " + report.length() + " chars of performance data");
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes >= 1024L * 1024L) {
+            return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024.0));
+        } else if (bytes >= 1024L) {
+            return String.format(Locale.US, "%.1f KB", bytes / 1024.0);
+        }
+        return bytes + " B";
+    }
+}
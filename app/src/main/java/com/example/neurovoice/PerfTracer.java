@@ -0,0 +1,206 @@
+package com.example.neurovoice;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import com.google.gson.GsonBuilder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class PerfTracer {
+
+    private static final String TAG = "PerfTracer";
+    private static final int MAX_OPERATIONS = 100;
+    // Pętle kopiujące dodają bajty co bufor - sterta jest próbkowana najwyżej raz na tyle bajtów
+    private static final long HEAP_SAMPLE_BYTES = 4L * 1024 * 1024;
+    private static final AtomicInteger asyncCookies = new AtomicInteger();
+    private static final ArrayDeque<Operation> recent = new ArrayDeque<>();
+    private static final Map<String, Totals> totals = new HashMap<>();
+
+    private PerfTracer() {
+    }
+
+    public static final class Operation {
+        public final String name;
+        public final long startedAt;
+        public final long durationMs;
+        public final long bytes;
+        public final long peakHeapBytes;
+        public final boolean success;
+        public final String detail;
+
+        Operation(String name, long startedAt, long durationMs, long bytes, long peakHeapBytes, boolean success, String detail) {
+            this.name = name;
+            this.startedAt = startedAt;
+            this.durationMs = durationMs;
+            this.bytes = bytes;
+            this.peakHeapBytes = peakHeapBytes;
+            this.success = success;
+            this.detail = detail;
+        }
+
+        public double throughputMbPerSecond() {
+            if (durationMs <= 0 || bytes <= 0) {
+                return 0;
+            }
+            return (bytes / (1024.0 * 1024.0)) / (durationMs / 1000.0);
+        }
+    }
+
+    public static final class Totals {
+        public int count;
+        public long bytes;
+        public long durationMs;
+        public long peakHeapBytes;
+    }
+
+    // Sekcja synchroniczna - musi zostać zamknięta w tym samym wątku, w którym ją otwarto.
+    // Ciało try-with-resources kończy się complete(); sekcja zamknięta bez tego (wyjątek,
+    // wcześniejszy return) jest zapisywana jako nieudana.
+    public static final class Section implements AutoCloseable {
+        private final String name;
+        private final boolean async;
+        private final int cookie;
+        private final long startedAt = System.currentTimeMillis();
+        private final long startNanos = SystemClock.elapsedRealtimeNanos();
+        private long bytes;
+        private long sampledBytes;
+        private long peakHeap;
+        private boolean success = true;
+        private boolean completed;
+        private String detail;
+        private boolean closed;
+
+        private Section(String name, boolean async) {
+            this.name = name;
+            this.async = async;
+            this.cookie = async ? asyncCookies.incrementAndGet() : 0;
+            this.peakHeap = usedHeap();
+            if (async) {
+                Trace.beginAsyncSection(name, cookie);
+            } else {
+                Trace.beginSection(name);
+            }
+        }
+
+        public void addBytes(long count) {
+            bytes += count;
+            if (bytes - sampledBytes >= HEAP_SAMPLE_BYTES) {
+                sampledBytes = bytes;
+                samplePeakHeap();
+            }
+        }
+
+        public void samplePeakHeap() {
+            peakHeap = Math.max(peakHeap, usedHeap());
+        }
+
+        public void setDetail(String detail) {
+            this.detail = detail;
+        }
+
+        public void fail(Throwable t) {
+            success = false;
+            detail = t.getClass().getSimpleName() + ": " + t.getMessage();
+        }
+
+        // Tylko sekcje synchroniczne - oznacza, że ciało sekcji doszło do końca
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!async && !completed && success) {
+                success = false;
+                detail = (detail != null ? detail + ", " : "") + "aborted";
+            }
+            samplePeakHeap();
+            if (async) {
+                Trace.endAsyncSection(name, cookie);
+            } else {
+                Trace.endSection();
+            }
+            long durationMs = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1_000_000L;
+            record(new Operation(name, startedAt, durationMs, bytes, peakHeap, success, detail));
+        }
+    }
+
+    public static Section begin(String name) {
+        return new Section(name, false);
+    }
+
+    // Sekcja asynchroniczna - może zostać zamknięta w innym wątku (np. w callbacku Retrofit)
+    public static Section beginAsync(String name) {
+        return new Section(name, true);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static synchronized void record(Operation operation) {
+        if (recent.size() >= MAX_OPERATIONS) {
+            recent.removeFirst();
+        }
+        recent.addLast(operation);
+        Totals total = totals.get(operation.name);
+        if (total == null) {
+            total = new Totals();
+            totals.put(operation.name, total);
+        }
+        total.count++;
+        total.bytes += operation.bytes;
+        total.durationMs += operation.durationMs;
+        total.peakHeapBytes = Math.max(total.peakHeapBytes, operation.peakHeapBytes);
+        Log.d(TAG, operation.name + ": " + operation.durationMs + " ms, " + operation.bytes + " B, peak heap "
+                + operation.peakHeapBytes / 1024 + " KB" + (operation.success ? "" : " (failed)"));
+    }
+
+    // Najnowsze operacje jako pierwsze
+    public static synchronized List<Operation> getRecentOperations() {
+        List<Operation> operations = new ArrayList<>(recent);
+        Collections.reverse(operations);
+        return operations;
+    }
+
+    public static synchronized Map<String, Totals> getTotals() {
+        Map<String, Totals> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+            Totals total = new Totals();
+            total.count = entry.getValue().count;
+            total.bytes = entry.getValue().bytes;
+            total.durationMs = entry.getValue().durationMs;
+            total.peakHeapBytes = entry.getValue().peakHeapBytes;
+            copy.put(entry.getKey(), total);
+        }
+        return copy;
+    }
+
+    public static synchronized void clear() {
+        recent.clear();
+        totals.clear();
+    }
+
+    public static String exportJson() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("device", android.os.Build.MANUFACTURER + " " + android.os.Build.MODEL);
+        report.put("sdk", android.os.Build.VERSION.SDK_INT);
+        report.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        report.put("exportedAt", System.currentTimeMillis());
+        report.put("totals", getTotals());
+        report.put("operations", getRecentOperations());
+        return new GsonBuilder().setPrettyPrinting().create().toJson(report);
+    }
+}
@@ -22,7 +22,9 @@ import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -43,7 +45,7 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
     private ImageView bookCover;
     private TextView bookTitle;
     private TextView bookAuthor;
-    private List<String> chapterFiles = new ArrayList<>();
+    private List<Chapter> chapters = new ArrayList<>();
     private List<String> chapterTitles = new ArrayList<>();
     private String zipFilePath;
     private String coverPath;
@@ -52,7 +54,22 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
     private Handler handler = new Handler(Looper.getMainLooper());
     private boolean isSeeking = false;
     private int currentChapterIndex = 0;
+    private int currentPartIndex = 0;
     private ChapterAdapter chapterAdapter;
+    private ChapterIndex chapterIndex;
+    private boolean chapterIndexLoaded = false;
+    private boolean playerPrepared = false;
+    private IoExecutor.Task<?> chapterTask;
+    private IoExecutor.Task<ChapterIndex> indexTask;
+    // Odtwarzanie strumieniowe: rozdziały z serwera zamiast z pliku ZIP
+    private String streamJobId;
+    private int lastStreamChapter = -1;
+    private boolean streamFinished = false;
+    private boolean waitingForNextChapter = false;
+    private IoExecutor.Task<ChapterListing> listingTask;
+    private static final long LISTING_POLL_MS = 3000;
+    private static final int COVER_WIDTH_DP = 470;
+    private static final int COVER_HEIGHT_DP = 531;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -78,63 +95,206 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
         bookAuthor = findViewById(R.id.book_author);
 
         zipFilePath = getIntent().getStringExtra("zip_file_path");
+        streamJobId = getIntent().getStringExtra("stream_job_id");
         coverPath = getIntent().getStringExtra("cover_path");
         title = getIntent().getStringExtra("title");
         author = getIntent().getStringExtra("author");
-        if (zipFilePath == null || !new File(zipFilePath).exists()) {
+        if (zipFilePath == null && streamJobId == null) {
             Toast.makeText(this, "Błąd: Plik ZIP nie znaleziony", Toast.LENGTH_LONG).show();
             finish();
             return;
         }
 
-        if (coverPath != null && new File(coverPath).exists()) {
-            bookCover.setImageURI(android.net.Uri.fromFile(new File(coverPath)));
-            Log.d(TAG, "Book cover loaded: " + coverPath);
-        } else {
-            bookCover.setImageResource(R.drawable.ic_default_cover); // Use consistent placeholder
-            Log.d(TAG, "Default cover loaded");
-        }
+        float density = getResources().getDisplayMetrics().density;
+        CoverLoader.load(bookCover, coverPath, (int) (COVER_WIDTH_DP * density), (int) (COVER_HEIGHT_DP * density));
 
         // Ustawienie tytułu i autora
         bookTitle.setText(title != null ? title : "Nieznany tytuł");
         bookAuthor.setText(author != null ? author : "Nieznany autor");
         Log.d(TAG, "Book title set: " + title + ", author set: " + author);
 
-        loadChapters();
-        if (chapterFiles.isEmpty()) {
-            Toast.makeText(this, "ZIP nie zawiera plików audio lub archiwum jest uszkodzone", Toast.LENGTH_LONG).show();
-            finish();
+        // Initialize ChapterAdapter
+        chapterAdapter = new ChapterAdapter(this, chapterTitles, this);
+        setupControls();
+        updateSeekBar();
+
+        if (streamJobId != null) {
+            chaptersButton.setText("Przetwarzanie książki...");
+            refreshStreamListing();
             return;
         }
+        chapterTask = IoExecutor.get().submit("loadChapters", task -> {
+            if (!new File(zipFilePath).exists()) {
+                throw new IOException("Plik ZIP nie znaleziony");
+            }
+            ChapterList chapters = new ChapterList();
+            loadChapters(chapters.chapters, chapters.titles);
+            return chapters;
+        }, new IoExecutor.Callback<ChapterList>() {
+            @Override
+            public void onSuccess(ChapterList loaded) {
+                chapters.addAll(loaded.chapters);
+                chapterTitles.addAll(loaded.titles);
+                if (chapters.isEmpty()) {
+                    Toast.makeText(PlayerActivity.this, "ZIP nie zawiera plików audio lub archiwum jest uszkodzone", Toast.LENGTH_LONG).show();
+                    finish();
+                    return;
+                }
+                chapterAdapter.notifyDataSetChanged();
+                setupMediaPlayer(0, false);
+            }
 
-        // Initialize ChapterAdapter
-        chapterAdapter = new ChapterAdapter(this, chapterTitles, this);
-        chapterAdapter.setCurrentChapterIndex(currentChapterIndex);
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error reading ZIP: " + e.getMessage(), e);
+                Toast.makeText(PlayerActivity.this, "Błąd podczas odczytu ZIP: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                finish();
+            }
+        });
+    }
 
-        setupMediaPlayer(0);
-        setupControls();
+    private static class ChapterList {
+        final List<Chapter> chapters = new ArrayList<>();
+        final List<String> titles = new ArrayList<>();
     }
 
-    private void loadChapters() {
-        try {
-            ZipFile zipFile = new ZipFile(zipFilePath);
+    // Rozdział odtwarzany jako całość, choć długie rozdziały składają się z kilku plików MP3
+    private static class Chapter {
+        final List<Part> parts = new ArrayList<>();
+        String indexEntry; // wpis indeksu zdań w ZIP, null - brak indeksu
+        String indexUrl; // indeks zdań przy odtwarzaniu strumieniowym
+        long durationMs; // 0 - nieznana, wtedy długość pojedynczego pliku podaje MediaPlayer
+        int streamIndex;
+    }
+
+    private static class Part {
+        String entryName; // wpis w ZIP
+        ChapterListing.Segment stream; // albo segment na serwerze
+        long startMs;
+        long durationMs;
+
+        String name() {
+            return stream != null ? stream.name : entryName;
+        }
+    }
+
+    // Dopóki serwer przetwarza książkę, lista rozdziałów jest odświeżana co kilka sekund
+    private void refreshStreamListing() {
+        if (listingTask != null) {
+            return;
+        }
+        listingTask = IoExecutor.get().submit("listing " + streamJobId,
+                task -> StreamClient.get().fetchChapters(streamJobId),
+                new IoExecutor.Callback<ChapterListing>() {
+                    @Override
+                    public void onSuccess(ChapterListing listing) {
+                        listingTask = null;
+                        onStreamListing(listing);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        listingTask = null;
+                        Log.e(TAG, "Error loading chapter listing: " + e.getMessage(), e);
+                        if (chapters.isEmpty()) {
+                            Toast.makeText(PlayerActivity.this, "Błąd odtwarzania: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                            finish();
+                        } else {
+                            handler.postDelayed(PlayerActivity.this::refreshStreamListing, LISTING_POLL_MS);
+                        }
+                    }
+                });
+    }
+
+    private void onStreamListing(ChapterListing listing) {
+        boolean firstChapters = chapters.isEmpty();
+        if (listing.chapters != null) {
+            for (ChapterListing.Chapter listed : listing.chapters) {
+                if (listed.index <= lastStreamChapter || listed.segments == null || listed.segments.isEmpty()) {
+                    continue;
+                }
+                lastStreamChapter = listed.index;
+                Chapter chapter = new Chapter();
+                chapter.streamIndex = listed.index;
+                chapter.indexUrl = listed.indexUrl;
+                chapter.durationMs = listed.durationMs != null ? listed.durationMs : 0;
+                for (ChapterListing.Segment segment : listed.segments) {
+                    Part part = new Part();
+                    part.stream = segment;
+                    part.startMs = segment.startMs;
+                    part.durationMs = segment.durationMs != null ? segment.durationMs : 0;
+                    chapter.parts.add(part);
+                }
+                chapters.add(chapter);
+                chapterTitles.add(listed.title != null ? listed.title : "Rozdział " + (listed.index + 1));
+            }
+        }
+        chapterAdapter.notifyDataSetChanged();
+        streamFinished = listing.isFinished();
+        Log.d(TAG, "Stream listing: " + chapters.size() + " chapters, status: " + listing.status);
+
+        if (chapters.isEmpty()) {
+            if (streamFinished) {
+                Toast.makeText(this, "Przetwarzanie książki nie powiodło się: " + listing.error, Toast.LENGTH_LONG).show();
+                finish();
+                return;
+            }
+        } else if (firstChapters) {
+            setupMediaPlayer(0, false);
+        } else if (waitingForNextChapter && currentChapterIndex + 1 < chapters.size()) {
+            waitingForNextChapter = false;
+            setupMediaPlayer(currentChapterIndex + 1, true);
+        }
+        if (!streamFinished) {
+            handler.postDelayed(this::refreshStreamListing, LISTING_POLL_MS);
+        } else if (ChapterListing.STATUS_FAILED.equals(listing.status)) {
+            Toast.makeText(this, "Nie wszystkie rozdziały zostały przetworzone: " + listing.error, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    // Wywoływane z wątku roboczego; listy rozdziałów trafiają do UI dopiero po zakończeniu zadania
+    private void loadChapters(List<Chapter> chapters, List<String> chapterTitles) throws IOException {
+        try (ZipFile zipFile = new ZipFile(zipFilePath)) {
+            BookManifest manifest = BookManifest.load(zipFile);
+            if (manifest != null) {
+                for (BookManifest.Chapter listed : manifest.chapters) {
+                    Chapter chapter = new Chapter();
+                    chapter.indexEntry = listed.indexName;
+                    chapter.durationMs = listed.durationMs != null ? listed.durationMs : 0;
+                    for (BookManifest.Segment segment : listed.segments) {
+                        Part part = new Part();
+                        part.entryName = segment.name;
+                        part.startMs = segment.startMs;
+                        part.durationMs = segment.durationMs != null ? segment.durationMs : 0;
+                        chapter.parts.add(part);
+                    }
+                    chapters.add(chapter);
+                    chapterTitles.add(listed.title != null ? listed.title : "Rozdział " + chapters.size());
+                }
+                Log.d(TAG, "Total chapters loaded from manifest: " + chapters.size());
+                return;
+            }
+            // Archiwum bez spisu: każdy plik MP3 to osobny rozdział
             java.util.Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            chapterFiles.clear();
-            chapterTitles.clear();
             List<String> zipContents = new ArrayList<>();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String entryName = entry.getName();
                 zipContents.add(entryName);
                 if (!entry.isDirectory() && entryName.endsWith(".mp3")) {
-                    chapterFiles.add(entryName);
+                    Chapter chapter = new Chapter();
+                    chapter.indexEntry = ChapterIndex.indexEntryName(entryName);
+                    Part part = new Part();
+                    part.entryName = entryName;
+                    chapter.parts.add(part);
+                    chapters.add(chapter);
                     // Wyodrębniamy tytuł rozdziału z nazwy pliku
                     String chapterTitle = entryName
                             .replace(".mp3", "")
                             .replace("_", " ")
                             .trim();
                     if (chapterTitle.isEmpty()) {
-                        chapterTitle = "Rozdział " + (chapterFiles.size());
+                        chapterTitle = "Rozdział " + (chapters.size());
                     }
                     chapterTitles.add(chapterTitle);
                     Log.d(TAG, "Found chapter: " + entryName + ", title: " + chapterTitle);
@@ -142,65 +302,204 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
                     Log.d(TAG, "Skipped entry: " + entryName + " (not an MP3 file)");
                 }
             }
-            zipFile.close();
-            Log.d(TAG, "Total chapters loaded: " + chapterFiles.size());
-            Log.d(TAG, "Chapter files: " + chapterFiles.toString());
+            Log.d(TAG, "Total chapters loaded: " + chapters.size());
             Log.d(TAG, "Chapter titles: " + chapterTitles.toString());
             Log.d(TAG, "ZIP contents: " + zipContents.toString());
-            if (chapterFiles.isEmpty()) {
+            if (chapters.isEmpty()) {
                 Log.e(TAG, "No MP3 files found in ZIP: " + zipFilePath);
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Error reading ZIP: " + e.getMessage(), e);
-            Toast.makeText(this, "Błąd podczas odczytu ZIP: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            finish();
         }
     }
 
-    private void setupMediaPlayer(int chapterIndex) {
-        try {
-            currentChapterIndex = chapterIndex;
-            File tempFile = extractChapter(chapterFiles.get(chapterIndex));
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(tempFile.getAbsolutePath());
-            mediaPlayer.prepare();
-            audioSeekBar.setMax(mediaPlayer.getDuration());
-            updateTimeText(0, mediaPlayer.getDuration());
+    private void setupMediaPlayer(int chapterIndex, boolean autoPlay) {
+        if (indexTask != null) {
+            indexTask.cancel();
+            indexTask = null;
+        }
+        this.chapterIndex = null;
+        chapterIndexLoaded = false;
+        setupMediaPlayer(chapterIndex, 0, 0, autoPlay);
+    }
 
-            // Aktualizacja tekstu przycisku i adaptera
-            chaptersButton.setText(chapterTitles.get(currentChapterIndex));
-            chapterAdapter.setCurrentChapterIndex(currentChapterIndex); // Update highlighting
-            Log.d(TAG, "Chapters button updated to: " + chapterTitles.get(currentChapterIndex));
+    // Bezpośrednio tylko przy przejściu do innego pliku bieżącego rozdziału - indeks zdań zostaje
+    private void setupMediaPlayer(int chapterIndex, int partIndex, int partPosition, boolean autoPlay) {
+        stopMediaPlayer();
+        if (chapterTask != null) {
+            chapterTask.cancel();
+        }
+        Chapter chapter = chapters.get(chapterIndex);
+        Part part = chapter.parts.get(partIndex);
+        String chapterFile = part.name();
+        PerfTracer.Section switchSection = PerfTracer.beginAsync(partIndex == 0 ? "player.chapterSwitch" : "player.partSwitch");
+        switchSection.setDetail(chapterFile);
+        currentChapterIndex = chapterIndex;
+        currentPartIndex = partIndex;
+        waitingForNextChapter = false;
+
+        // Aktualizacja tekstu przycisku i adaptera
+        chaptersButton.setText(chapterTitles.get(currentChapterIndex));
+        chapterAdapter.setCurrentChapterIndex(currentChapterIndex); // Update highlighting
+        Log.d(TAG, "Chapters button updated to: " + chapterTitles.get(currentChapterIndex));
+
+        IoExecutor.Callback<Closeable> callback = new IoExecutor.Callback<Closeable>() {
+            @Override
+            public void onSuccess(Closeable source) {
+                startPlayer(chapterFile, source, partPosition, autoPlay, switchSection);
+            }
 
-            mediaPlayer.setOnCompletionListener(mp -> {
-                playPauseButton.setImageResource(R.drawable.play);
-                audioSeekBar.setProgress(0);
-                updateTimeText(0, mediaPlayer.getDuration());
-                Log.d(TAG, "Playback completed for chapter: " + chapterFiles.get(chapterIndex));
-
-                // Automatyczne przejście do następnego rozdziału
-                if (currentChapterIndex + 1 < chapterFiles.size()) {
-                    stopMediaPlayer();
-                    setupMediaPlayer(currentChapterIndex + 1);
-                    mediaPlayer.start();
-                    playPauseButton.setImageResource(R.drawable.stop);
-                    Log.d(TAG, "Automatically playing next chapter: " + chapterFiles.get(currentChapterIndex));
-                } else {
-                    Log.d(TAG, "No more chapters to play");
-                }
-            });
+            @Override
+            public void onError(Exception e) {
+                switchSection.fail(e);
+                switchSection.close();
+                Log.e(TAG, "Error playing chapter: " + e.getMessage(), e);
+                Toast.makeText(PlayerActivity.this, "Błąd odtwarzania: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                finish();
+            }
+        };
+        if (streamJobId != null) {
+            // Pierwsze użycie SegmentCache przegląda katalog - dlatego źródło tworzymy w tle
+            chapterTask = IoExecutor.get().submit("stream " + chapterFile,
+                    task -> new StreamingDataSource(SegmentCache.get(this), StreamClient.get(), streamJobId,
+                            chapter.streamIndex, part.stream),
+                    callback);
+            return;
+        }
+        chapterTask = IoExecutor.get().submit("extract " + chapterFile, task -> {
+            File tempFile = extractChapter(chapterFile, task);
+            // Deskryptor otwieramy w tle, aby setDataSource nie czytał dysku w wątku UI
+            return new FileInputStream(tempFile);
+        }, callback);
+    }
 
-            updateSeekBar();
-            Log.d(TAG, "MediaPlayer setup for chapter: " + chapterFiles.get(chapterIndex));
+    // Źródłem jest rozpakowany plik albo StreamingDataSource; plik zamykamy zaraz po setDataSource
+    // (MediaPlayer duplikuje deskryptor), a StreamingDataSource MediaPlayer czyta przez cały czas
+    // odtwarzania i zamyka je sam przy release()
+    private void startPlayer(String chapterFile, Closeable source, int partPosition, boolean autoPlay,
+                             PerfTracer.Section switchSection) {
+        PerfTracer.Section section = PerfTracer.beginAsync("player.prepare");
+        section.setDetail(chapterFile);
+        try {
+            mediaPlayer = new MediaPlayer();
+            if (source instanceof StreamingDataSource) {
+                StreamingDataSource dataSource = (StreamingDataSource) source;
+                section.addBytes(dataSource.getSize());
+                mediaPlayer.setDataSource(dataSource);
+            } else {
+                FileInputStream inputStream = (FileInputStream) source;
+                section.addBytes(inputStream.getChannel().size());
+                mediaPlayer.setDataSource(inputStream.getFD());
+                closeQuietly(inputStream);
+            }
         } catch (IOException e) {
+            section.fail(e);
+            section.close();
+            switchSection.fail(e);
+            switchSection.close();
+            closeQuietly(source);
             Log.e(TAG, "Error playing chapter: " + e.getMessage(), e);
             Toast.makeText(this, "Błąd odtwarzania: " + e.getMessage(), Toast.LENGTH_LONG).show();
             finish();
+            return;
+        }
+        MediaPlayer player = mediaPlayer;
+        player.setOnPreparedListener(mp -> {
+            section.close();
+            switchSection.close();
+            if (mp != mediaPlayer) {
+                return;
+            }
+            playerPrepared = true;
+            if (partPosition > 0) {
+                mp.seekTo(partPosition);
+            }
+            int position = (int) currentPart().startMs + partPosition;
+            audioSeekBar.setMax(chapterDurationMs());
+            audioSeekBar.setProgress(position);
+            updateTimeText(position, chapterDurationMs());
+            if (autoPlay) {
+                mp.start();
+                playPauseButton.setImageResource(R.drawable.stop);
+            }
+            Log.d(TAG, "MediaPlayer setup for chapter: " + chapterFile);
+        });
+        player.setOnErrorListener((mp, what, extra) -> {
+            closeQuietly(source);
+            section.setDetail(chapterFile + " error " + what + "/" + extra);
+            section.close();
+            switchSection.close();
+            Log.e(TAG, "MediaPlayer error " + what + "/" + extra + " for chapter: " + chapterFile);
+            return false;
+        });
+        player.setOnCompletionListener(mp -> {
+            // Kolejny plik długiego rozdziału - bez zmiany rozdziału i paska postępu
+            if (currentPartIndex + 1 < chapters.get(currentChapterIndex).parts.size()) {
+                setupMediaPlayer(currentChapterIndex, currentPartIndex + 1, 0, true);
+                Log.d(TAG, "Continuing chapter with: " + currentPart().name());
+                return;
+            }
+            playPauseButton.setImageResource(R.drawable.play);
+            audioSeekBar.setProgress(0);
+            updateTimeText(0, chapterDurationMs());
+            Log.d(TAG, "Playback completed for chapter: " + chapterFile);
+
+            // Automatyczne przejście do następnego rozdziału
+            if (currentChapterIndex + 1 < chapters.size()) {
+                setupMediaPlayer(currentChapterIndex + 1, true);
+                Log.d(TAG, "Automatically playing next chapter: " + chapterTitles.get(currentChapterIndex));
+            } else if (streamJobId != null && !streamFinished) {
+                // Kolejny rozdział jest jeszcze przetwarzany - ruszy po odświeżeniu listy
+                waitingForNextChapter = true;
+                Toast.makeText(this, "Następny rozdział jest jeszcze przetwarzany", Toast.LENGTH_SHORT).show();
+            } else {
+                Log.d(TAG, "No more chapters to play");
+            }
+        });
+        player.prepareAsync();
+    }
+
+    // Osobny katalog dla każdej instancji - sprzątanie w tle po zamknięciu odtwarzacza
+    // nie może usunąć pliku, który rozpakowuje kolejna instancja
+    private File getTempAudioDir() {
+        return new File(new File(getCacheDir(), "temp_audio"), Integer.toHexString(System.identityHashCode(this)));
+    }
+
+    private static void closeQuietly(Closeable source) {
+        try {
+            source.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close chapter stream", e);
+        }
+    }
+
+    private Part currentPart() {
+        return chapters.get(currentChapterIndex).parts.get(currentPartIndex);
+    }
+
+    // Pozycje na pasku postępu i w indeksie zdań dotyczą całego rozdziału, nie bieżącego pliku
+    private int currentPositionMs() {
+        return (int) currentPart().startMs + mediaPlayer.getCurrentPosition();
+    }
+
+    private int chapterDurationMs() {
+        Chapter chapter = chapters.get(currentChapterIndex);
+        if (chapter.parts.size() == 1 || chapter.durationMs <= 0) {
+            return (int) currentPart().startMs + mediaPlayer.getDuration();
+        }
+        return (int) chapter.durationMs;
+    }
+
+    private int partAt(int positionMs) {
+        List<Part> parts = chapters.get(currentChapterIndex).parts;
+        int found = 0;
+        while (found + 1 < parts.size() && parts.get(found + 1).startMs <= positionMs) {
+            found++;
         }
+        return found;
     }
 
-    private File extractChapter(String chapterPath) throws IOException {
-        File tempDir = new File(getCacheDir(), "temp_audio");
+    // Wywoływane z wątku roboczego
+    private File extractChapter(String chapterPath, IoExecutor.Task<?> task) throws IOException {
+        File tempDir = getTempAudioDir();
         if (!tempDir.exists()) {
             tempDir.mkdirs();
         }
@@ -210,27 +509,34 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
             Log.d(TAG, "Deleted cached file: " + tempFile.getAbsolutePath());
         }
 
-        ZipFile zipFile = new ZipFile(zipFilePath);
-        ZipEntry entry = zipFile.getEntry(chapterPath);
-        if (entry == null) {
-            throw new IOException("Chapter not found in ZIP: " + chapterPath);
-        }
-        FileOutputStream outputStream = new FileOutputStream(tempFile);
-        byte[] buffer = new byte[1024];
-        int bytesRead;
-        java.io.InputStream inputStream = zipFile.getInputStream(entry);
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+        try (ZipFile zipFile = new ZipFile(zipFilePath)) {
+            ZipEntry entry = zipFile.getEntry(chapterPath);
+            if (entry == null) {
+                throw new IOException("Chapter not found in ZIP: " + chapterPath);
+            }
+            try (PerfTracer.Section section = PerfTracer.begin("player.extractChapter");
+                 FileOutputStream outputStream = new FileOutputStream(tempFile);
+                 java.io.InputStream inputStream = zipFile.getInputStream(entry)) {
+                section.setDetail(chapterPath);
+                byte[] buffer = new byte[64 * 1024];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                    section.addBytes(bytesRead);
+                    task.throwIfCancelled();
+                }
+                section.complete();
+            }
         }
-        outputStream.close();
-        inputStream.close();
-        zipFile.close();
         Log.d(TAG, "Extracted chapter: " + tempFile.getAbsolutePath());
         return tempFile;
     }
 
     private void setupControls() {
         playPauseButton.setOnClickListener(v -> {
+            if (!playerPrepared) {
+                return;
+            }
             if (mediaPlayer.isPlaying()) {
                 mediaPlayer.pause();
                 playPauseButton.setImageResource(R.drawable.play);
@@ -243,29 +549,65 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
         });
 
         rewindButton.setOnClickListener(v -> {
-            int newPosition = mediaPlayer.getCurrentPosition() - 10000;
+            if (!playerPrepared) {
+                return;
+            }
+            int newPosition = currentPositionMs() - 10000;
             if (newPosition < 0) newPosition = 0;
-            mediaPlayer.seekTo(newPosition);
-            audioSeekBar.setProgress(newPosition);
-            updateTimeText(newPosition, mediaPlayer.getDuration());
+            seekTo(newPosition);
             Log.d(TAG, "Rewind to: " + newPosition);
         });
 
         forwardButton.setOnClickListener(v -> {
-            int newPosition = mediaPlayer.getCurrentPosition() + 10000;
-            if (newPosition > mediaPlayer.getDuration()) newPosition = mediaPlayer.getDuration();
-            mediaPlayer.seekTo(newPosition);
-            audioSeekBar.setProgress(newPosition);
-            updateTimeText(newPosition, mediaPlayer.getDuration());
+            if (!playerPrepared) {
+                return;
+            }
+            int newPosition = currentPositionMs() + 10000;
+            if (newPosition > chapterDurationMs()) newPosition = chapterDurationMs();
+            seekTo(newPosition);
             Log.d(TAG, "Forward to: " + newPosition);
         });
 
+        // Długie przytrzymanie: skok o zdanie według indeksu znaczników czasu z serwera
+        rewindButton.setOnLongClickListener(v -> {
+            if (!playerPrepared) {
+                return false;
+            }
+            withChapterIndex(index -> {
+                seekTo((int) index.previousSentenceStart(currentPositionMs()));
+                Log.d(TAG, "Jumped to previous sentence");
+            });
+            return true;
+        });
+
+        forwardButton.setOnLongClickListener(v -> {
+            if (!playerPrepared) {
+                return false;
+            }
+            withChapterIndex(index -> {
+                long next = index.nextSentenceStart(currentPositionMs());
+                if (next >= 0) {
+                    seekTo((int) next);
+                    Log.d(TAG, "Jumped to next sentence");
+                }
+            });
+            return true;
+        });
+
+        timeText.setOnLongClickListener(v -> {
+            showFindTextDialog();
+            return true;
+        });
+
         audioSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                if (fromUser) {
-                    mediaPlayer.seekTo(progress);
-                    updateTimeText(progress, mediaPlayer.getDuration());
+                if (fromUser && playerPrepared) {
+                    // Zmiana pliku długiego rozdziału dopiero po puszczeniu paska
+                    if (partAt(progress) == currentPartIndex) {
+                        mediaPlayer.seekTo(progress - (int) currentPart().startMs);
+                    }
+                    updateTimeText(progress, chapterDurationMs());
                     Log.d(TAG, "Seek to: " + progress);
                 }
             }
@@ -278,12 +620,103 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
                 isSeeking = false;
+                if (playerPrepared && partAt(seekBar.getProgress()) != currentPartIndex) {
+                    seekTo(seekBar.getProgress());
+                }
             }
         });
 
         chaptersButton.setOnClickListener(v -> showChaptersDialog());
     }
 
+    // Indeks rozdziału wczytywany leniwie w tle; akcja wykona się po wczytaniu
+    private void withChapterIndex(IndexAction action) {
+        if (chapterIndexLoaded) {
+            if (chapterIndex == null) {
+                Toast.makeText(this, "Ten rozdział nie ma indeksu zdań", Toast.LENGTH_SHORT).show();
+            } else {
+                action.run(chapterIndex);
+            }
+            return;
+        }
+        if (indexTask != null) {
+            return;
+        }
+        Chapter chapter = chapters.get(currentChapterIndex);
+        indexTask = IoExecutor.get().submit("index " + chapterTitles.get(currentChapterIndex), task -> {
+                    if (streamJobId != null) {
+                        return StreamClient.get().fetchIndex(chapter.indexUrl);
+                    }
+                    return chapter.indexEntry != null ? ChapterIndex.load(zipFilePath, chapter.indexEntry) : null;
+                },
+                new IoExecutor.Callback<ChapterIndex>() {
+                    @Override
+                    public void onSuccess(ChapterIndex index) {
+                        onIndexLoaded(index);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error loading chapter index: " + e.getMessage(), e);
+                        onIndexLoaded(null);
+                    }
+
+                    private void onIndexLoaded(ChapterIndex index) {
+                        indexTask = null;
+                        chapterIndex = index;
+                        chapterIndexLoaded = true;
+                        Log.d(TAG, "Chapter index " + (index != null ? "loaded, entries: " + index.size() : "not available"));
+                        if (playerPrepared) {
+                            withChapterIndex(action);
+                        }
+                    }
+                });
+    }
+
+    private interface IndexAction {
+        void run(ChapterIndex index);
+    }
+
+    // Pozycja w całym rozdziale; w innym pliku długiego rozdziału odtwarzanie przechodzi do tego pliku
+    private void seekTo(int position) {
+        int part = partAt(position);
+        int partPosition = position - (int) chapters.get(currentChapterIndex).parts.get(part).startMs;
+        audioSeekBar.setProgress(position);
+        updateTimeText(position, chapterDurationMs());
+        if (part == currentPartIndex) {
+            mediaPlayer.seekTo(partPosition);
+        } else {
+            setupMediaPlayer(currentChapterIndex, part, partPosition, mediaPlayer.isPlaying());
+        }
+    }
+
+    private void showFindTextDialog() {
+        if (playerPrepared) {
+            withChapterIndex(this::showFindTextDialog);
+        }
+    }
+
+    private void showFindTextDialog(ChapterIndex index) {
+        new AlertDialog.Builder(this, R.style.CustomAlertDialog)
+                .setTitle("Przejdź do fragmentu tekstu")
+                .setView(R.layout.dialog_edit_text)
+                .setPositiveButton("Szukaj", (dialog, which) -> {
+                    TextView input = ((AlertDialog) dialog).findViewById(R.id.edit_text_input);
+                    if (input == null) {
+                        return;
+                    }
+                    int offset = index.findText(input.getText().toString());
+                    if (offset < 0) {
+                        Toast.makeText(this, "Nie znaleziono tekstu w rozdziale", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    seekTo((int) index.positionForTextOffset(offset));
+                    Log.d(TAG, "Jumped to text offset: " + offset);
+                })
+                .setNegativeButton("Anuluj", null)
+                .show();
+    }
+
     private void showChaptersDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.CustomAlertDialog);
         builder.setTitle("Wybierz rozdział")
@@ -309,10 +742,7 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
                         return convertView;
                     }
                 }, (dialog, which) -> {
-                    stopMediaPlayer();
-                    setupMediaPlayer(which);
-                    mediaPlayer.start();
-                    playPauseButton.setImageResource(R.drawable.stop);
+                    setupMediaPlayer(which, true);
                     Log.d(TAG, "Selected chapter: " + chapterTitles.get(which));
                 })
                 .setNegativeButton("Anuluj", null);
@@ -336,10 +766,10 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
         handler.postDelayed(new Runnable() {
             @Override
             public void run() {
-                if (mediaPlayer != null && !isSeeking) {
-                    int currentPosition = mediaPlayer.getCurrentPosition();
+                if (mediaPlayer != null && playerPrepared && !isSeeking) {
+                    int currentPosition = currentPositionMs();
                     audioSeekBar.setProgress(currentPosition);
-                    updateTimeText(currentPosition, mediaPlayer.getDuration());
+                    updateTimeText(currentPosition, chapterDurationMs());
                 }
                 handler.postDelayed(this, 1000);
             }
@@ -348,7 +778,10 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
 
     private void stopMediaPlayer() {
         if (mediaPlayer != null) {
-            mediaPlayer.stop();
+            if (playerPrepared) {
+                mediaPlayer.stop();
+            }
+            playerPrepared = false;
             mediaPlayer.release();
             mediaPlayer = null;
             Log.d(TAG, "MediaPlayer stopped and released");
@@ -357,24 +790,35 @@ public class PlayerActivity extends AppCompatActivity implements ChapterAdapter.
 
     @Override
     public void onChapterClick(int position) {
-        stopMediaPlayer();
-        setupMediaPlayer(position);
-        mediaPlayer.start();
-        playPauseButton.setImageResource(R.drawable.stop);
+        setupMediaPlayer(position, true);
         Log.d(TAG, "Selected chapter: " + chapterTitles.get(position));
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (chapterTask != null) {
+            chapterTask.cancel();
+        }
+        if (indexTask != null) {
+            indexTask.cancel();
+        }
+        if (listingTask != null) {
+            listingTask.cancel();
+        }
         stopMediaPlayer();
         handler.removeCallbacksAndMessages(null);
-        File tempDir = new File(getCacheDir(), "temp_audio");
-        if (tempDir.exists()) {
-            for (File file : tempDir.listFiles()) {
+        File tempDir = getTempAudioDir();
+        IoExecutor.get().execute("cleanupTempAudio", () -> {
+            File[] files = tempDir.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
                 file.delete();
                 Log.d(TAG, "Deleted temp file: " + file.getAbsolutePath());
             }
-        }
+            tempDir.delete();
+        });
     }
 }
\ No newline at end of file
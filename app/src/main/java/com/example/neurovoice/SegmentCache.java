@@ -0,0 +1,155 @@
+package com.example.neurovoice;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Ograniczona dyskowa pamięć podręczna segmentów rozdziałów odtwarzanych strumieniowo (LRU).
+// Pierwsze wywołanie get() przegląda katalog - tylko z wątku roboczego.
+public final class SegmentCache {
+
+    private static final String TAG = "SegmentCache";
+    static final int SEGMENT_BYTES = 256 * 1024;
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+    private static final String SUFFIX = ".seg";
+    private static volatile SegmentCache instance;
+
+    private final File directory;
+    // Kolejność dostępu: najdawniej używane segmenty są usuwane jako pierwsze
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    private SegmentCache(File directory) {
+        this.directory = directory;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Po restarcie kolejność LRU odtwarzamy z czasu modyfikacji, odświeżanego przy odczycie
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+            totalBytes += file.length();
+        }
+        evict(null);
+        Log.d(TAG, "Segment cache: " + entries.size() + " segments, " + totalBytes / 1024 + " KB");
+    }
+
+    public static SegmentCache get(Context context) {
+        if (instance == null) {
+            synchronized (SegmentCache.class) {
+                if (instance == null) {
+                    instance = new SegmentCache(new File(context.getApplicationContext().getCacheDir(), "stream_segments"));
+                }
+            }
+        }
+        return instance;
+    }
+
+    // part - plik długiego rozdziału podzielonego przez serwer, segment - blok SEGMENT_BYTES w tym pliku
+    public static String key(String jobId, int chapterIndex, int part, long segment) {
+        return jobId + "_" + chapterIndex + "_" + part + "_" + segment;
+    }
+
+    private File file(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    // Wczytuje segment do bufora; zwraca jego długość albo -1, jeśli segmentu nie ma w pamięci podręcznej
+    public int read(String key, byte[] buffer) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return -1;
+            }
+        }
+        File file = file(key);
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            int total = 0;
+            int read;
+            while (total < buffer.length && (read = inputStream.read(buffer, total, buffer.length - total)) != -1) {
+                total += read;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return total;
+        } catch (IOException e) {
+            // Segment mógł zostać właśnie usunięty przez evict() w innym wątku
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null) {
+                    totalBytes -= size;
+                }
+            }
+            return -1;
+        }
+    }
+
+    public void put(String key, byte[] data, int length) {
+        File target = file(key);
+        File tmp = new File(directory, key + "." + Thread.currentThread().getId() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tmp)) {
+            outputStream.write(data, 0, length);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to cache segment " + key, e);
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                return;
+            }
+            Long previous = entries.put(key, (long) length);
+            totalBytes += length - (previous != null ? previous : 0);
+            evict(key);
+        }
+    }
+
+    // Usuwa segmenty książki, np. po zapisaniu jej w całości na urządzeniu
+    public synchronized void removeJob(String jobId) {
+        List<String> removed = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (key.startsWith(jobId + "_")) {
+                removed.add(key);
+            }
+        }
+        for (String key : removed) {
+            totalBytes -= entries.remove(key);
+            file(key).delete();
+        }
+        Log.d(TAG, "Removed " + removed.size() + " cached segments of " + jobId);
+    }
+
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            totalBytes -= entry.getValue();
+            file(entry.getKey()).delete();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.neurovoice;
+
+import android.util.Log;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Klient HTTP odtwarzania strumieniowego - wszystkie metody blokują, wywoływać tylko z wątków roboczych
+public final class StreamClient {
+
+    private static final String TAG = "StreamClient";
+    private static volatile StreamClient instance;
+
+    private final OkHttpClient http = new OkHttpClient.Builder()
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .build();
+    private final Gson gson = new Gson();
+
+    public interface ProgressListener {
+        void onBytes(long count);
+    }
+
+    private StreamClient() {
+    }
+
+    public static StreamClient get() {
+        if (instance == null) {
+            synchronized (StreamClient.class) {
+                if (instance == null) {
+                    instance = new StreamClient();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static String absolute(String url) {
+        return url.startsWith("http") ? url : MainActivity.SERVER_URL + url;
+    }
+
+    public ChapterListing fetchChapters(String jobId) throws IOException {
+        Request request = new Request.Builder().url(absolute("/jobs/" + jobId + "/chapters")).build();
+        try (Response response = http.newCall(request).execute()) {
+            if (response.code() == 404) {
+                throw new IOException("Książka nie jest już dostępna na serwerze");
+            }
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("HTTP " + response.code());
+            }
+            try (Reader reader = new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8)) {
+                return gson.fromJson(reader, ChapterListing.class);
+            }
+        }
+    }
+
+    // Zwraca null, jeśli rozdział nie ma indeksu zdań
+    public ChapterIndex fetchIndex(String url) throws IOException {
+        if (url == null) {
+            return null;
+        }
+        Request request = new Request.Builder().url(absolute(url)).build();
+        try (Response response = http.newCall(request).execute()) {
+            if (response.code() == 404 || response.body() == null) {
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code());
+            }
+            return ChapterIndex.parse(response.body().byteStream());
+        }
+    }
+
+    // Kopiuje całą odpowiedź bez parsowania, np. indeks zdań zapisywany w ZIP
+    public void copyTo(String url, OutputStream outputStream) throws IOException {
+        Request request = new Request.Builder().url(absolute(url)).build();
+        try (Response response = http.newCall(request).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("HTTP " + response.code() + " dla " + url);
+            }
+            try (InputStream inputStream = response.body().byteStream()) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    // Pobiera bajty [start, start + length) do bufora; krótsza odpowiedź kończy się IOException, jak w copyRange
+    public int readRange(String url, long start, byte[] buffer, int length) throws IOException {
+        try (ResponseBody body = openRange(url, start, start + length - 1);
+             InputStream inputStream = body.byteStream()) {
+            int total = 0;
+            while (total < length) {
+                int read = inputStream.read(buffer, total, length - total);
+                if (read == -1) {
+                    throw new IOException("Połączenie przerwane po " + total + " z " + length + " bajtach");
+                }
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    // Kopiuje bajty [start, endInclusive] do strumienia wyjściowego bez buforowania całości w pamięci
+    public void copyRange(String url, long start, long endInclusive, OutputStream outputStream,
+                          ProgressListener listener) throws IOException {
+        try (ResponseBody body = openRange(url, start, endInclusive);
+             InputStream inputStream = body.byteStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = endInclusive - start + 1;
+            while (remaining > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Połączenie przerwane po " + (endInclusive - start + 1 - remaining) + " bajtach");
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+                listener.onBytes(read);
+            }
+        }
+    }
+
+    private ResponseBody openRange(String url, long start, long endInclusive) throws IOException {
+        Request request = new Request.Builder()
+                .url(absolute(url))
+                .header("Range", "bytes=" + start + "-" + endInclusive)
+                .build();
+        Response response = http.newCall(request).execute();
+        ResponseBody body = response.body();
+        if ((response.code() != 206 && response.code() != 200) || body == null) {
+            response.close();
+            throw new IOException("HTTP " + response.code() + " dla zakresu " + start + "-" + endInclusive);
+        }
+        if (response.code() == 200 && start > 0) {
+            // Serwer zignorował nagłówek Range - pomijamy początek pliku
+            Log.w(TAG, "Server ignored Range header for " + url);
+            long skipped = 0;
+            InputStream inputStream = body.byteStream();
+            while (skipped < start) {
+                long step = inputStream.skip(start - skipped);
+                if (step <= 0) {
+                    response.close();
+                    throw new IOException("Nie można pominąć " + start + " bajtów odpowiedzi");
+                }
+                skipped += step;
+            }
+        }
+        return body;
+    }
+}
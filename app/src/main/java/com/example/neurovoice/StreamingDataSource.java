@@ -0,0 +1,261 @@
+package com.example.neurovoice;
+
+import android.media.MediaDataSource;
+import android.os.Process;
+import android.util.Log;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Rozdział odtwarzany strumieniowo: MediaPlayer czyta segmenty z SegmentCache, a brakujące
+// pobiera zapytaniami Range. Po każdym odczycie kolejne segmenty są pobierane z wyprzedzeniem.
+public class StreamingDataSource extends MediaDataSource {
+
+    private static final String TAG = "StreamingDataSource";
+    // 8 segmentów po 256 KB to ok. półtorej minuty audio przy 192 kb/s
+    private static final int READ_AHEAD_SEGMENTS = 8;
+    private static final long IN_FLIGHT_WAIT_MS = 30_000;
+    private static final ExecutorService readAheadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "neurovoice-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SegmentCache cache;
+    private final StreamClient client;
+    private final String jobId;
+    private final int chapterIndex;
+    private final int part;
+    private final String audioUrl;
+    private final long size;
+    private final long segmentCount;
+    private final Set<Long> inFlight = new HashSet<>();
+    private final byte[] segmentBuffer = new byte[SegmentCache.SEGMENT_BYTES];
+    private long bufferedSegment = -1;
+    private int bufferedLength;
+    private volatile boolean closed;
+
+    public StreamingDataSource(SegmentCache cache, StreamClient client, String jobId, int chapterIndex,
+                               ChapterListing.Segment part) {
+        this.cache = cache;
+        this.client = client;
+        this.jobId = jobId;
+        this.chapterIndex = chapterIndex;
+        this.part = part.segment;
+        this.audioUrl = part.audioUrl;
+        this.size = part.bytes;
+        this.segmentCount = (size + SegmentCache.SEGMENT_BYTES - 1) / SegmentCache.SEGMENT_BYTES;
+    }
+
+    private String key(long segment) {
+        return SegmentCache.key(jobId, chapterIndex, part, segment);
+    }
+
+    private int segmentLength(long segment) {
+        return (int) Math.min(SegmentCache.SEGMENT_BYTES, size - segment * SegmentCache.SEGMENT_BYTES);
+    }
+
+    // Wywoływane przez MediaPlayer z jego własnego wątku
+    @Override
+    public synchronized int readAt(long position, byte[] buffer, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Data source closed");
+        }
+        if (position >= size) {
+            return -1;
+        }
+        long segment = position / SegmentCache.SEGMENT_BYTES;
+        if (segment != bufferedSegment) {
+            loadSegment(segment);
+            scheduleReadAhead(segment);
+        }
+        int inSegment = (int) (position - segment * SegmentCache.SEGMENT_BYTES);
+        int count = Math.min(length, bufferedLength - inSegment);
+        if (count <= 0) {
+            return -1;
+        }
+        System.arraycopy(segmentBuffer, inSegment, buffer, offset, count);
+        return count;
+    }
+
+    private void loadSegment(long segment) throws IOException {
+        bufferedSegment = -1;
+        waitForReadAhead(segment);
+        int length = cache.read(key(segment), segmentBuffer);
+        if (length < 0) {
+            try (PerfTracer.Section section = PerfTracer.begin("stream.fetchSegment")) {
+                section.setDetail(jobId + " chapter " + chapterIndex + "/" + part + " segment " + segment);
+                length = client.readRange(audioUrl, segment * SegmentCache.SEGMENT_BYTES, segmentBuffer, segmentLength(segment));
+                section.addBytes(length);
+                section.complete();
+            }
+            cache.put(key(segment), segmentBuffer, length);
+        }
+        bufferedSegment = segment;
+        bufferedLength = length;
+    }
+
+    // Segment pobierany właśnie z wyprzedzeniem nie jest pobierany drugi raz
+    private void waitForReadAhead(long segment) throws IOException {
+        long deadline = System.currentTimeMillis() + IN_FLIGHT_WAIT_MS;
+        synchronized (inFlight) {
+            while (inFlight.contains(segment)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    inFlight.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for segment " + segment);
+                }
+            }
+        }
+    }
+
+    private void scheduleReadAhead(long segment) {
+        long first = -1;
+        long last = -1;
+        synchronized (inFlight) {
+            for (long next = segment + 1; next < Math.min(segmentCount, segment + 1 + READ_AHEAD_SEGMENTS); next++) {
+                if (inFlight.contains(next) || cache.contains(key(next))) {
+                    if (first >= 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (first < 0) {
+                    first = next;
+                }
+                last = next;
+                inFlight.add(next);
+            }
+        }
+        if (first < 0) {
+            return;
+        }
+        long from = first;
+        long to = last;
+        try {
+            readAheadExecutor.execute(() -> readAhead(from, to));
+        } catch (RejectedExecutionException e) {
+            releaseInFlight(from, to);
+        }
+    }
+
+    // Ciągły zakres brakujących segmentów pobierany jednym zapytaniem Range
+    private void readAhead(long first, long last) {
+        try {
+            if (closed) {
+                return;
+            }
+            long start = first * SegmentCache.SEGMENT_BYTES;
+            long end = Math.min(size, (last + 1) * SegmentCache.SEGMENT_BYTES) - 1;
+            byte[] buffer = new byte[SegmentCache.SEGMENT_BYTES];
+            try (PerfTracer.Section section = PerfTracer.begin("stream.readAhead")) {
+                section.setDetail(jobId + " chapter " + chapterIndex + "/" + part + " segments " + first + "-" + last);
+                client.copyRange(audioUrl, start, end, new SegmentWriter(first, buffer), section::addBytes);
+                section.complete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Read-ahead failed for chapter " + chapterIndex + ": " + e.getMessage());
+        } finally {
+            releaseInFlight(first, last);
+        }
+    }
+
+    private void releaseInFlight(long first, long last) {
+        synchronized (inFlight) {
+            for (long segment = first; segment <= last; segment++) {
+                inFlight.remove(segment);
+            }
+            inFlight.notifyAll();
+        }
+    }
+
+    // Dzieli strumień zakresu na segmenty i zapisuje każdy pełny segment w pamięci podręcznej
+    private class SegmentWriter extends OutputStream {
+        private final byte[] buffer;
+        private long segment;
+        private int filled;
+
+        SegmentWriter(long firstSegment, byte[] buffer) {
+            this.segment = firstSegment;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (closed) {
+                // Odtwarzacz zamknięto - przerywamy pobieranie reszty zakresu
+                throw new IOException("Data source closed");
+            }
+            while (length > 0) {
+                int count = Math.min(length, segmentLength(segment) - filled);
+                System.arraycopy(data, offset, buffer, filled, count);
+                filled += count;
+                offset += count;
+                length -= count;
+                if (filled == segmentLength(segment)) {
+                    cache.put(key(segment), buffer, filled);
+                    releaseInFlight(segment, segment);
+                    segment++;
+                    filled = 0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    // Wywoływane przez MediaPlayer przy release() - bez blokady, aby nie czekać na trwające pobieranie
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // Zapisuje cały plik rozdziału do strumienia: segmenty z pamięci podręcznej bez pobierania,
+    // brakujące ciągłe zakresy jednym zapytaniem Range. Zwraca liczbę bajtów pobranych z sieci.
+    public static long copyPart(SegmentCache cache, StreamClient client, String jobId, int chapterIndex,
+                                ChapterListing.Segment part, OutputStream outputStream,
+                                StreamClient.ProgressListener listener) throws IOException {
+        long segmentCount = (part.bytes + SegmentCache.SEGMENT_BYTES - 1) / SegmentCache.SEGMENT_BYTES;
+        byte[] buffer = new byte[SegmentCache.SEGMENT_BYTES];
+        long downloaded = 0;
+        long segment = 0;
+        while (segment < segmentCount) {
+            int length = cache.read(SegmentCache.key(jobId, chapterIndex, part.segment, segment), buffer);
+            if (length >= 0) {
+                outputStream.write(buffer, 0, length);
+                listener.onBytes(length);
+                segment++;
+                continue;
+            }
+            long first = segment;
+            while (segment < segmentCount && !cache.contains(SegmentCache.key(jobId, chapterIndex, part.segment, segment))) {
+                segment++;
+            }
+            long start = first * SegmentCache.SEGMENT_BYTES;
+            long end = Math.min(part.bytes, segment * SegmentCache.SEGMENT_BYTES) - 1;
+            client.copyRange(part.audioUrl, start, end, outputStream, listener);
+            downloaded += end - start + 1;
+        }
+        return downloaded;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.neurovoice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LibrarySearchIndexTest {
+
+    private LibrarySearchIndex index;
+    private Book lalka;
+    private Book pan;
+    private Book zabka;
+
+    @Before
+    public void setUp() {
+        index = new LibrarySearchIndex();
+        lalka = new Book("lalka.zip", "Lalka", "Bolesław Prus", null);
+        pan = new Book("pan.zip", "Pan Tadeusz", "Adam Mickiewicz", null);
+        zabka = new Book("zabka.zip", "Żabka i łąka", "Ąna Łucka", null);
+        index.put(lalka);
+        index.put(pan);
+        index.put(zabka);
+    }
+
+    @Test
+    public void fold_removesPolishDiacritics() {
+        assertEquals("zolc", LibrarySearchIndex.fold("Żółć"));
+        assertEquals("lodz", LibrarySearchIndex.fold("ŁÓDŹ"));
+        assertEquals("laka", LibrarySearchIndex.fold("łąka"));
+        assertEquals("", LibrarySearchIndex.fold(null));
+    }
+
+    @Test
+    public void search_ignoresDiacriticsInQueryAndTitle() {
+        assertEquals(Collections.singletonList(zabka), index.search("zabka"));
+        assertEquals(Collections.singletonList(zabka), index.search("ŻAB"));
+        assertEquals(Collections.singletonList(zabka), index.search("łąk"));
+        assertEquals(Collections.singletonList(zabka), index.search("Lucka"));
+        assertEquals(Collections.singletonList(lalka), index.search("boleslaw"));
+        assertEquals(Collections.singletonList(zabka), index.search("ana"));
+    }
+
+    @Test
+    public void search_requiresEveryWordPrefix() {
+        assertEquals(Collections.singletonList(pan), index.search("pan tad"));
+        assertEquals(Collections.singletonList(pan), index.search("tad  mick"));
+        assertEquals(Collections.singletonList(zabka), index.search("ząb, ł"));
+        assertTrue(index.search("pan prus").isEmpty());
+        assertTrue(index.search("xyz").isEmpty());
+    }
+
+    @Test
+    public void search_matchesWordsLongerThanIndexedPrefix() {
+        assertEquals(Collections.singletonList(pan), index.search("Mickiewicz"));
+        assertEquals(Collections.singletonList(pan), index.search("mickiewi"));
+        assertTrue(index.search("mickiewiczowski").isEmpty());
+    }
+
+    @Test
+    public void search_emptyQueryReturnsLibraryInInsertionOrder() {
+        assertEquals(Arrays.asList(lalka, pan, zabka), index.search(""));
+        assertEquals(Arrays.asList(lalka, pan, zabka), index.search("  "));
+        assertEquals(Arrays.asList(lalka, zabka), index.search("l"));
+    }
+
+    @Test
+    public void put_updatesEntryAfterTitleChangeAndKeepsOrder() {
+        lalka.setTitle("Emancypantki");
+        index.put(lalka);
+
+        assertTrue(index.search("lalka").isEmpty());
+        assertEquals(Collections.singletonList(lalka), index.search("emancyp"));
+        assertEquals(Collections.singletonList(lalka), index.search("prus"));
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList(lalka, pan, zabka), index.search(""));
+    }
+
+    @Test
+    public void remove_dropsBookFromEveryPrefix() {
+        index.remove(zabka);
+
+        assertEquals(2, index.size());
+        assertTrue(index.search("żab").isEmpty());
+        assertTrue(index.search("lucka").isEmpty());
+        assertEquals(Collections.singletonList(lalka), index.search("l"));
+
+        // Ponowne usunięcie nie zmienia indeksu
+        index.remove(zabka);
+        assertEquals(2, index.size());
+    }
+}